@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia.benchmark;
+
+import contingencia.AlmacenMercaderias;
+import contingencia.Archivo;
+import contingencia.Modelo.Mercaderia;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Carga y guardado del catalogo: el almacen mapeado en memoria frente a la
+ * serializacion completa de {@link Archivo}.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AlmacenBench {
+
+  /** Mercaderias modificadas entre dos guardados. */
+  private static final int SUCIAS = 1000;
+
+  @Param({"1000", "100000", "1000000"})
+  public int tamano;
+
+  private Path directorio;
+  private String almacen;
+  private String archivo;
+  private ObservableList<Mercaderia> mercaderias;
+  private AlmacenMercaderias abierto;
+
+  @Setup(Level.Trial)
+  public void preparar() throws IOException {
+    directorio = Files.createTempDirectory("mercaderias");
+    almacen = directorio.resolve("Mercaderia").toString();
+    archivo = directorio.resolve("Serializado").toString();
+    mercaderias = FXCollections.observableArrayList(Datos.mercaderias(Datos.claves(tamano)));
+    abierto = new AlmacenMercaderias(almacen);
+    abierto.guardar(mercaderias);
+    abierto.sincronizar();
+    new Archivo<Mercaderia>().guardar(mercaderias, archivo);
+  }
+
+  @TearDown(Level.Trial)
+  public void terminar() throws IOException {
+    abierto.cerrar();
+    Datos.borrar(directorio);
+  }
+
+  @Benchmark
+  public List<Mercaderia> cargarAlmacen() throws IOException {
+    AlmacenMercaderias nuevo = new AlmacenMercaderias(almacen);
+    try {
+      return nuevo.cargar();
+    } finally {
+      nuevo.cerrar();
+    }
+  }
+
+  @Benchmark
+  public void guardarSucias(Hilo hilo) throws IOException {
+    for(int i = 0; i < SUCIAS; i++) {
+      Mercaderia mercaderia = mercaderias.get(hilo.siguiente(tamano));
+      mercaderia.setExistencias(mercaderia.getExistencias() - 1);
+      abierto.escribir(mercaderia);
+    }
+    abierto.sincronizar();
+  }
+
+  @Benchmark
+  public List<Mercaderia> cargarArchivo() {
+    return new Archivo<Mercaderia>().cargar(archivo);
+  }
+
+  @Benchmark
+  public boolean guardarArchivo() {
+    return new Archivo<Mercaderia>().guardar(mercaderias, archivo);
+  }
+}
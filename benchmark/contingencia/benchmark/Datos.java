@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia.benchmark;
+
+import contingencia.Modelo.Mercaderia;
+import contingencia.Modelo.Remito;
+import contingencia.Modelo.Renglones;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Datos sinteticos para los benchmarks. Usan una semilla fija para que dos
+ * versiones se midan sobre los mismos catalogos e historiales.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+final class Datos {
+
+  /** Existencias iniciales, suficientes para no agotarse durante la medicion. */
+  static final int EXISTENCIAS = 1 << 30;
+
+  private static final String[] PALABRAS = {
+    "Refresco", "Cola", "Naranja", "Galletas", "Chocolate", "Leche", "Entera",
+    "Deslactosada", "Pan", "Blanco", "Integral", "Arroz", "Frijol", "Aceite",
+    "Vegetal", "Jabon", "Polvo", "Detergente", "Papel", "Higienico", "Rollizo",
+    "Atun", "Agua", "Natural", "Cafe", "Soluble", "Azucar", "Sal", "Huevo"
+  };
+  private static final String[] UNIDADES = {"pz", "kg", "lt", "caja", "paquete"};
+
+  private Datos() {
+  }
+
+  /**
+   * Claves distintas y dispersas.
+   * @param tamano Numero de claves.
+   * @return Claves.
+   */
+  static int[] claves(int tamano) {
+    int[] claves = new int[tamano];
+    for(int i = 0; i < tamano; i++) {
+      // Multiplicar por un impar es una permutacion de los enteros.
+      claves[i] = ((i + 1) * 0x2545F491) & Integer.MAX_VALUE;
+    }
+    return claves;
+  }
+
+  /**
+   * Catalogo de Mercaderias con nombres y descripciones de varias palabras.
+   * @param claves Claves del catalogo.
+   * @return Mercaderias.
+   */
+  static List<Mercaderia> mercaderias(int[] claves) {
+    Random azar = new Random(17);
+    List<Mercaderia> lista = new ArrayList<>(claves.length);
+    for (int clave : claves) {
+      lista.add(new Mercaderia(
+          clave,
+          frase(azar, 2) + " " + (1 + azar.nextInt(3)) + "." + azar.nextInt(10),
+          frase(azar, 5),
+          1 + azar.nextInt(50000) / 100.0,
+          EXISTENCIAS,
+          UNIDADES[azar.nextInt(UNIDADES.length)]
+      ));
+    }
+    return lista;
+  }
+
+  /**
+   * Historial de Remitos en orden cronologico que termina hoy.
+   * @param anios Años de historial.
+   * @param porDia Remitos por dia.
+   * @param claves Claves que se venden.
+   * @return Remitos.
+   */
+  static List<Remito> remitos(int anios, int porDia, int[] claves) {
+    Random azar = new Random(29);
+    int dias = anios * 365;
+    int primerDia = (int) LocalDate.now().toEpochDay() - dias + 1;
+    List<Remito> lista = new ArrayList<>(dias * porDia);
+    Renglones renglones = new Renglones();
+    int folio = 1;
+    for(int dia = 0; dia < dias; dia++) {
+      for(int i = 0; i < porDia; i++) {
+        renglones.limpiar();
+        int lineas = 1 + azar.nextInt(4);
+        for(int j = 0; j < lineas; j++) {
+          renglones.agregar(claves[azar.nextInt(claves.length)], 1 + azar.nextInt(5), 1 + azar.nextInt(50000) / 100.0);
+        }
+        lista.add(new Remito(folio++, primerDia + dia, renglones, 0.16));
+      }
+    }
+    return lista;
+  }
+
+  /**
+   * Borra un directorio temporal y su contenido.
+   * @param directorio Directorio a borrar.
+   * @throws IOException Si no se pudo borrar.
+   */
+  static void borrar(Path directorio) throws IOException {
+    try(Stream<Path> archivos = Files.walk(directorio)) {
+      for (Path archivo : archivos.sorted(Comparator.reverseOrder()).toArray(Path[]::new)) {
+        Files.delete(archivo);
+      }
+    }
+  }
+
+  private static String frase(Random azar, int palabras) {
+    StringBuilder frase = new StringBuilder();
+    for(int i = 0; i < palabras; i++) {
+      if(i > 0) {
+        frase.append(' ');
+      }
+      frase.append(PALABRAS[azar.nextInt(PALABRAS.length)]);
+    }
+    return frase.toString();
+  }
+}
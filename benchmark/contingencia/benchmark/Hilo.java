@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia.benchmark;
+
+import contingencia.Modelo.Renglones;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Estado de cada hilo de un benchmark: su propio pedido y un generador de
+ * posiciones aleatorias (xorshift) que no comparte nada con otros hilos.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+@State(Scope.Thread)
+public class Hilo {
+
+  final Renglones pedido = new Renglones();
+  private int semilla = (int) System.nanoTime() | 1;
+
+  /**
+   * Siguiente posicion aleatoria.
+   * @param limite Limite (exclusivo).
+   * @return Posicion entre 0 y limite - 1.
+   */
+  int siguiente(int limite) {
+    semilla ^= semilla << 13;
+    semilla ^= semilla >>> 17;
+    semilla ^= semilla << 5;
+    return (semilla & Integer.MAX_VALUE) % limite;
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia.benchmark;
+
+import contingencia.Modelo.Inventario;
+import contingencia.Modelo.Mercaderia;
+import contingencia.Modelo.Renglones;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Busqueda, venta y valuacion sobre el inventario en memoria.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InventarioBench {
+
+  @Param({"1000", "100000", "1000000"})
+  public int tamano;
+
+  private Inventario inventario;
+  private int[] claves;
+
+  @Setup(Level.Trial)
+  public void preparar() {
+    claves = Datos.claves(tamano);
+    inventario = new Inventario(Datos.mercaderias(claves));
+  }
+
+  @Benchmark
+  public Mercaderia buscar(Hilo hilo) {
+    return inventario.buscar(claves[hilo.siguiente(tamano)]);
+  }
+
+  @Benchmark
+  public boolean existeAusente(Hilo hilo) {
+    return inventario.existe(-1 - hilo.siguiente(tamano));
+  }
+
+  @Benchmark
+  public Renglones vender(Hilo hilo) {
+    hilo.pedido.limpiar();
+    hilo.pedido.agregar(claves[hilo.siguiente(tamano)], 1, 0);
+    return inventario.vender(hilo.pedido);
+  }
+
+  @Benchmark
+  public Renglones venderPedido(Hilo hilo) {
+    hilo.pedido.limpiar();
+    for(int i = 0; i < 5; i++) {
+      hilo.pedido.agregar(claves[hilo.siguiente(tamano)], 1 + i, 0);
+    }
+    return inventario.vender(hilo.pedido);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public double valorar() {
+    double valor = 0;
+    for (Mercaderia mercaderia : inventario.getMercaderias()) {
+      valor += mercaderia.getPrecioCompra() * mercaderia.getExistencias();
+    }
+    return valor;
+  }
+
+  @Benchmark
+  public long precioVenta(Hilo hilo) {
+    return inventario.buscar(claves[hilo.siguiente(tamano)]).getPrecioVentaCentavos();
+  }
+}
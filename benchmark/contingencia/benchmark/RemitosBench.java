@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia.benchmark;
+
+import contingencia.AlmacenRemitos;
+import contingencia.GeneradorReportes;
+import contingencia.RemitosPaginados;
+import contingencia.Modelo.Remito;
+import contingencia.Modelo.Reporte;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Historial de Remitos de varios años: filtrado por fecha, lectura de
+ * paginas, reportes de ventas y apertura del historial.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RemitosBench {
+
+  private static final int POR_DIA = 200;
+
+  @Param({"1", "5"})
+  public int anios;
+
+  private Path directorio;
+  private String nombre;
+  private AlmacenRemitos almacen;
+  private RemitosPaginados remitos;
+  private GeneradorReportes reportes;
+  private int hoy;
+
+  @Setup(Level.Trial)
+  public void preparar() throws IOException {
+    directorio = Files.createTempDirectory("remitos");
+    nombre = directorio.resolve("Remitos").toString();
+    List<Remito> historial = Datos.remitos(anios, POR_DIA, Datos.claves(10000));
+    AlmacenRemitos nuevo = new AlmacenRemitos(nombre);
+    for(int i = 0; i < historial.size(); i += 10000) {
+      nuevo.agregar(historial.subList(i, Math.min(i + 10000, historial.size())));
+    }
+    nuevo.cerrar();
+    almacen = new AlmacenRemitos(nombre);
+    remitos = new RemitosPaginados(almacen, Runnable::run);
+    reportes = new GeneradorReportes(remitos);
+    hoy = (int) LocalDate.now().toEpochDay();
+  }
+
+  @TearDown(Level.Trial)
+  public void terminar() throws IOException {
+    remitos.cerrar();
+    Datos.borrar(directorio);
+  }
+
+  @Benchmark
+  public Remito filtrarDia(Hilo hilo) {
+    int dia = hoy - hilo.siguiente(anios * 365);
+    List<Remito> delDia = remitos.rango(remitos.inicioDia(dia), remitos.inicioDia(dia + 1));
+    return delDia.get(delDia.size() - 1);
+  }
+
+  @Benchmark
+  public int filtrarPosteriores(Hilo hilo) {
+    int dia = hoy - hilo.siguiente(anios * 365);
+    return remitos.rango(remitos.inicioDia(dia + 1), remitos.total()).size();
+  }
+
+  @Benchmark
+  public Remito[] leerPagina(Hilo hilo) throws IOException {
+    int desde = hilo.siguiente(almacen.tamano() - RemitosPaginados.PAGINA);
+    return almacen.leer(desde, desde + RemitosPaginados.PAGINA);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public Reporte reporteCompleto() throws IOException {
+    return reportes.generar();
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public Reporte reporteMes(Hilo hilo) throws IOException {
+    int dia = hoy - hilo.siguiente(anios * 365);
+    return reportes.generar(dia - 30, dia);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public Remito abrir() throws IOException {
+    AlmacenRemitos abierto = new AlmacenRemitos(nombre);
+    try {
+      return abierto.leer(abierto.tamano() - 1, abierto.tamano())[0];
+    } finally {
+      abierto.cerrar();
+    }
+  }
+}
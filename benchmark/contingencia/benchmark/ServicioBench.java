@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia.benchmark;
+
+import contingencia.ServicioInventario;
+import contingencia.Modelo.Mercaderia;
+import contingencia.Modelo.Remito;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ventas concurrentes a traves del servicio completo: existencias, folios,
+ * historial y bitacora. El servicio usa el directorio actual, por lo que
+ * "ant benchmark" lo ejecuta en un directorio de trabajo propio.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ServicioBench {
+
+  private static final String[] ARCHIVOS = {
+    "Mercaderia.dat", "Mercaderia.cad", "Remitos.rem", "Remitos.idx", "Bitacora", "Folios"
+  };
+
+  @Param({"1000", "100000"})
+  public int tamano;
+
+  private ServicioInventario servicio;
+  private int[] claves;
+
+  @Setup(Level.Trial)
+  public void preparar() throws IOException {
+    borrarArchivos();
+    claves = Datos.claves(tamano);
+    servicio = new ServicioInventario(Runnable::run);
+    for (Mercaderia mercaderia : Datos.mercaderias(claves)) {
+      servicio.agregar(mercaderia);
+    }
+    servicio.guardar();
+  }
+
+  @TearDown(Level.Trial)
+  public void terminar() throws IOException {
+    servicio.cerrar();
+    borrarArchivos();
+  }
+
+  @Benchmark
+  public Remito vender(Hilo hilo) {
+    return venta(hilo, 1);
+  }
+
+  @Benchmark
+  public Remito venderPedido(Hilo hilo) {
+    return venta(hilo, 4);
+  }
+
+  private Remito venta(Hilo hilo, int lineas) {
+    hilo.pedido.limpiar();
+    for(int i = 0; i < lineas; i++) {
+      hilo.pedido.agregar(claves[hilo.siguiente(tamano)], 1, 0);
+    }
+    return servicio.vender(hilo.pedido);
+  }
+
+  private static void borrarArchivos() throws IOException {
+    for (String archivo : ARCHIVOS) {
+      Files.deleteIfExists(Paths.get(archivo));
+    }
+  }
+}
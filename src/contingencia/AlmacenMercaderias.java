@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia;
+
+import contingencia.Modelo.IndiceEntero;
+import contingencia.Modelo.Mercaderia;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Almacen binario de Mercaderias mapeado en memoria.
+ *
+ * El archivo .dat tiene un encabezado y filas de tamaño fijo:
+ * [clave][existencias][precio][nombre][descripcion][unidad][estado], donde
+ * los campos de texto son desplazamientos dentro del archivo .cad, un monton
+ * de cadenas de solo-agregar con entradas [longitud][bytes UTF-8]. Ambos
+ * archivos se leen y escriben a traves de un MappedByteBuffer. Guardar una
+ * Mercaderia reescribe los campos fijos de su fila en su lugar y solo agrega
+ * al monton los textos que cambiaron, asi que una venta, que solo cambia las
+ * existencias, no agrega nada al .cad.
+ *
+ * Los textos reemplazados y las filas borradas quedan en los archivos hasta
+ * que {@link #guardar(Collection)} los compacta, cuando lo muerto ya pesa mas
+ * que lo vivo. La compactacion escribe un .cad y un .dat nuevos aparte y los
+ * pone en lugar de los anteriores; si se interrumpe, al abrir se termina o se
+ * descarta, segun haya llegado o no a renombrar el .dat nuevo.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public class AlmacenMercaderias {
+
+  private static final int MAGIA = 0x4D455243;
+  private static final int VERSION = 1;
+  private static final int ENCABEZADO = 16;
+  private static final int FILA = 32;
+  private static final int BLOQUE = 1024;
+  /** Bytes muertos del monton a partir de los que vale la pena compactar. */
+  private static final int COMPACTAR = 1 << 20;
+
+  private static final int CLAVE = 0;
+  private static final int EXISTENCIAS = 4;
+  private static final int PRECIO = 8;
+  private static final int NOMBRE = 16;
+  private static final int DESCRIPCION = 20;
+  private static final int UNIDAD = 24;
+  private static final int ESTADO = 28;
+  private static final int[] TEXTOS = {NOMBRE, DESCRIPCION, UNIDAD};
+
+  private static final int BORRADA = 0;
+  private static final int ACTIVA = 1;
+
+  private final String nombre;
+  private FileChannel canalFilas;
+  private FileChannel canalCadenas;
+  private IndiceEntero<Integer> filasPorClave;
+  private MappedByteBuffer filas;
+  private MappedByteBuffer cadenas;
+  private int numFilas;
+  private int bytesCadenas;
+  private long vivos;
+
+  /**
+   * Abre (o crea) el almacen.
+   * @param nombre Nombre base de los archivos.
+   * @throws IOException Si los archivos no se pueden abrir o no son validos.
+   */
+  public AlmacenMercaderias(String nombre) throws IOException {
+    this.nombre = nombre;
+    terminarCompactacion(nombre);
+    abrir();
+  }
+
+  /**
+   * Abre y mapea los archivos e indexa las filas activas.
+   */
+  private void abrir() throws IOException {
+    canalFilas = FileChannel.open(Paths.get(nombre + ".dat"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    canalCadenas = FileChannel.open(Paths.get(nombre + ".cad"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    if(canalFilas.size() == 0) {
+      filas = canalFilas.map(FileChannel.MapMode.READ_WRITE, 0, ENCABEZADO + 64 * FILA);
+      filas.putInt(0, MAGIA);
+      filas.putInt(4, VERSION);
+    } else {
+      filas = canalFilas.map(FileChannel.MapMode.READ_WRITE, 0, canalFilas.size());
+      if(filas.getInt(0) != MAGIA || filas.getInt(4) != VERSION) {
+        throw new IOException("Formato de " + nombre + ".dat invalido.");
+      }
+    }
+    numFilas = filas.getInt(8);
+    bytesCadenas = filas.getInt(12);
+    cadenas = canalCadenas.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(canalCadenas.size(), Math.max(bytesCadenas, 4096)));
+    filasPorClave = new IndiceEntero<>(numFilas);
+    vivos = 0;
+    for(int fila = 0; fila < numFilas; fila++) {
+      int base = ENCABEZADO + fila * FILA;
+      if(filas.getInt(base + ESTADO) == ACTIVA) {
+        filasPorClave.poner(filas.getInt(base + CLAVE), fila);
+        for (int campo : TEXTOS) {
+          vivos += 4 + cadenas.getInt(filas.getInt(base + campo));
+        }
+      }
+    }
+  }
+
+  /**
+   * Termina una compactacion interrumpida si ya se habia renombrado el .dat
+   * nuevo, o descarta sus temporales si no.
+   */
+  private static void terminarCompactacion(String nombre) throws IOException {
+    Path compacto = Paths.get(nombre + ".dat.compacto");
+    Path cadenasNuevas = Paths.get(nombre + ".cad.tmp");
+    if(Files.exists(compacto)) {
+      if(Files.exists(cadenasNuevas)) {
+        Files.move(cadenasNuevas, Paths.get(nombre + ".cad"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      }
+      Files.move(compacto, Paths.get(nombre + ".dat"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } else {
+      Files.deleteIfExists(cadenasNuevas);
+      Files.deleteIfExists(Paths.get(nombre + ".dat.tmp"));
+    }
+  }
+
+  /**
+   * Comprueba si existe el almacen en disco.
+   * @param nombre Nombre base de los archivos.
+   * @return Verdadero si existe, falso en caso contrario.
+   */
+  public static boolean existe(String nombre) {
+    return Files.exists(Paths.get(nombre + ".dat"));
+  }
+
+  /**
+   * Numero de Mercaderias activas.
+   * @return Tamaño.
+   */
+  public synchronized int tamano() {
+    return filasPorClave.tamano();
+  }
+
+  /**
+   * Lee todas las Mercaderias activas.
+   * @return Lista de Mercaderias.
+   */
+  public synchronized List<Mercaderia> cargar() {
+    List<Mercaderia> lista = new ArrayList<>(filasPorClave.tamano());
+    for(int fila = 0; fila < numFilas; fila++) {
+      if(filas.getInt(ENCABEZADO + fila * FILA + ESTADO) == ACTIVA) {
+        lista.add(leerFila(fila));
+      }
+    }
+    return lista;
+  }
+
+  /**
+   * Recorre las Mercaderias activas sin cargarlas todas. Se leen por bloques
+   * de filas y la accion se ejecuta fuera del candado, asi que una accion
+   * lenta (como escribir a disco) no detiene al resto del almacen.
+   * @param accion Accion para cada Mercaderia.
+   */
+  public void recorrer(Consumer<Mercaderia> accion) {
+    List<Mercaderia> bloque = new ArrayList<>(BLOQUE);
+    for(int desde = 0; ; desde += BLOQUE) {
+      synchronized(this) {
+        if(desde >= numFilas) {
+          return;
+        }
+        for(int fila = desde; fila < Math.min(desde + BLOQUE, numFilas); fila++) {
+          if(filas.getInt(ENCABEZADO + fila * FILA + ESTADO) == ACTIVA) {
+            bloque.add(leerFila(fila));
+          }
+        }
+      }
+      bloque.forEach(accion);
+      bloque.clear();
+    }
+  }
+
+  /**
+   * Agrega o actualiza una Mercaderia. Los textos solo se agregan al monton
+   * de cadenas si cambiaron.
+   * @param mercaderia Mercaderia a escribir.
+   * @throws IOException Si no se pudo ampliar el archivo.
+   */
+  public synchronized void escribir(Mercaderia mercaderia) throws IOException {
+    Integer fila = filasPorClave.obtener(mercaderia.getClave());
+    int base;
+    if(fila == null) {
+      if(ENCABEZADO + (numFilas + 1) * FILA > filas.capacity()) {
+        filas = canalFilas.map(FileChannel.MapMode.READ_WRITE, 0, ENCABEZADO + (long) numFilas * 2 * FILA);
+      }
+      fila = numFilas;
+      base = ENCABEZADO + fila * FILA;
+      filas.putInt(base + CLAVE, mercaderia.getClave());
+      filas.putInt(base + NOMBRE, agregarCadena(mercaderia.getNombre()));
+      filas.putInt(base + DESCRIPCION, agregarCadena(mercaderia.getDescripcion()));
+      filas.putInt(base + UNIDAD, agregarCadena(mercaderia.getTipoUnidad()));
+      numFilas++;
+      filas.putInt(8, numFilas);
+      filasPorClave.poner(mercaderia.getClave(), fila);
+    } else {
+      base = ENCABEZADO + fila * FILA;
+      escribirCadena(base + NOMBRE, mercaderia.getNombre());
+      escribirCadena(base + DESCRIPCION, mercaderia.getDescripcion());
+      escribirCadena(base + UNIDAD, mercaderia.getTipoUnidad());
+    }
+    filas.putInt(base + EXISTENCIAS, mercaderia.getExistencias());
+    filas.putDouble(base + PRECIO, mercaderia.getPrecioCompra());
+    filas.putInt(base + ESTADO, ACTIVA);
+  }
+
+  /**
+   * Marca una Mercaderia como borrada.
+   * @param clave Clave de la Mercaderia.
+   */
+  public synchronized void eliminar(int clave) {
+    Integer fila = filasPorClave.quitar(clave);
+    if(fila != null) {
+      int base = ENCABEZADO + fila * FILA;
+      for (int campo : TEXTOS) {
+        vivos -= 4 + cadenas.getInt(filas.getInt(base + campo));
+      }
+      filas.putInt(base + ESTADO, BORRADA);
+    }
+  }
+
+  /**
+   * Hace que el almacen refleje exactamente una lista de Mercaderias y, si
+   * los textos reemplazados o las filas borradas ya pesan mas que lo vivo,
+   * compacta los archivos.
+   * @param mercaderias Mercaderias a conservar.
+   * @throws IOException Si no se pudo ampliar o compactar el archivo.
+   */
+  public synchronized void guardar(Collection<Mercaderia> mercaderias) throws IOException {
+    IndiceEntero<Mercaderia> vigentes = new IndiceEntero<>(mercaderias.size());
+    for (Mercaderia mercaderia : mercaderias) {
+      vigentes.poner(mercaderia.getClave(), mercaderia);
+      escribir(mercaderia);
+    }
+    for(int fila = 0; fila < numFilas; fila++) {
+      int base = ENCABEZADO + fila * FILA;
+      if(filas.getInt(base + ESTADO) == ACTIVA && !vigentes.contiene(filas.getInt(base + CLAVE))) {
+        eliminar(filas.getInt(base + CLAVE));
+      }
+    }
+    int borradas = numFilas - filasPorClave.tamano();
+    if(bytesCadenas - vivos > Math.max(COMPACTAR, vivos) || borradas > Math.max(BLOQUE, filasPorClave.tamano())) {
+      compactar();
+    }
+  }
+
+  /**
+   * Reescribe el almacen con solo las filas activas y sus textos vigentes.
+   * Los archivos nuevos se escriben como .cad.tmp y .dat.tmp; el .dat.tmp
+   * renombrado a .dat.compacto es el punto de no retorno, y despues cada uno
+   * reemplaza al anterior (ver {@link #terminarCompactacion(String)}).
+   */
+  private void compactar() throws IOException {
+    Path cadenasNuevas = Paths.get(nombre + ".cad.tmp");
+    Path filasNuevas = Paths.get(nombre + ".dat.tmp");
+    int activas = filasPorClave.tamano();
+    ByteBuffer nuevas = ByteBuffer.allocate(ENCABEZADO + Math.max(activas, 64) * FILA);
+    int escritas = 0;
+    int escritos = 0;
+    try(FileChannel canal = FileChannel.open(cadenasNuevas, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      OutputStream salida = new BufferedOutputStream(Channels.newOutputStream(canal), 1 << 16);
+      byte[] texto = new byte[256];
+      ByteBuffer lectura = cadenas.duplicate();
+      for(int fila = 0; fila < numFilas; fila++) {
+        int base = ENCABEZADO + fila * FILA;
+        if(filas.getInt(base + ESTADO) != ACTIVA) {
+          continue;
+        }
+        int destino = ENCABEZADO + escritas * FILA;
+        for(int i = 0; i < FILA; i += 4) {
+          nuevas.putInt(destino + i, filas.getInt(base + i));
+        }
+        for (int campo : TEXTOS) {
+          int desplazamiento = filas.getInt(base + campo);
+          int longitud = 4 + cadenas.getInt(desplazamiento);
+          if(longitud > texto.length) {
+            texto = new byte[longitud];
+          }
+          lectura.position(desplazamiento);
+          lectura.get(texto, 0, longitud);
+          salida.write(texto, 0, longitud);
+          nuevas.putInt(destino + campo, escritos);
+          escritos += longitud;
+        }
+        escritas++;
+      }
+      salida.flush();
+      canal.force(true);
+    }
+    nuevas.putInt(0, MAGIA).putInt(4, VERSION).putInt(8, escritas).putInt(12, escritos);
+    try(FileChannel canal = FileChannel.open(filasNuevas, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      while(nuevas.hasRemaining()) {
+        canal.write(nuevas);
+      }
+      canal.force(true);
+    }
+    Files.move(filasNuevas, Paths.get(nombre + ".dat.compacto"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    canalFilas.close();
+    canalCadenas.close();
+    terminarCompactacion(nombre);
+    abrir();
+  }
+
+  /**
+   * Fuerza los cambios al disco.
+   */
+  public synchronized void sincronizar() {
+    cadenas.force();
+    filas.force();
+  }
+
+  /**
+   * Sincroniza y cierra el almacen.
+   * @throws IOException Si ocurre un error al cerrar.
+   */
+  public synchronized void cerrar() throws IOException {
+    sincronizar();
+    canalFilas.close();
+    canalCadenas.close();
+  }
+
+  /**
+   * Decodifica una fila.
+   */
+  private Mercaderia leerFila(int fila) {
+    int base = ENCABEZADO + fila * FILA;
+    return new Mercaderia(
+        filas.getInt(base + CLAVE),
+        leerCadena(filas.getInt(base + NOMBRE)),
+        leerCadena(filas.getInt(base + DESCRIPCION)),
+        filas.getDouble(base + PRECIO),
+        filas.getInt(base + EXISTENCIAS),
+        leerCadena(filas.getInt(base + UNIDAD))
+    );
+  }
+
+  /**
+   * Lee una cadena del monton.
+   */
+  private String leerCadena(int desplazamiento) {
+    int longitud = cadenas.getInt(desplazamiento);
+    byte[] bytes = new byte[longitud];
+    ByteBuffer lectura = cadenas.duplicate();
+    lectura.position(desplazamiento + 4);
+    lectura.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reemplaza el texto de un campo solo si cambio.
+   */
+  private void escribirCadena(int campo, String valor) throws IOException {
+    int anterior = filas.getInt(campo);
+    if(!leerCadena(anterior).equals(valor)) {
+      vivos -= 4 + cadenas.getInt(anterior);
+      filas.putInt(campo, agregarCadena(valor));
+    }
+  }
+
+  /**
+   * Agrega una cadena al final del monton.
+   * @return Desplazamiento de la cadena.
+   */
+  private int agregarCadena(String valor) throws IOException {
+    byte[] bytes = valor.getBytes(StandardCharsets.UTF_8);
+    int necesario = bytesCadenas + 4 + bytes.length;
+    if(necesario > cadenas.capacity()) {
+      cadenas = canalCadenas.map(FileChannel.MapMode.READ_WRITE, 0, Math.max((long) necesario, (long) cadenas.capacity() * 2));
+    }
+    int desplazamiento = bytesCadenas;
+    cadenas.putInt(desplazamiento, bytes.length);
+    ByteBuffer escritura = cadenas.duplicate();
+    escritura.position(desplazamiento + 4);
+    escritura.put(bytes);
+    bytesCadenas = necesario;
+    vivos += 4 + bytes.length;
+    filas.putInt(12, bytesCadenas);
+    return desplazamiento;
+  }
+}
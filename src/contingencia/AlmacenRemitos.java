@@ -0,0 +1,643 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia;
+
+import contingencia.Modelo.Remito;
+import contingencia.Modelo.Validacion;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Historial de Remitos en disco con acceso por posicion.
+ *
+ * Los Remitos se agregan uno tras otro al archivo .rem; el archivo .idx,
+ * mapeado en memoria, guarda por cada uno [desplazamiento][longitud][folio]
+ * [dia]. Asi se puede leer cualquier rango de Remitos con una sola lectura sin
+ * cargar el historial completo. El indice se escribe despues de los datos,
+ * por lo que un Remito solo existe una vez que su entrada esta en el indice.
+ *
+ * Como los Remitos se agregan en orden cronologico, la columna de dias esta
+ * ordenada y sirve de indice por fecha con busqueda binaria. Si alguna vez se
+ * agrega un dia anterior al ultimo (reloj atrasado) se marca en el
+ * encabezado y {@link #ordenadoPorDia()} deja de ser verdadero.
+ *
+ * Los meses viejos se pueden pasar con {@link #archivar(int)} a segmentos
+ * inmutables y comprimidos ({@link SegmentoRemitos}), uno por mes, llamados
+ * nombre-AAAAMM-folio.seg. Solo la particion actual (.idx y .rem) cambia, asi
+ * que guardar cuesta lo mismo sin importar la antiguedad del historial. Los
+ * segmentos van antes de la particion actual y las posiciones no cambian al
+ * archivar, asi que quien lee no lo nota.
+ *
+ * Las versiones 1 y 2 del indice guardaban los Remitos en los formatos 1 y 2
+ * ({@link Remito#FORMATO}), y las versiones 3 (sin segmentos) y 4 en el
+ * formato 3. Se convierten al abrirlas: los Remitos se reescriben al final
+ * del .rem y un indice nuevo reemplaza al anterior con un solo renombrado,
+ * asi que una caida a media conversion deja el almacen como estaba. Los
+ * segmentos guardan su propio formato y no se convierten.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public class AlmacenRemitos {
+
+  private static final int MAGIA = 0x52454D49;
+  private static final int VERSION = 5;
+  private static final int ENCABEZADO = 32;
+  private static final int ENTRADA = 20;
+  /** Ultima version sin segmentos ni generaciones. */
+  private static final int VERSION_SIN_SEGMENTOS = 3;
+  private static final int ENCABEZADO_SIN_SEGMENTOS = 16;
+  /**
+   * Formato de los Remitos en las versiones 3 y 4, con renglones sin nombre
+   * ni unidad.
+   */
+  private static final int FORMATO_SIN_TEXTOS = 3;
+  /** Entrada de la version 1, que no tenia la columna de dias. */
+  private static final int ENTRADA_FECHA = 16;
+
+  private final String nombre;
+  private final List<SegmentoRemitos> segmentos;
+  private final List<Integer> inicios;
+  private FileChannel datos;
+  private FileChannel canalIndice;
+  private MappedByteBuffer indice;
+  private int generacion;
+  private int cantidad;
+  private int base;
+  private int archivados;
+  private long finDatos;
+  private boolean ordenado;
+  private boolean archivoOrdenado = true;
+
+  /**
+   * Abre (o crea) el almacen.
+   * @param nombre Nombre base de los archivos.
+   * @throws IOException Si los archivos no se pueden abrir o no son validos.
+   */
+  public AlmacenRemitos(String nombre) throws IOException {
+    this.nombre = nombre;
+    convertir(nombre);
+    canalIndice = FileChannel.open(Paths.get(nombre + ".idx"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    if(canalIndice.size() == 0) {
+      indice = canalIndice.map(FileChannel.MapMode.READ_WRITE, 0, ENCABEZADO + 1024 * ENTRADA);
+      indice.putInt(0, MAGIA);
+      indice.putInt(4, VERSION);
+    } else {
+      indice = canalIndice.map(FileChannel.MapMode.READ_WRITE, 0, canalIndice.size());
+      if(indice.getInt(0) != MAGIA || indice.getInt(4) != VERSION) {
+        throw new IOException("Formato de " + nombre + ".idx invalido.");
+      }
+    }
+    generacion = indice.getInt(16);
+    cantidad = indice.getInt(8);
+    ordenado = indice.getInt(12) == 0;
+    finDatos = cantidad == 0 ? 0 : desplazamiento(cantidad - 1) + longitud(cantidad - 1);
+    datos = FileChannel.open(datos(generacion), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    limpiar();
+    segmentos = new ArrayList<>();
+    inicios = new ArrayList<>();
+    TreeMap<Integer, Path> porFolio = new TreeMap<>();
+    Path carpeta = carpeta();
+    try(DirectoryStream<Path> archivos = Files.newDirectoryStream(carpeta, Paths.get(nombre).getFileName() + "-*.seg")) {
+      for (Path archivo : archivos) {
+        String texto = archivo.getFileName().toString();
+        int folio = Validacion.entero(texto.substring(texto.lastIndexOf('-') + 1, texto.length() - 4));
+        if(folio != Validacion.ENTERO_INVALIDO) {
+          porFolio.put(folio, archivo);
+        }
+      }
+    }
+    for (Path archivo : porFolio.values()) {
+      agregarSegmento(new SegmentoRemitos(archivo));
+    }
+    // Si se cayo despues de escribir un segmento y antes de reescribir la
+    // particion actual, sus primeros Remitos ya estan archivados.
+    if(archivados > 0) {
+      int ultimo = folio(archivados - 1);
+      while(base < cantidad && indice.getInt(ENCABEZADO + base * ENTRADA + 12) <= ultimo) {
+        base++;
+      }
+    }
+  }
+
+  /**
+   * Comprueba si existe el almacen en disco.
+   * @param nombre Nombre base de los archivos.
+   * @return Verdadero si existe, falso en caso contrario.
+   */
+  public static boolean existe(String nombre) {
+    return Files.exists(Paths.get(nombre + ".idx"));
+  }
+
+  /**
+   * Numero de Remitos guardados, archivados o no.
+   * @return Tamaño.
+   */
+  public synchronized int tamano() {
+    return archivados + cantidad - base;
+  }
+
+  /**
+   * Numero de Remitos archivados en segmentos.
+   * @return Tamaño.
+   */
+  public synchronized int archivados() {
+    return archivados;
+  }
+
+  /**
+   * Folio del Remito en una posicion.
+   * @param posicion Posicion.
+   * @return Folio.
+   */
+  public synchronized int folio(int posicion) {
+    if(posicion < archivados) {
+      int s = segmento(posicion);
+      return segmentos.get(s).folio(posicion - inicios.get(s));
+    }
+    return indice.getInt(ENCABEZADO + vigente(posicion) * ENTRADA + 12);
+  }
+
+  /**
+   * Dia del Remito en una posicion.
+   * @param posicion Posicion.
+   * @return Dias desde el 01/01/1970.
+   */
+  public synchronized int dia(int posicion) {
+    if(posicion < archivados) {
+      int s = segmento(posicion);
+      return segmentos.get(s).dia(posicion - inicios.get(s));
+    }
+    return indice.getInt(ENCABEZADO + vigente(posicion) * ENTRADA + 16);
+  }
+
+  /**
+   * Comprueba si la columna de dias esta en orden.
+   * @return Verdadero si esta ordenada, falso en caso contrario.
+   */
+  public synchronized boolean ordenadoPorDia() {
+    return ordenado && archivoOrdenado && (archivados == 0 || base == cantidad || dia(archivados - 1) <= dia(archivados));
+  }
+
+  /**
+   * Busca la primera posicion con un dia mayor o igual al dado. Solo es
+   * valido si {@link #ordenadoPorDia()}.
+   * @param dia Dias desde el 01/01/1970.
+   * @return Posicion, o {@link #tamano()} si todos son anteriores.
+   */
+  public synchronized int inicioDia(int dia) {
+    int inicio = 0;
+    int fin = tamano();
+    while(inicio < fin) {
+      int medio = (inicio + fin) >>> 1;
+      if(dia(medio) < dia) {
+        inicio = medio + 1;
+      } else {
+        fin = medio;
+      }
+    }
+    return inicio;
+  }
+
+  /**
+   * Busca la posicion de un folio. Los folios son crecientes, asi que se
+   * usa busqueda binaria sobre el indice.
+   * @param folio Folio a buscar.
+   * @return Posicion, o -1 si no existe.
+   */
+  public synchronized int buscar(int folio) {
+    int inicio = 0;
+    int fin = tamano() - 1;
+    while(inicio <= fin) {
+      int medio = (inicio + fin) >>> 1;
+      int actual = folio(medio);
+      if(actual < folio) {
+        inicio = medio + 1;
+      } else if(actual > folio) {
+        fin = medio - 1;
+      } else {
+        return medio;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Busca la primera posicion con un folio mayor o igual al dado.
+   * @param folio Folio.
+   * @return Posicion, o {@link #tamano()} si todos son menores.
+   */
+  public synchronized int inicioFolio(int folio) {
+    int inicio = 0;
+    int fin = tamano();
+    while(inicio < fin) {
+      int medio = (inicio + fin) >>> 1;
+      if(folio(medio) < folio) {
+        inicio = medio + 1;
+      } else {
+        fin = medio;
+      }
+    }
+    return inicio;
+  }
+
+  /**
+   * Lee un rango de Remitos. La parte actual se lee con una sola lectura; la
+   * archivada descomprime solo los bloques del rango.
+   * @param desde Primera posicion (inclusive).
+   * @param hasta Ultima posicion (exclusiva).
+   * @return Remitos leidos.
+   * @throws IOException Si ocurre un error de lectura.
+   */
+  public Remito[] leer(int desde, int hasta) throws IOException {
+    if(hasta <= desde) {
+      return new Remito[0];
+    }
+    Remito[] remitos = new Remito[hasta - desde];
+    int posicion = desde;
+    while(posicion < hasta) {
+      SegmentoRemitos segmento;
+      int inicio;
+      synchronized(this) {
+        if(posicion >= archivados) {
+          break;
+        }
+        int s = segmento(posicion);
+        segmento = segmentos.get(s);
+        inicio = inicios.get(s);
+      }
+      int fin = Math.min(hasta, inicio + segmento.tamano());
+      segmento.leer(posicion - inicio, fin - inicio, remitos, posicion - desde);
+      posicion = fin;
+    }
+    while(posicion < hasta) {
+      FileChannel canal;
+      long inicio;
+      int bytes;
+      synchronized(this) {
+        // Otro hilo pudo archivar el rango mientras tanto.
+        if(posicion < archivados) {
+          Remito[] resto = leer(posicion, hasta);
+          System.arraycopy(resto, 0, remitos, posicion - desde, resto.length);
+          return remitos;
+        }
+        canal = datos;
+        inicio = desplazamiento(vigente(posicion));
+        bytes = (int) (desplazamiento(vigente(hasta - 1)) + longitud(vigente(hasta - 1)) - inicio);
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(bytes);
+      try {
+        while(buffer.hasRemaining()) {
+          if(canal.read(buffer, inicio + buffer.position()) < 0) {
+            throw new IOException("Archivo de remitos incompleto.");
+          }
+        }
+      } catch(ClosedChannelException e) {
+        // La particion actual se reescribio al archivar; se lee de nuevo.
+        synchronized(this) {
+          if(canal == datos) {
+            throw e;
+          }
+        }
+        continue;
+      }
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array()));
+      for(int i = posicion - desde; i < remitos.length; i++) {
+        remitos[i] = Remito.leer(in);
+      }
+      posicion = hasta;
+    }
+    return remitos;
+  }
+
+  /**
+   * Agrega Remitos al final del historial y los sincroniza con el disco.
+   * @param remitos Remitos a agregar.
+   * @throws IOException Si ocurre un error de escritura.
+   */
+  public synchronized void agregar(List<Remito> remitos) throws IOException {
+    if(remitos.isEmpty()) {
+      return;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    int[] longitudes = new int[remitos.size()];
+    for(int i = 0; i < longitudes.length; i++) {
+      int antes = out.size();
+      remitos.get(i).escribir(out);
+      longitudes[i] = out.size() - antes;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+    while(buffer.hasRemaining()) {
+      datos.write(buffer, finDatos + buffer.position());
+    }
+    datos.force(false);
+    long necesario = ENCABEZADO + (long) (cantidad + longitudes.length) * ENTRADA;
+    if(necesario > indice.capacity()) {
+      indice = canalIndice.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(necesario, (long) indice.capacity() * 2));
+    }
+    int anterior = tamano() == 0 ? Integer.MIN_VALUE : dia(tamano() - 1);
+    for(int i = 0; i < longitudes.length; i++) {
+      int entrada = ENCABEZADO + (cantidad + i) * ENTRADA;
+      indice.putLong(entrada, finDatos);
+      indice.putInt(entrada + 8, longitudes[i]);
+      indice.putInt(entrada + 12, remitos.get(i).getFolio());
+      indice.putInt(entrada + 16, remitos.get(i).getDia());
+      if(ordenado && remitos.get(i).getDia() < anterior) {
+        ordenado = false;
+        indice.putInt(12, 1);
+      }
+      anterior = remitos.get(i).getDia();
+      finDatos += longitudes[i];
+    }
+    cantidad += longitudes.length;
+    indice.putInt(8, cantidad);
+    indice.force();
+  }
+
+  /**
+   * Pasa a segmentos comprimidos, uno por mes, los Remitos del inicio de la
+   * particion actual anteriores a un dia, y reescribe la particion actual
+   * sin ellos. Se detiene en el primer Remito de ese dia o posterior, asi que
+   * con el primer dia de un mes solo se archivan meses completos. Cada
+   * archivo nuevo se escribe aparte y se sincroniza antes de reemplazar al
+   * anterior, asi que una caida a media operacion no pierde Remitos.
+   * @param dia Dias desde el 01/01/1970.
+   * @return Remitos archivados.
+   * @throws IOException Si ocurre un error de lectura o escritura.
+   */
+  public synchronized int archivar(int dia) throws IOException {
+    int hasta = base;
+    while(hasta < cantidad && indice.getInt(ENCABEZADO + hasta * ENTRADA + 16) < dia) {
+      hasta++;
+    }
+    if(hasta == base) {
+      return 0;
+    }
+    int antes = archivados;
+    for(int desde = base; desde < hasta; ) {
+      LocalDate mes = LocalDate.ofEpochDay(indice.getInt(ENCABEZADO + desde * ENTRADA + 16)).withDayOfMonth(1);
+      int fin = desde + 1;
+      while(fin < hasta && LocalDate.ofEpochDay(indice.getInt(ENCABEZADO + fin * ENTRADA + 16)).withDayOfMonth(1).equals(mes)) {
+        fin++;
+      }
+      long[] desplazamientos = new long[fin - desde + 1];
+      int[] folios = new int[fin - desde];
+      int[] dias = new int[fin - desde];
+      for(int i = desde; i < fin; i++) {
+        desplazamientos[i - desde] = desplazamiento(i);
+        folios[i - desde] = indice.getInt(ENCABEZADO + i * ENTRADA + 12);
+        dias[i - desde] = indice.getInt(ENCABEZADO + i * ENTRADA + 16);
+      }
+      desplazamientos[fin - desde] = desplazamiento(fin - 1) + longitud(fin - 1);
+      Path segmento = carpeta().resolve(String.format("%s-%04d%02d-%d.seg", Paths.get(nombre).getFileName(), mes.getYear(), mes.getMonthValue(), folios[0]));
+      Path temporal = Paths.get(segmento + ".tmp");
+      Files.deleteIfExists(temporal);
+      SegmentoRemitos.crear(temporal, datos, desplazamientos, folios, dias);
+      Files.move(temporal, segmento, StandardCopyOption.ATOMIC_MOVE);
+      agregarSegmento(new SegmentoRemitos(segmento));
+      base = fin;
+      desde = fin;
+    }
+    reescribir();
+    return archivados - antes;
+  }
+
+  /**
+   * Cierra el almacen.
+   * @throws IOException Si ocurre un error al cerrar.
+   */
+  public synchronized void cerrar() throws IOException {
+    indice.force();
+    datos.close();
+    canalIndice.close();
+    for (SegmentoRemitos segmento : segmentos) {
+      segmento.cerrar();
+    }
+  }
+
+  /**
+   * Copia la particion actual, sin los Remitos ya archivados, a una nueva
+   * generacion de archivos y borra la anterior. El .idx nuevo reemplaza al
+   * anterior con un solo renombrado; hasta entonces sigue valida la
+   * generacion anterior.
+   */
+  private void reescribir() throws IOException {
+    int vigentes = cantidad - base;
+    long corrimiento = base == cantidad ? finDatos : desplazamiento(base);
+    int nueva = generacion + 1;
+    try(FileChannel copia = FileChannel.open(datos(nueva), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      for(long copiados = 0; copiados < finDatos - corrimiento; ) {
+        copiados += datos.transferTo(corrimiento + copiados, finDatos - corrimiento - copiados, copia);
+      }
+      copia.force(false);
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(ENCABEZADO + Math.max(vigentes, 1024) * ENTRADA);
+    buffer.putInt(0, MAGIA);
+    buffer.putInt(4, VERSION);
+    buffer.putInt(8, vigentes);
+    boolean enOrden = true;
+    for(int i = 0; i < vigentes; i++) {
+      int origen = ENCABEZADO + (base + i) * ENTRADA;
+      int destino = ENCABEZADO + i * ENTRADA;
+      buffer.putLong(destino, indice.getLong(origen) - corrimiento);
+      buffer.putInt(destino + 8, indice.getInt(origen + 8));
+      buffer.putInt(destino + 12, indice.getInt(origen + 12));
+      buffer.putInt(destino + 16, indice.getInt(origen + 16));
+      enOrden &= i == 0 || indice.getInt(origen + 16) >= indice.getInt(origen + 16 - ENTRADA);
+    }
+    buffer.putInt(12, enOrden ? 0 : 1);
+    buffer.putInt(16, nueva);
+    Path temporal = Paths.get(nombre + ".idx.tmp");
+    try(FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      while(buffer.hasRemaining()) {
+        canal.write(buffer, buffer.position());
+      }
+      canal.force(true);
+    }
+    Files.move(temporal, Paths.get(nombre + ".idx"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    datos.close();
+    canalIndice.close();
+    Files.deleteIfExists(datos(generacion));
+    generacion = nueva;
+    datos = FileChannel.open(datos(generacion), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    canalIndice = FileChannel.open(Paths.get(nombre + ".idx"), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    indice = canalIndice.map(FileChannel.MapMode.READ_WRITE, 0, canalIndice.size());
+    cantidad = vigentes;
+    base = 0;
+    finDatos -= corrimiento;
+    ordenado = enOrden;
+  }
+
+  /**
+   * Borra lo que dejo una operacion interrumpida: temporales y generaciones
+   * de datos que ya no usa el indice.
+   */
+  private void limpiar() throws IOException {
+    String prefijo = Paths.get(nombre).getFileName().toString();
+    Path actual = datos(generacion).getFileName();
+    try(DirectoryStream<Path> archivos = Files.newDirectoryStream(carpeta(), prefijo + "{.rem,.*.rem,.idx.tmp,-*.seg.tmp}")) {
+      for (Path archivo : archivos) {
+        String texto = archivo.getFileName().toString();
+        boolean generacionVieja = texto.endsWith(".rem") && (texto.length() == prefijo.length() + 4
+            || Validacion.entero(texto.substring(prefijo.length() + 1, texto.length() - 4)) != Validacion.ENTERO_INVALIDO);
+        if(!archivo.getFileName().equals(actual) && (generacionVieja || texto.endsWith(".tmp"))) {
+          Files.delete(archivo);
+        }
+      }
+    }
+  }
+
+  private void agregarSegmento(SegmentoRemitos segmento) {
+    archivoOrdenado &= segmento.ordenadoPorDia() && (archivados == 0 || dia(archivados - 1) <= segmento.dia(0));
+    segmentos.add(segmento);
+    inicios.add(archivados);
+    archivados += segmento.tamano();
+  }
+
+  /**
+   * Segmento que contiene una posicion archivada.
+   */
+  private int segmento(int posicion) {
+    int inicio = 0;
+    int fin = inicios.size() - 1;
+    while(inicio < fin) {
+      int medio = (inicio + fin + 1) >>> 1;
+      if(inicios.get(medio) <= posicion) {
+        inicio = medio;
+      } else {
+        fin = medio - 1;
+      }
+    }
+    return inicio;
+  }
+
+  /**
+   * Entrada del indice de la particion actual para una posicion.
+   */
+  private int vigente(int posicion) {
+    return posicion - archivados + base;
+  }
+
+  private Path datos(int generacion) {
+    return datos(nombre, generacion);
+  }
+
+  private static Path datos(String nombre, int generacion) {
+    return Paths.get(generacion == 0 ? nombre + ".rem" : nombre + "." + generacion + ".rem");
+  }
+
+  private Path carpeta() {
+    Path padre = Paths.get(nombre).toAbsolutePath().getParent();
+    return padre == null ? Paths.get(".") : padre;
+  }
+
+  /**
+   * Convierte a la version actual un almacen de las versiones 1 a 4.
+   */
+  private static void convertir(String nombre) throws IOException {
+    Path rutaIndice = Paths.get(nombre + ".idx");
+    if(!Files.exists(rutaIndice)) {
+      return;
+    }
+    MappedByteBuffer anterior;
+    try(FileChannel viejo = FileChannel.open(rutaIndice, StandardOpenOption.READ)) {
+      if(viejo.size() < ENCABEZADO_SIN_SEGMENTOS) {
+        return;
+      }
+      anterior = viejo.map(FileChannel.MapMode.READ_ONLY, 0, viejo.size());
+    }
+    int version = anterior.getInt(4);
+    if(anterior.getInt(0) != MAGIA || version < 1 || version >= VERSION || (version > VERSION_SIN_SEGMENTOS && anterior.capacity() < ENCABEZADO)) {
+      return;
+    }
+    int encabezado = version > VERSION_SIN_SEGMENTOS ? ENCABEZADO : ENCABEZADO_SIN_SEGMENTOS;
+    int generacion = version > VERSION_SIN_SEGMENTOS ? anterior.getInt(16) : 0;
+    int formato = version < VERSION_SIN_SEGMENTOS ? version : FORMATO_SIN_TEXTOS;
+    try(FileChannel rem = FileChannel.open(datos(nombre, generacion), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      int entrada = version == 1 ? ENTRADA_FECHA : ENTRADA;
+      int cantidad = anterior.getInt(8);
+      long inicio = cantidad == 0 ? 0 : anterior.getLong(encabezado + (cantidad - 1) * entrada) + anterior.getInt(encabezado + (cantidad - 1) * entrada + 8);
+      ByteBuffer leidos = ByteBuffer.allocate((int) inicio);
+      while(leidos.hasRemaining()) {
+        if(rem.read(leidos, leidos.position()) < 0) {
+          throw new IOException("Archivo de remitos incompleto.");
+        }
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      ByteBuffer nuevo = ByteBuffer.allocate(ENCABEZADO + Math.max(cantidad, 1024) * ENTRADA);
+      nuevo.putInt(0, MAGIA);
+      nuevo.putInt(4, VERSION);
+      nuevo.putInt(8, cantidad);
+      nuevo.putInt(16, generacion);
+      for(int i = 0; i < cantidad; i++) {
+        int origen = encabezado + i * entrada;
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(leidos.array(), (int) anterior.getLong(origen), anterior.getInt(origen + 8)));
+        Remito remito = Remito.leer(in, formato);
+        int antes = out.size();
+        remito.escribir(out);
+        int base = ENCABEZADO + i * ENTRADA;
+        nuevo.putLong(base, inicio + antes);
+        nuevo.putInt(base + 8, out.size() - antes);
+        nuevo.putInt(base + 12, remito.getFolio());
+        nuevo.putInt(base + 16, remito.getDia());
+        if(i > 0 && remito.getDia() < nuevo.getInt(base + 16 - ENTRADA)) {
+          nuevo.putInt(12, 1);
+        }
+      }
+      ByteBuffer convertidos = ByteBuffer.wrap(bytes.toByteArray());
+      while(convertidos.hasRemaining()) {
+        rem.write(convertidos, inicio + convertidos.position());
+      }
+      rem.force(false);
+      Path temporal = Paths.get(nombre + ".idx.tmp");
+      try(FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        while(nuevo.hasRemaining()) {
+          canal.write(nuevo, nuevo.position());
+        }
+        canal.force(true);
+      }
+      Files.move(temporal, rutaIndice, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private long desplazamiento(int entrada) {
+    return indice.getLong(ENCABEZADO + entrada * ENTRADA);
+  }
+
+  private int longitud(int entrada) {
+    return indice.getInt(ENCABEZADO + entrada * ENTRADA + 8);
+  }
+}
@@ -22,6 +22,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
 import javafx.collections.FXCollections;
@@ -53,21 +57,31 @@ public class Archivo<T> {
   
   /**
    * Guarda una lista de productos a un archivo.
+   * 
+   * Se escribe primero a un archivo temporal que luego reemplaza al original,
+   * asi una caida a media escritura nunca deja el archivo corrupto.
    * @param lista Lista a guardar.
    * @param nombre Nombre del archivo.
+   * @return Verdadero si se guardo, falso en caso contrario.
    */
-  public void guardar(ObservableList<T> lista, String nombre) {
+  public boolean guardar(ObservableList<T> lista, String nombre) {
+    Path temporal = Paths.get(nombre + ".tmp");
     try {
-      fos = new FileOutputStream(nombre);
+      fos = new FileOutputStream(temporal.toFile());
       oos = new ObjectOutputStream(fos);
       oos.writeObject(new ArrayList<>(lista));
+      oos.flush();
+      fos.getFD().sync();
       oos.close();
       fos.close();
+      Files.move(temporal, Paths.get(nombre), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      return true;
     } catch(FileNotFoundException e) {
       System.err.println("ERROR: " + e.getLocalizedMessage());
     } catch(IOException e) {
       System.err.println("ERROR: " + e.getLocalizedMessage());
     }
+    return false;
   }
   
   /**
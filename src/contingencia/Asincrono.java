@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Ejecuta las lecturas y escrituras a disco fuera del hilo de la interfaz.
+ *
+ * Cada {@link Tarea} corre en su propio hilo virtual cuando la maquina
+ * virtual los tiene (Java 21 o posterior) y si no en un grupo de hilos
+ * demonio. El resultado, el error y el avance se entregan en el notificador
+ * (el hilo de JavaFX en la interfaz), asi que quien espera el
+ * {@link CompletableFuture} puede tocar la interfaz directamente. Los avisos
+ * de avance se agrupan: si el notificador aun no entrega el anterior, solo
+ * se conserva el mas reciente.
+ *
+ * Los hilos son demonio; quien necesite que una escritura termine antes de
+ * salir debe esperar su resultado.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public class Asincrono {
+
+  private final Executor notificador;
+  private final ExecutorService hilos;
+
+  /**
+   * Trabajo de lectura o escritura.
+   * @param <T> Tipo del resultado.
+   */
+  public interface Tarea<T> {
+
+    /**
+     * Hace el trabajo.
+     * @param avance Avance, ya dirigido al notificador.
+     * @return Resultado.
+     * @throws IOException Si ocurre un error de lectura o escritura.
+     */
+    T ejecutar(Avance avance) throws IOException;
+  }
+
+  /**
+   * Inicializa la capa.
+   * @param notificador Ejecutor de los resultados y avisos.
+   */
+  public Asincrono(Executor notificador) {
+    this.notificador = notificador;
+    hilos = hilos("E/S");
+  }
+
+  /**
+   * Crea un ejecutor de un hilo virtual por tarea, o de hilos demonio que se
+   * reutilizan si la maquina virtual no tiene hilos virtuales.
+   * @param nombre Nombre de los hilos de respaldo.
+   * @return Ejecutor.
+   */
+  public static ExecutorService hilos(String nombre) {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch(ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool((Runnable r) -> {
+        Thread hilo = new Thread(r, nombre);
+        hilo.setDaemon(true);
+        return hilo;
+      });
+    }
+  }
+
+  /**
+   * Comprueba si {@link #hilos(String)} usa hilos virtuales.
+   * @return Verdadero si los hay, falso en caso contrario.
+   */
+  public static boolean hayVirtuales() {
+    try {
+      Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return true;
+    } catch(NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Ejecuta una tarea sin reportar avance.
+   * @param <T> Tipo del resultado.
+   * @param tarea Tarea.
+   * @return Resultado, completado en el notificador.
+   */
+  public <T> CompletableFuture<T> ejecutar(Tarea<T> tarea) {
+    return ejecutar(tarea, Avance.NINGUNO);
+  }
+
+  /**
+   * Ejecuta una tarea.
+   * @param <T> Tipo del resultado.
+   * @param tarea Tarea.
+   * @param avance Avance, llamado en el notificador.
+   * @return Resultado, completado en el notificador; si la tarea falla, se
+   * completa con la excepcion.
+   */
+  public <T> CompletableFuture<T> ejecutar(Tarea<T> tarea, Avance avance) {
+    CompletableFuture<T> resultado = new CompletableFuture<>();
+    Avance entregado = avance == Avance.NINGUNO ? avance : entregar(avance);
+    hilos.execute(() -> {
+      try {
+        T valor = tarea.ejecutar(entregado);
+        notificador.execute(() -> resultado.complete(valor));
+      } catch(IOException | RuntimeException e) {
+        notificador.execute(() -> resultado.completeExceptionally(e));
+      }
+    });
+    return resultado;
+  }
+
+  /**
+   * Deja de aceptar tareas; las que estan en curso terminan.
+   */
+  public void cerrar() {
+    hilos.shutdown();
+  }
+
+  /**
+   * Dirige un avance al notificador, conservando solo el aviso mas reciente
+   * mientras el anterior no se entrega.
+   */
+  private Avance entregar(Avance avance) {
+    AtomicReference<Aviso> ultimo = new AtomicReference<>();
+    return (double fraccion, String mensaje) -> {
+      if(ultimo.getAndSet(new Aviso(fraccion, mensaje)) == null) {
+        notificador.execute(() -> {
+          Aviso aviso = ultimo.getAndSet(null);
+          avance.avanzar(aviso.fraccion, aviso.mensaje);
+        });
+      }
+    };
+  }
+
+  private static class Aviso {
+    private final double fraccion;
+    private final String mensaje;
+
+    private Aviso(double fraccion, String mensaje) {
+      this.fraccion = fraccion;
+      this.mensaje = mensaje;
+    }
+  }
+}
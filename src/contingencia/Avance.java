@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia;
+
+/**
+ * Recibe el avance de una tarea larga, como abrir o guardar el inventario.
+ * Se llama desde el hilo que hace la tarea; {@link Asincrono} lo entrega en
+ * el notificador.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public interface Avance {
+
+  /** Avance que no avisa a nadie. */
+  Avance NINGUNO = (double fraccion, String mensaje) -> {};
+
+  /**
+   * La tarea avanzo.
+   * @param fraccion Fraccion completada, de 0 a 1.
+   * @param mensaje Paso en curso.
+   */
+  void avanzar(double fraccion, String mensaje);
+}
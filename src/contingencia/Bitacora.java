@@ -0,0 +1,625 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia;
+
+import contingencia.Modelo.Inventario;
+import contingencia.Modelo.Mercaderia;
+import contingencia.Modelo.Remito;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Bitacora de cambios de solo-agregar (write-ahead log).
+ *
+ * Cada alta, edicion, baja y venta se agrega como un registro compacto
+ * [longitud][tipo][datos][crc32]. Los registros se acumulan en memoria y un
+ * hilo los escribe y sincroniza con el disco cada {@link #INTERVALO} ms, de
+ * modo que varios registros comparten un solo fsync. Al iniciar se reaplican
+ * sobre la ultima instantanea guardada por {@link Archivo}; los registros
+ * guardan valores absolutos, por lo que reaplicarlos es idempotente.
+ * Quien deba confirmar un cambio solo cuando ya esta en disco puede
+ * {@link #esperar(long) esperar} a la escritura que lo incluye.
+ *
+ * Una instantanea se puede guardar mientras siguen llegando registros: se
+ * toma una {@link #marcar() marca} al copiar el estado sucio y, una vez
+ * guardada, {@link #descartar(long)} quita solo lo anterior a la marca. Lo
+ * posterior se conserva aunque la instantanea ya lo incluya en parte, porque
+ * reaplicarlo no cambia nada.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public class Bitacora {
+
+  /** Milisegundos entre cada escritura agrupada al disco. */
+  public static final int INTERVALO = 20;
+  /** Registros tras los cuales conviene compactar en una instantanea. */
+  public static final int LIMITE_REGISTROS = 10000;
+
+  private static final byte ALTA = 1;
+  private static final byte BAJA = 2;
+  /** Venta con el Remito en el formato 1, con la fecha como texto. */
+  private static final byte VENTA_FECHA = 3;
+  /** Venta con el Remito en el formato 2, sin renglones. */
+  private static final byte VENTA_DIA = 4;
+  /** Venta con el Remito en el formato 3, sin nombre ni unidad por renglon. */
+  private static final byte VENTA_RENGLONES = 5;
+  private static final byte VENTA = 6;
+
+  private final Path ruta;
+  private final Object disco;
+  private FileChannel canal;
+  private final ScheduledExecutorService sincronizador;
+  private final Registros escritor;
+  private final List<Consumer<byte[]>> copias;
+  private ByteArrayOutputStream pendientes;
+  private ByteArrayOutputStream enEscritura;
+  private int registros;
+  private long tamano;
+  private int marcados;
+  private long registrado;
+  private long sincronizado;
+  private IOException fallo;
+  private long falloHasta;
+
+  /**
+   * Abre (o crea) la bitacora.
+   * @param nombre Nombre del archivo.
+   * @throws IOException Si no se puede abrir el archivo.
+   */
+  public Bitacora(String nombre) throws IOException {
+    ruta = Paths.get(nombre);
+    disco = new Object();
+    canal = FileChannel.open(ruta, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    tamano = canal.size();
+    canal.position(tamano);
+    escritor = new Registros();
+    copias = new CopyOnWriteArrayList<>();
+    pendientes = new ByteArrayOutputStream(4096);
+    enEscritura = new ByteArrayOutputStream(4096);
+    sincronizador = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+      Thread hilo = new Thread(r, "Bitacora");
+      hilo.setDaemon(true);
+      return hilo;
+    });
+    sincronizador.scheduleWithFixedDelay(() -> {
+      try {
+        sincronizar();
+      } catch(IOException e) {
+        System.err.println("ERROR: " + e.getLocalizedMessage());
+      }
+    }, INTERVALO, INTERVALO, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Registra el alta o la edicion de una Mercaderia.
+   * @param mercaderia Mercaderia con sus valores actuales.
+   */
+  public synchronized void registrarAlta(Mercaderia mercaderia) {
+    int bytes = escritor.alta(mercaderia, pendientes);
+    tamano += bytes;
+    registrado += bytes;
+    registros++;
+  }
+
+  /**
+   * Registra la baja de una Mercaderia.
+   * @param clave Clave de la Mercaderia.
+   */
+  public synchronized void registrarBaja(int clave) {
+    int bytes = escritor.baja(clave, pendientes);
+    tamano += bytes;
+    registrado += bytes;
+    registros++;
+  }
+
+  /**
+   * Registra una venta: el Remito y las existencias resultantes de las
+   * Mercaderias vendidas.
+   * @param remito Remito generado.
+   * @param vendidas Mercaderias afectadas por la venta.
+   * @return Posicion para {@link #esperar(long)}.
+   */
+  public synchronized long registrarVenta(Remito remito, Collection<Mercaderia> vendidas) {
+    int bytes = escritor.venta(remito, vendidas, pendientes);
+    tamano += bytes;
+    registrado += bytes;
+    registros++;
+    return registrado;
+  }
+
+  /**
+   * Posicion hasta la que llega lo registrado, incluyendo lo que aun no se
+   * escribe. A diferencia de {@link #marcar()} no retrocede al descartar.
+   * @return Posicion para {@link #esperar(long)}.
+   */
+  public synchronized long posicion() {
+    return registrado;
+  }
+
+  /**
+   * Espera a que la escritura agrupada que incluye una posicion este
+   * sincronizada con el disco. Si esa escritura falla se avisa de inmediato;
+   * las posiciones posteriores al lote fallido siguen esperando, porque el
+   * lote se reintenta con ellas.
+   * @param posicion Posicion devuelta por {@link #registrarVenta(Remito, Collection)}
+   * o {@link #posicion()}.
+   * @throws IOException Si la bitacora no pudo escribir.
+   * @throws InterruptedException Si se interrumpe la espera.
+   */
+  public synchronized void esperar(long posicion) throws IOException, InterruptedException {
+    while(sincronizado < posicion) {
+      if(fallo != null && posicion <= falloHasta) {
+        throw new IOException(fallo.getLocalizedMessage(), fallo);
+      }
+      wait();
+    }
+  }
+
+  /**
+   * Entrega una copia de cada lote de registros en cuanto esta en disco,
+   * en el mismo orden. La copia se entrega desde el hilo que escribe, asi
+   * que debe ser rapida.
+   * @param copia Destino de los lotes.
+   */
+  public void copiar(Consumer<byte[]> copia) {
+    copias.add(copia);
+  }
+
+  /**
+   * Deja de entregar copias a un destino.
+   * @param copia Destino dado a {@link #copiar(Consumer)}.
+   */
+  public void dejarDeCopiar(Consumer<byte[]> copia) {
+    copias.remove(copia);
+  }
+
+  /**
+   * Comprueba si la bitacora ya es lo bastante grande para compactarla.
+   * @return Verdadero si se debe compactar, falso en caso contrario.
+   */
+  public synchronized boolean requiereCompactacion() {
+    return registros >= LIMITE_REGISTROS;
+  }
+
+  /**
+   * Escribe los registros pendientes y los sincroniza con el disco.
+   * @throws IOException Si ocurre un error de escritura.
+   */
+  public void sincronizar() throws IOException {
+    synchronized(disco) {
+      long hasta;
+      synchronized(this) {
+        if(pendientes.size() == 0) {
+          return;
+        }
+        ByteArrayOutputStream llenos = pendientes;
+        pendientes = enEscritura;
+        enEscritura = llenos;
+        hasta = registrado;
+      }
+      byte[] lote = enEscritura.toByteArray();
+      long inicio = canal.size();
+      try {
+        ByteBuffer buffer = ByteBuffer.wrap(lote);
+        while(buffer.hasRemaining()) {
+          canal.write(buffer);
+        }
+        canal.force(false);
+      } catch(IOException e) {
+        reintentar(inicio, e);
+        synchronized(this) {
+          // Lo que no llego al disco ya no se puede confirmar.
+          fallo = e;
+          falloHasta = hasta;
+          notifyAll();
+        }
+        throw e;
+      }
+      enEscritura.reset();
+      synchronized(this) {
+        sincronizado = hasta;
+        fallo = null;
+        notifyAll();
+      }
+      for (Consumer<byte[]> copia : copias) {
+        copia.accept(lote);
+      }
+    }
+  }
+
+  /**
+   * Deshace un lote que no se pudo escribir: corta lo que haya llegado al
+   * archivo y lo devuelve a los pendientes, delante de lo registrado despues,
+   * para escribirlo completo y en orden en el siguiente intento.
+   * @param inicio Tamano del archivo antes de escribir el lote.
+   * @param error Error de la escritura, al que se agrega el de cortar.
+   */
+  private void reintentar(long inicio, IOException error) {
+    try {
+      canal.truncate(inicio);
+      canal.position(inicio);
+    } catch(IOException e) {
+      error.addSuppressed(e);
+    }
+    synchronized(this) {
+      try {
+        pendientes.writeTo(enEscritura);
+      } catch(IOException e) {
+        error.addSuppressed(e);
+      }
+      pendientes.reset();
+      ByteArrayOutputStream fallido = enEscritura;
+      enEscritura = pendientes;
+      pendientes = fallido;
+    }
+  }
+
+  /**
+   * Comprueba si el ultimo intento de escribir fallo. Deja de fallar en cuanto
+   * una escritura posterior llega al disco.
+   * @return Error de la ultima escritura, o nulo si no fallo.
+   */
+  public synchronized IOException getFallo() {
+    return fallo;
+  }
+
+  /**
+   * Comprueba si la bitacora no tiene registros.
+   * @return Verdadero si esta vacia, falso en caso contrario.
+   */
+  public synchronized boolean vacia() {
+    return tamano == 0;
+  }
+
+  /**
+   * Marca el punto hasta el que llega la bitacora, incluyendo lo que aun no
+   * se escribe. Se llama al copiar el estado que se va a guardar, sin que
+   * entren cambios mientras tanto.
+   * @return Marca para {@link #descartar(long)}.
+   */
+  public synchronized long marcar() {
+    marcados = registros;
+    return tamano;
+  }
+
+  /**
+   * Quita los registros anteriores a una marca, una vez que la instantanea
+   * que los incluye esta en disco. Lo posterior se copia a un archivo nuevo
+   * que reemplaza al actual de un solo paso, asi que una caida a la mitad
+   * deja la bitacora anterior completa.
+   * @param marca Marca devuelta por {@link #marcar()}.
+   * @throws IOException Si ocurre un error de escritura.
+   */
+  public void descartar(long marca) throws IOException {
+    synchronized(disco) {
+      sincronizar();
+      long fin = canal.size();
+      Path temporal = ruta.resolveSibling(ruta.getFileName() + ".tmp");
+      try(FileChannel nuevo = FileChannel.open(temporal, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        long copiado = 0;
+        while(marca + copiado < fin) {
+          copiado += canal.transferTo(marca + copiado, fin - marca - copiado, nuevo);
+        }
+        nuevo.force(true);
+      }
+      canal.close();
+      Files.move(temporal, ruta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      canal = FileChannel.open(ruta, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      canal.position(canal.size());
+      synchronized(this) {
+        tamano -= marca;
+        registros -= marcados;
+        marcados = 0;
+      }
+    }
+  }
+
+  /**
+   * Reaplica la bitacora sobre los datos cargados de la ultima instantanea.
+   * Un registro incompleto o corrupto al final (caida a media escritura) se
+   * descarta y el archivo se trunca en ese punto.
+   * @param inventario Inventario cargado.
+   * @param remitos Remitos cargados.
+   * @return Numero de registros reaplicados.
+   * @throws IOException Si ocurre un error de lectura.
+   */
+  public int recuperar(Inventario inventario, RemitosPaginados remitos) throws IOException {
+    Cambios cambios = new Cambios() {
+      @Override
+      public void alta(Mercaderia nueva) {
+        Mercaderia actual = inventario.buscar(nueva.getClave());
+        if(actual == null) {
+          inventario.agregar(nueva);
+        } else {
+          actual.setNombre(nueva.getNombre());
+          actual.setDescripcion(nueva.getDescripcion());
+          actual.setPrecioCompra(nueva.getPrecioCompra());
+          actual.setExistencias(nueva.getExistencias());
+          actual.setTipoUnidad(nueva.getTipoUnidad());
+        }
+      }
+
+      @Override
+      public void baja(int clave) {
+        Mercaderia baja = inventario.buscar(clave);
+        if(baja != null) {
+          inventario.eliminar(baja);
+        }
+      }
+
+      @Override
+      public void venta(Remito remito, int[] claves, int[] existencias) {
+        if(!remitos.contieneFolio(remito.getFolio())) {
+          remitos.add(remito);
+        }
+        for(int i = 0; i < claves.length; i++) {
+          Mercaderia vendida = inventario.buscar(claves[i]);
+          if(vendida != null) {
+            vendida.setExistencias(existencias[i]);
+          }
+        }
+      }
+    };
+    int aplicados = 0;
+    long valido = 0;
+    synchronized(disco) {
+      canal.position(0);
+      InputStream entrada = new BufferedInputStream(Channels.newInputStream(canal));
+      DataInputStream in = new DataInputStream(entrada);
+      CRC32 verificador = new CRC32();
+      while(true) {
+        byte[] contenido;
+        try {
+          int longitud = in.readInt();
+          if(longitud <= 0 || longitud > canal.size()) {
+            break;
+          }
+          contenido = new byte[longitud];
+          in.readFully(contenido);
+          verificador.reset();
+          verificador.update(contenido, 0, longitud);
+          if(in.readInt() != (int) verificador.getValue()) {
+            break;
+          }
+          valido += longitud + 8;
+        } catch(EOFException e) {
+          break;
+        }
+        aplicar(new DataInputStream(new ByteArrayInputStream(contenido)), cambios);
+        aplicados++;
+      }
+      if(valido < canal.size()) {
+        System.err.println("ERROR: Bitacora incompleta, se descartan " + (canal.size() - valido) + " bytes.");
+        canal.truncate(valido);
+      }
+      canal.position(valido);
+    }
+    synchronized(this) {
+      registros = aplicados;
+      tamano = valido + pendientes.size();
+    }
+    return aplicados;
+  }
+
+  /**
+   * Aplica un lote de registros completo, como los que entrega
+   * {@link #copiar(Consumer)}.
+   * @param lote Registros.
+   * @param cambios Destino de los cambios.
+   * @return Numero de registros aplicados.
+   * @throws IOException Si el lote esta incompleto o corrupto.
+   */
+  public static int leer(byte[] lote, Cambios cambios) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(lote);
+    CRC32 verificador = new CRC32();
+    int aplicados = 0;
+    while(buffer.hasRemaining()) {
+      int longitud = buffer.remaining() >= 4 ? buffer.getInt() : -1;
+      if(longitud <= 0 || longitud + 4 > buffer.remaining()) {
+        throw new IOException("Lote de bitacora incompleto.");
+      }
+      int inicio = buffer.position();
+      verificador.reset();
+      verificador.update(lote, inicio, longitud);
+      buffer.position(inicio + longitud);
+      if(buffer.getInt() != (int) verificador.getValue()) {
+        throw new IOException("Lote de bitacora corrupto.");
+      }
+      aplicar(new DataInputStream(new ByteArrayInputStream(lote, inicio, longitud)), cambios);
+      aplicados++;
+    }
+    return aplicados;
+  }
+
+  /**
+   * Aplica un registro.
+   */
+  private static void aplicar(DataInputStream in, Cambios cambios) throws IOException {
+    byte tipo = in.readByte();
+    switch(tipo) {
+      case ALTA:
+        cambios.alta(Mercaderia.leer(in));
+        break;
+      case BAJA:
+        cambios.baja(in.readInt());
+        break;
+      case VENTA_FECHA:
+      case VENTA_DIA:
+      case VENTA_RENGLONES:
+      case VENTA:
+        Remito remito = Remito.leer(in, tipo - VENTA_FECHA + 1);
+        int n = in.readInt();
+        int[] claves = new int[n];
+        int[] existencias = new int[n];
+        for(int i = 0; i < n; i++) {
+          claves[i] = in.readInt();
+          existencias[i] = in.readInt();
+        }
+        cambios.venta(remito, claves, existencias);
+        break;
+      default:
+        throw new IOException("Registro de bitacora desconocido.");
+    }
+  }
+
+  /**
+   * Escribe lo pendiente y cierra la bitacora.
+   * @throws IOException Si ocurre un error de escritura.
+   */
+  public void cerrar() throws IOException {
+    sincronizador.shutdown();
+    synchronized(disco) {
+      sincronizar();
+      canal.close();
+    }
+  }
+
+  /**
+   * Recibe los cambios leidos de la bitacora.
+   */
+  public interface Cambios {
+
+    /**
+     * Alta o edicion de una Mercaderia.
+     * @param mercaderia Mercaderia con sus valores absolutos.
+     */
+    void alta(Mercaderia mercaderia);
+
+    /**
+     * Baja de una Mercaderia.
+     * @param clave Clave de la Mercaderia.
+     */
+    void baja(int clave);
+
+    /**
+     * Venta: el Remito y las existencias resultantes.
+     * @param remito Remito de la venta.
+     * @param claves Claves vendidas.
+     * @param existencias Existencias de cada clave despues de la venta.
+     */
+    void venta(Remito remito, int[] claves, int[] existencias);
+  }
+
+  /**
+   * Arma registros con el formato [longitud][tipo][datos][crc32] de la
+   * bitacora. No es seguro para hilos.
+   */
+  static class Registros {
+
+    private final ByteArrayOutputStream registro;
+    private final DataOutputStream datos;
+    private final CRC32 crc;
+
+    Registros() {
+      registro = new ByteArrayOutputStream(256);
+      datos = new DataOutputStream(registro);
+      crc = new CRC32();
+    }
+
+    /**
+     * Agrega el registro de un alta o edicion.
+     * @return Bytes agregados.
+     */
+    int alta(Mercaderia mercaderia, ByteArrayOutputStream destino) {
+      try {
+        datos.writeByte(ALTA);
+        mercaderia.escribir(datos);
+      } catch(IOException e) {
+        // ByteArrayOutputStream no lanza excepciones.
+      }
+      return cerrar(destino);
+    }
+
+    /**
+     * Agrega el registro de una baja.
+     * @return Bytes agregados.
+     */
+    int baja(int clave, ByteArrayOutputStream destino) {
+      try {
+        datos.writeByte(BAJA);
+        datos.writeInt(clave);
+      } catch(IOException e) {
+        // ByteArrayOutputStream no lanza excepciones.
+      }
+      return cerrar(destino);
+    }
+
+    /**
+     * Agrega el registro de una venta.
+     * @return Bytes agregados.
+     */
+    int venta(Remito remito, Collection<Mercaderia> vendidas, ByteArrayOutputStream destino) {
+      try {
+        datos.writeByte(VENTA);
+        remito.escribir(datos);
+        datos.writeInt(vendidas.size());
+        for (Mercaderia mercaderia : vendidas) {
+          datos.writeInt(mercaderia.getClave());
+          datos.writeInt(mercaderia.getExistencias());
+        }
+      } catch(IOException e) {
+        // ByteArrayOutputStream no lanza excepciones.
+      }
+      return cerrar(destino);
+    }
+
+    /**
+     * Mueve el registro en construccion al destino.
+     */
+    private int cerrar(ByteArrayOutputStream destino) {
+      byte[] contenido = registro.toByteArray();
+      int longitud = contenido.length;
+      crc.reset();
+      crc.update(contenido, 0, longitud);
+      destino.write(longitud >>> 24);
+      destino.write(longitud >>> 16);
+      destino.write(longitud >>> 8);
+      destino.write(longitud);
+      destino.write(contenido, 0, longitud);
+      int suma = (int) crc.getValue();
+      destino.write(suma >>> 24);
+      destino.write(suma >>> 16);
+      destino.write(suma >>> 8);
+      destino.write(suma);
+      registro.reset();
+      return longitud + 8;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Ejecuta busquedas en segundo plano mientras el usuario escribe.
+ *
+ * Cada consulta espera {@link #ESPERA} ms antes de ejecutarse; si llega otra
+ * antes, la anterior se cancela sin ejecutarse. Cada consulta lleva un numero
+ * de generacion y su resultado solo se entrega (a traves del notificador) si
+ * sigue siendo la ultima, asi que una busqueda lenta nunca reemplaza el
+ * resultado de una mas nueva.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ * @param <T> Tipo del resultado.
+ */
+public class BusquedaDiferida<T> {
+
+  /** Milisegundos de espera tras la ultima tecla. */
+  public static final int ESPERA = 150;
+
+  private final ScheduledExecutorService ejecutor;
+  private final Executor notificador;
+  private final Consumer<T> entrega;
+  private final AtomicLong generacion;
+  private ScheduledFuture<?> pendiente;
+
+  /**
+   * Inicializa la busqueda.
+   * @param notificador Ejecutor de las entregas (el hilo de JavaFX en la interfaz).
+   * @param entrega Recibe el resultado de la ultima consulta.
+   */
+  public BusquedaDiferida(Executor notificador, Consumer<T> entrega) {
+    this.notificador = notificador;
+    this.entrega = entrega;
+    generacion = new AtomicLong();
+    ejecutor = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+      Thread hilo = new Thread(r, "Busqueda");
+      hilo.setDaemon(true);
+      return hilo;
+    });
+  }
+
+  /**
+   * Programa una consulta, cancelando la anterior si aun no termina.
+   * @param consulta Busqueda a ejecutar en segundo plano.
+   */
+  public synchronized void buscar(Callable<T> consulta) {
+    long propia = generacion.incrementAndGet();
+    if(pendiente != null) {
+      pendiente.cancel(false);
+    }
+    pendiente = ejecutor.schedule(() -> {
+      if(propia != generacion.get()) {
+        return;
+      }
+      try {
+        T resultado = consulta.call();
+        notificador.execute(() -> {
+          if(propia == generacion.get()) {
+            entrega.accept(resultado);
+          }
+        });
+      } catch(Exception e) {
+        System.err.println("ERROR: " + e.getLocalizedMessage());
+      }
+    }, ESPERA, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Descarta la consulta pendiente y cualquier resultado aun no entregado.
+   */
+  public synchronized void cancelar() {
+    generacion.incrementAndGet();
+    if(pendiente != null) {
+      pendiente.cancel(false);
+      pendiente = null;
+    }
+  }
+
+  /**
+   * Cancela lo pendiente y detiene el hilo de busqueda.
+   */
+  public void cerrar() {
+    cancelar();
+    ejecutor.shutdownNow();
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Candado exclusivo sobre los almacenes, entre procesos.
+ *
+ * La interfaz, el servidor, el importador y el exportador abren los mismos
+ * archivos (Mercaderia, Remitos, Bitacora, Folios) y ninguno espera que otro
+ * proceso escriba en ellos: dos bitacoras agregando al mismo archivo, o la
+ * limpieza de temporales de {@link AlmacenRemitos} al abrir, danarian los
+ * datos del otro. Por eso quien abre los almacenes toma antes este candado y,
+ * si otra instancia lo tiene, falla en vez de esperar.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public class Candado {
+
+  /** Archivo del candado de los almacenes. */
+  public static final String ARCHIVO = "Contingencia.lock";
+
+  private final FileChannel canal;
+  private final FileLock candado;
+
+  private Candado(FileChannel canal, FileLock candado) {
+    this.canal = canal;
+    this.candado = candado;
+  }
+
+  /**
+   * Toma el candado de los almacenes.
+   * @return Candado tomado.
+   * @throws IOException Si otra instancia lo tiene o no se puede abrir el archivo.
+   */
+  public static Candado tomar() throws IOException {
+    FileChannel canal = FileChannel.open(Paths.get(ARCHIVO), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    FileLock candado;
+    try {
+      candado = canal.tryLock();
+    } catch(OverlappingFileLockException e) {
+      candado = null;
+    } catch(IOException e) {
+      canal.close();
+      throw e;
+    }
+    if(candado == null) {
+      canal.close();
+      throw new IOException("Los datos ya estan abiertos en otra instancia del programa; cierrela antes de continuar.");
+    }
+    return new Candado(canal, candado);
+  }
+
+  /**
+   * Suelta el candado; si ya estaba suelto no hace nada.
+   */
+  public synchronized void soltar() {
+    if(!canal.isOpen()) {
+      return;
+    }
+    try {
+      candado.release();
+      canal.close();
+    } catch(IOException e) {
+      System.err.println("ERROR: " + e.getLocalizedMessage());
+    }
+  }
+}
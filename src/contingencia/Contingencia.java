@@ -17,6 +17,7 @@
 package contingencia;
 
 import contingencia.Vista.Login;
+import java.util.Arrays;
 import javafx.application.Application;
 
 /**
@@ -29,9 +30,31 @@ public class Contingencia {
   /**
    * Metodo principal.
    * 
+   * Con {@code --exportar <directorio> [csv|columnas]} exporta los datos y con
+   * {@code --importar <archivo> [rechazados]} importa un catalogo, sin abrir
+   * la interfaz. Con {@code --servidor [puerto]} atiende ventas por HTTP, tambien
+   * sin interfaz.
+   *
+   * Con -Dcontingencia.primario=puerto la terminal replica sus cambios a
+   * otras y con -Dcontingencia.replica=servidor:puerto es una replica de
+   * solo lectura (ver {@link Replicacion}). Con -Dcontingencia.archivo=meses
+   * los Remitos de meses anteriores pasan a segmentos comprimidos al guardar
+   * (12 por omision, 0 nunca).
    * @param args Los parametros de la linea de comandos.
    */
   public static void main(String[] args) {
+    if(args.length > 0 && args[0].equals("--exportar")) {
+      System.exit(Exportador.ejecutar(Arrays.copyOfRange(args, 1, args.length)) ? 0 : 1);
+    }
+    if(args.length > 0 && args[0].equals("--importar")) {
+      System.exit(Importador.ejecutar(Arrays.copyOfRange(args, 1, args.length)) ? 0 : 1);
+    }
+    if(args.length > 0 && args[0].equals("--servidor")) {
+      if(!ServidorHttp.ejecutar(Arrays.copyOfRange(args, 1, args.length))) {
+        System.exit(1);
+      }
+      return;
+    }
     Application.launch(Login.class, args);
   }
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia;
+
+import contingencia.Modelo.Mercaderia;
+import contingencia.Modelo.Remito;
+
+/**
+ * Recibe los cambios del {@link ServicioInventario}. Los avisos llegan por el
+ * notificador del servicio, sin importar el hilo que hizo el cambio.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public interface EscuchaInventario {
+
+  /**
+   * Se agrego una Mercaderia.
+   * @param mercaderia Mercaderia agregada.
+   */
+  default void alta(Mercaderia mercaderia) {
+  }
+
+  /**
+   * Se elimino una Mercaderia.
+   * @param mercaderia Mercaderia eliminada.
+   */
+  default void baja(Mercaderia mercaderia) {
+  }
+
+  /**
+   * Se editaron los datos de una Mercaderia.
+   * @param mercaderia Mercaderia editada.
+   */
+  default void cambio(Mercaderia mercaderia) {
+  }
+
+  /**
+   * Se registro una venta.
+   * @param remito Remito de la venta.
+   */
+  default void venta(Remito remito) {
+  }
+}
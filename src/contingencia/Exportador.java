@@ -0,0 +1,432 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia;
+
+import contingencia.Modelo.Dinero;
+import contingencia.Modelo.Mercaderia;
+import contingencia.Modelo.Remito;
+import contingencia.Modelo.Renglones;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Exporta Mercaderias y Remitos para analizarlos fuera del programa.
+ *
+ * Lee directo de los almacenes, por bloques, y escribe cada fila en cuanto la
+ * lee, asi que la memoria usada no depende del numero de filas. Exporta tres
+ * tablas: Mercaderias, Remitos y Renglones (una fila por renglon de cada
+ * Remito, ligada por el folio).
+ *
+ * Hay dos formatos:
+ * <ul>
+ * <li>{@link Formato#CSV}: texto UTF-8 separado por comas, con encabezado,
+ * fechas ISO (aaaa-mm-dd) e importes con punto decimal y dos decimales, sin
+ * notacion cientifica.</li>
+ * <li>{@link Formato#COLUMNAS}: binario por columnas y comprimido. Empieza con
+ * [magia "COLS"][version][numero de columnas] y por cada columna [nombre
+ * (UTF modificado)][tipo: 0 entero, 1 decimal, 2 texto, 3 fecha]. Siguen
+ * bloques [filas][bytes][datos deflate] de hasta {@link #FILAS_POR_BLOQUE}
+ * filas; los datos, ya descomprimidos, traen una columna tras otra: enteros y
+ * fechas (dias desde el 01/01/1970) en 4 bytes, decimales en 8 y textos como
+ * [longitud][bytes UTF-8]. Un bloque con 0 filas marca el final. Todos los
+ * numeros van en orden big-endian.</li>
+ * </ul>
+ *
+ * Se exporta lo que ya esta guardado en los almacenes; lo que solo esta en la
+ * bitacora aparece hasta el siguiente guardado.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public class Exportador {
+
+  /** Filas por bloque del formato por columnas. */
+  public static final int FILAS_POR_BLOQUE = 65536;
+
+  private static final int MAGIA = 0x434F4C53;
+  private static final int VERSION = 1;
+  private static final int BLOQUE_REMITOS = 1024;
+
+  private static final byte ENTERO = 0;
+  private static final byte DECIMAL = 1;
+  private static final byte TEXTO = 2;
+  private static final byte FECHA = 3;
+
+  /**
+   * Formatos de exportacion.
+   */
+  public enum Formato {
+    CSV(".csv"),
+    COLUMNAS(".col");
+
+    private final String extension;
+
+    Formato(String extension) {
+      this.extension = extension;
+    }
+
+    public String getExtension() {
+      return extension;
+    }
+  }
+
+  private final Formato formato;
+
+  /**
+   * Inicializa el exportador.
+   * @param formato Formato de los archivos.
+   */
+  public Exportador(Formato formato) {
+    this.formato = formato;
+  }
+
+  /**
+   * Exporta las Mercaderias.
+   * @param almacen Almacen de Mercaderias.
+   * @param destino Archivo de destino.
+   * @return Filas exportadas.
+   * @throws IOException Si ocurre un error de lectura o escritura.
+   */
+  public long exportarMercaderias(AlmacenMercaderias almacen, Path destino) throws IOException {
+    try(Tabla tabla = abrir(destino,
+        new String[] {"clave", "nombre", "descripcion", "precio_compra", "precio_venta", "existencias", "tipo_unidad"},
+        new byte[] {ENTERO, TEXTO, TEXTO, DECIMAL, DECIMAL, ENTERO, TEXTO})) {
+      long[] filas = new long[1];
+      try {
+        almacen.recorrer(mercaderia -> {
+          try {
+            tabla.entero(mercaderia.getClave());
+            tabla.texto(mercaderia.getNombre());
+            tabla.texto(mercaderia.getDescripcion());
+            tabla.dinero(mercaderia.getPrecioCompraCentavos());
+            tabla.dinero(mercaderia.getPrecioVentaCentavos());
+            tabla.entero(mercaderia.getExistencias());
+            tabla.texto(mercaderia.getTipoUnidad());
+            tabla.finFila();
+            filas[0]++;
+          } catch(IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+      } catch(UncheckedIOException e) {
+        throw e.getCause();
+      }
+      return filas[0];
+    }
+  }
+
+  /**
+   * Exporta los Remitos y sus Renglones en una sola lectura del historial.
+   * @param almacen Almacen de Remitos.
+   * @param remitos Archivo de destino de los Remitos.
+   * @param renglones Archivo de destino de los Renglones.
+   * @return Remitos exportados.
+   * @throws IOException Si ocurre un error de lectura o escritura.
+   */
+  public long exportarRemitos(AlmacenRemitos almacen, Path remitos, Path renglones) throws IOException {
+    try(Tabla tablaRemitos = abrir(remitos,
+            new String[] {"folio", "fecha", "cantidad", "subtotal", "iva", "total"},
+            new byte[] {ENTERO, FECHA, ENTERO, DECIMAL, DECIMAL, DECIMAL});
+        Tabla tablaRenglones = abrir(renglones,
+            new String[] {"folio", "clave", "cantidad", "precio"},
+            new byte[] {ENTERO, ENTERO, ENTERO, DECIMAL})) {
+      int total = almacen.tamano();
+      for(int desde = 0; desde < total; desde += BLOQUE_REMITOS) {
+        for (Remito remito : almacen.leer(desde, Math.min(desde + BLOQUE_REMITOS, total))) {
+          tablaRemitos.entero(remito.getFolio());
+          tablaRemitos.fecha(remito.getDia());
+          tablaRemitos.entero(remito.getCantidad());
+          tablaRemitos.dinero(remito.getSubtotalCentavos());
+          tablaRemitos.dinero(remito.getIVACentavos());
+          tablaRemitos.dinero(remito.getTotalCentavos());
+          tablaRemitos.finFila();
+          Renglones vendidos = remito.getRenglones();
+          for(int i = 0; i < vendidos.tamano(); i++) {
+            tablaRenglones.entero(remito.getFolio());
+            tablaRenglones.entero(vendidos.getClave(i));
+            tablaRenglones.entero(vendidos.getCantidad(i));
+            tablaRenglones.dinero(vendidos.getPrecioCentavos(i));
+            tablaRenglones.finFila();
+          }
+        }
+      }
+      return total;
+    }
+  }
+
+  /**
+   * Exporta las tres tablas a un directorio, con los nombres Mercaderias,
+   * Remitos y Renglones y la extension del formato. Se usa desde la linea de
+   * comandos: {@code --exportar <directorio> [csv|columnas]}, y falla si otra
+   * instancia tiene abiertos los almacenes.
+   * @param args Directorio y, opcionalmente, formato.
+   * @return Verdadero si se exporto, falso en caso contrario.
+   */
+  public static boolean ejecutar(String[] args) {
+    if(args.length < 1) {
+      System.err.println("ERROR: Uso: --exportar <directorio> [csv|columnas]");
+      return false;
+    }
+    Formato formato;
+    try {
+      formato = args.length > 1 ? Formato.valueOf(args[1].toUpperCase()) : Formato.CSV;
+    } catch(IllegalArgumentException e) {
+      System.err.println("ERROR: Formato invalido: " + args[1]);
+      return false;
+    }
+    if(!AlmacenMercaderias.existe("Mercaderia") || !AlmacenRemitos.existe("Remitos")) {
+      System.err.println("ERROR: No hay almacenes que exportar; abra el programa una vez para crearlos.");
+      return false;
+    }
+    Exportador exportador = new Exportador(formato);
+    Path directorio = Paths.get(args[0]);
+    Candado candado = null;
+    try {
+      candado = Candado.tomar();
+      Files.createDirectories(directorio);
+      AlmacenMercaderias mercaderias = new AlmacenMercaderias("Mercaderia");
+      try {
+        long filas = exportador.exportarMercaderias(mercaderias, directorio.resolve("Mercaderias" + formato.getExtension()));
+        System.out.println("Mercaderias: " + filas);
+      } finally {
+        mercaderias.cerrar();
+      }
+      AlmacenRemitos remitos = new AlmacenRemitos("Remitos");
+      try {
+        long filas = exportador.exportarRemitos(remitos,
+            directorio.resolve("Remitos" + formato.getExtension()),
+            directorio.resolve("Renglones" + formato.getExtension()));
+        System.out.println("Remitos: " + filas);
+      } finally {
+        remitos.cerrar();
+      }
+      return true;
+    } catch(IOException e) {
+      System.err.println("ERROR: " + e.getLocalizedMessage());
+      return false;
+    } finally {
+      if(candado != null) {
+        candado.soltar();
+      }
+    }
+  }
+
+  /**
+   * Prepara un texto como campo CSV, entre comillas solo si hace falta.
+   * @param valor Texto.
+   * @return Campo.
+   */
+  static String campoCsv(String valor) {
+    if(valor.indexOf(',') < 0 && valor.indexOf('"') < 0 && valor.indexOf('\n') < 0 && valor.indexOf('\r') < 0) {
+      return valor;
+    }
+    return '"' + valor.replace("\"", "\"\"") + '"';
+  }
+
+  /**
+   * Abre una tabla en el formato del exportador.
+   */
+  private Tabla abrir(Path destino, String[] nombres, byte[] tipos) throws IOException {
+    OutputStream salida = new BufferedOutputStream(Files.newOutputStream(destino), 1 << 16);
+    return formato == Formato.CSV ? new Csv(salida, nombres) : new Columnas(salida, nombres, tipos);
+  }
+
+  /**
+   * Escritor de una tabla, valor por valor y fila por fila.
+   */
+  private interface Tabla extends AutoCloseable {
+
+    void entero(int valor) throws IOException;
+
+    void dinero(long centavos) throws IOException;
+
+    void texto(String valor) throws IOException;
+
+    void fecha(int dia) throws IOException;
+
+    void finFila() throws IOException;
+
+    @Override
+    void close() throws IOException;
+  }
+
+  /**
+   * Tabla en texto separado por comas.
+   */
+  private static class Csv implements Tabla {
+
+    private final Writer salida;
+    private boolean primera;
+
+    Csv(OutputStream salida, String[] nombres) throws IOException {
+      this.salida = new BufferedWriter(new OutputStreamWriter(salida, StandardCharsets.UTF_8), 1 << 16);
+      primera = true;
+      for (String nombre : nombres) {
+        texto(nombre);
+      }
+      finFila();
+    }
+
+    @Override
+    public void entero(int valor) throws IOException {
+      separar();
+      salida.write(Integer.toString(valor));
+    }
+
+    @Override
+    public void dinero(long centavos) throws IOException {
+      separar();
+      salida.write(Dinero.texto(centavos));
+    }
+
+    @Override
+    public void texto(String valor) throws IOException {
+      separar();
+      salida.write(campoCsv(valor));
+    }
+
+    @Override
+    public void fecha(int dia) throws IOException {
+      separar();
+      salida.write(LocalDate.ofEpochDay(dia).toString());
+    }
+
+    @Override
+    public void finFila() throws IOException {
+      salida.write("\r\n");
+      primera = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      salida.close();
+    }
+
+    private void separar() throws IOException {
+      if(!primera) {
+        salida.write(',');
+      }
+      primera = false;
+    }
+  }
+
+  /**
+   * Tabla binaria por columnas, comprimida por bloques.
+   */
+  private static class Columnas implements Tabla {
+
+    private final DataOutputStream salida;
+    private final ByteArrayOutputStream[] bytes;
+    private final DataOutputStream[] columnas;
+    private final Deflater compresor;
+    private final ByteArrayOutputStream comprimido;
+    private int columna;
+    private int filas;
+
+    Columnas(OutputStream salida, String[] nombres, byte[] tipos) throws IOException {
+      this.salida = new DataOutputStream(salida);
+      this.salida.writeInt(MAGIA);
+      this.salida.writeInt(VERSION);
+      this.salida.writeInt(nombres.length);
+      bytes = new ByteArrayOutputStream[nombres.length];
+      columnas = new DataOutputStream[nombres.length];
+      for(int i = 0; i < nombres.length; i++) {
+        this.salida.writeUTF(nombres[i]);
+        this.salida.writeByte(tipos[i]);
+        bytes[i] = new ByteArrayOutputStream();
+        columnas[i] = new DataOutputStream(bytes[i]);
+      }
+      compresor = new Deflater(Deflater.BEST_SPEED);
+      comprimido = new ByteArrayOutputStream();
+    }
+
+    @Override
+    public void entero(int valor) throws IOException {
+      columnas[columna++].writeInt(valor);
+    }
+
+    @Override
+    public void dinero(long centavos) throws IOException {
+      columnas[columna++].writeDouble(Dinero.pesos(centavos));
+    }
+
+    @Override
+    public void texto(String valor) throws IOException {
+      byte[] utf = valor.getBytes(StandardCharsets.UTF_8);
+      columnas[columna].writeInt(utf.length);
+      columnas[columna++].write(utf);
+    }
+
+    @Override
+    public void fecha(int dia) throws IOException {
+      entero(dia);
+    }
+
+    @Override
+    public void finFila() throws IOException {
+      columna = 0;
+      if(++filas == FILAS_POR_BLOQUE) {
+        escribirBloque();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        if(filas > 0) {
+          escribirBloque();
+        }
+        salida.writeInt(0);
+        salida.close();
+      } finally {
+        compresor.end();
+      }
+    }
+
+    /**
+     * Comprime las columnas acumuladas y las escribe como un bloque.
+     */
+    private void escribirBloque() throws IOException {
+      compresor.reset();
+      comprimido.reset();
+      try(DeflaterOutputStream deflate = new DeflaterOutputStream(comprimido, compresor, 1 << 16)) {
+        for (ByteArrayOutputStream datos : bytes) {
+          datos.writeTo(deflate);
+          datos.reset();
+        }
+      }
+      salida.writeInt(filas);
+      salida.writeInt(comprimido.size());
+      comprimido.writeTo(salida);
+      filas = 0;
+    }
+  }
+}
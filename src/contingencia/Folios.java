@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asignador de folios de Remito.
+ *
+ * Los folios salen de un contador atomico, sin candados ni historial en
+ * memoria. En disco solo se guarda una marca alta: el primer folio que aun no
+ * se ha apartado. Cuando el contador la alcanza se aparta el siguiente bloque
+ * de {@link #BLOQUE} folios y la marca nueva se sincroniza con el disco antes
+ * de entregar el folio, asi que ni despues de una caida se repite un folio
+ * aunque el historial haya perdido sus ultimos Remitos. Al abrir se continua
+ * desde la marca: tras una caida quedan sin usar los folios apartados que no
+ * se entregaron, pero al {@link #cerrar() cerrar} la marca baja al siguiente
+ * folio, asi que un cierre normal no deja huecos.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public class Folios {
+
+  /** Folios apartados cada vez que se escribe la marca. */
+  public static final int BLOQUE = 1024;
+
+  private static final int MAGIA = 0x464F4C49;
+  private static final int VERSION = 1;
+  private static final int TAMANO = 12;
+
+  private final FileChannel canal;
+  private final AtomicInteger siguiente;
+  private volatile int reservado;
+
+  /**
+   * Abre (o crea) la marca de folios.
+   * @param nombre Nombre del archivo.
+   * @param ultimo Ultimo folio del historial, o 0 si esta vacio. Se continua
+   * despues de el o de la marca, lo que sea mayor, para no repetir folios ya
+   * entregados aunque el historial no los tenga.
+   * @throws IOException Si el archivo no se puede abrir o no es valido.
+   */
+  public Folios(String nombre, int ultimo) throws IOException {
+    canal = FileChannel.open(Paths.get(nombre), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    int marca = 1;
+    if(canal.size() > 0) {
+      ByteBuffer buffer = ByteBuffer.allocate(TAMANO);
+      while(buffer.hasRemaining()) {
+        if(canal.read(buffer, buffer.position()) < 0) {
+          throw new IOException("Archivo " + nombre + " incompleto.");
+        }
+      }
+      if(buffer.getInt(0) != MAGIA || buffer.getInt(4) != VERSION) {
+        throw new IOException("Formato de " + nombre + " invalido.");
+      }
+      marca = buffer.getInt(8);
+    }
+    reservado = Math.max(marca, ultimo + 1);
+    siguiente = new AtomicInteger(reservado);
+    if(reservado != marca) {
+      escribir(reservado);
+    }
+  }
+
+  /**
+   * Entrega el siguiente folio. Solo toma un candado, y escribe en disco, una
+   * vez por cada {@link #BLOQUE} folios.
+   * @return Folio.
+   * @throws UncheckedIOException Si no se pudo sincronizar la marca nueva; el
+   * folio no se entrega.
+   */
+  public int tomar() {
+    int folio = siguiente.getAndIncrement();
+    if(folio >= reservado) {
+      reservar(folio);
+    }
+    return folio;
+  }
+
+  /**
+   * Folio que entregara {@link #tomar()}.
+   * @return Folio.
+   */
+  public int siguiente() {
+    return siguiente.get();
+  }
+
+  /**
+   * Salta despues de un folio asignado en otro lado, como los que llegan del
+   * primario a una replica, para que nunca se vuelva a entregar.
+   * @param folio Folio ya usado.
+   */
+  public void avanzar(int folio) {
+    int actual = siguiente.get();
+    while(actual <= folio && !siguiente.compareAndSet(actual, folio + 1)) {
+      actual = siguiente.get();
+    }
+    if(folio >= reservado) {
+      try {
+        reservar(folio);
+      } catch(UncheckedIOException e) {
+        // Aqui no se entrega el folio; tomar() reintenta la reserva.
+        System.err.println("ERROR: " + e.getLocalizedMessage());
+      }
+    }
+  }
+
+  /**
+   * Baja la marca al siguiente folio y cierra el archivo. Se llama cuando ya
+   * no se entregan folios.
+   * @throws IOException Si ocurre un error al escribir o al cerrar.
+   */
+  public synchronized void cerrar() throws IOException {
+    try {
+      int folio = siguiente.get();
+      if(folio < reservado) {
+        escribir(folio);
+        reservado = folio;
+      }
+    } finally {
+      canal.close();
+    }
+  }
+
+  /**
+   * Aparta el bloque que contiene un folio, si otro hilo no lo hizo ya. Si la
+   * marca no llega al disco la reserva no cambia.
+   */
+  private synchronized void reservar(int folio) {
+    if(folio >= reservado) {
+      int marca = folio + BLOQUE;
+      try {
+        escribir(marca);
+      } catch(IOException e) {
+        throw new UncheckedIOException("No se pudo apartar el folio " + folio + ".", e);
+      }
+      reservado = marca;
+    }
+  }
+
+  private void escribir(int marca) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(TAMANO);
+    buffer.putInt(MAGIA).putInt(VERSION).putInt(marca).flip();
+    while(buffer.hasRemaining()) {
+      canal.write(buffer, buffer.position());
+    }
+    canal.force(false);
+  }
+}
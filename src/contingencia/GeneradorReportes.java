@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia;
+
+import contingencia.Modelo.Remito;
+import contingencia.Modelo.Reporte;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Genera reportes de ventas recorriendo el historial de Remitos en paralelo.
+ *
+ * El rango de fechas se convierte en un rango de posiciones con el indice por
+ * dia y se divide en mitades hasta quedar en partes de a lo mas
+ * {@link #UMBRAL} Remitos, cada una un periodo contiguo de fechas que un hilo
+ * del ForkJoinPool lee en bloques de {@link #BLOQUE} y resume en un
+ * {@link Reporte}; los parciales se combinan al regresar. Nunca se tiene en
+ * memoria mas de un bloque por hilo, sin importar el tamaño del historial.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public class GeneradorReportes {
+
+  /** Remitos por parte que ya no se divide. */
+  public static final int UMBRAL = 16384;
+  /** Remitos leidos del disco a la vez. */
+  public static final int BLOQUE = 1024;
+
+  private final RemitosPaginados remitos;
+  private final ForkJoinPool hilos;
+
+  /**
+   * Inicializa el generador con el pool comun.
+   * @param remitos Historial de Remitos.
+   */
+  public GeneradorReportes(RemitosPaginados remitos) {
+    this(remitos, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Constructor sobrecargado.
+   * @param remitos Historial de Remitos.
+   * @param hilos Pool donde se ejecutan las partes.
+   */
+  public GeneradorReportes(RemitosPaginados remitos, ForkJoinPool hilos) {
+    this.remitos = remitos;
+    this.hilos = hilos;
+  }
+
+  /**
+   * Genera el reporte de un rango de fechas.
+   * @param desde Primer dia (inclusive), en dias desde el 01/01/1970.
+   * @param hasta Ultimo dia (exclusivo), en dias desde el 01/01/1970.
+   * @return Reporte.
+   * @throws IOException Si ocurre un error de lectura.
+   */
+  public Reporte generar(int desde, int hasta) throws IOException {
+    int inicio = 0;
+    int fin;
+    // Solo si el reloj se atraso alguna vez hay que revisar todo el historial.
+    if(remitos.ordenadoPorDia()) {
+      inicio = remitos.inicioDia(desde);
+      fin = hasta == Integer.MAX_VALUE ? remitos.total() : remitos.inicioDia(hasta);
+    } else {
+      fin = remitos.total();
+    }
+    try {
+      return hilos.invoke(new Parte(inicio, fin, desde, hasta));
+    } catch(UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Genera el reporte de todo el historial.
+   * @return Reporte.
+   * @throws IOException Si ocurre un error de lectura.
+   */
+  public Reporte generar() throws IOException {
+    return generar(Integer.MIN_VALUE, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Resume un rango de posiciones, dividiendolo si es grande.
+   */
+  private class Parte extends RecursiveTask<Reporte> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int inicio;
+    private final int fin;
+    private final int desde;
+    private final int hasta;
+
+    Parte(int inicio, int fin, int desde, int hasta) {
+      this.inicio = inicio;
+      this.fin = fin;
+      this.desde = desde;
+      this.hasta = hasta;
+    }
+
+    @Override
+    protected Reporte compute() {
+      if(fin - inicio > UMBRAL) {
+        int medio = (inicio + fin) >>> 1;
+        Parte izquierda = new Parte(inicio, medio, desde, hasta);
+        izquierda.fork();
+        Reporte reporte = new Parte(medio, fin, desde, hasta).compute();
+        Reporte primero = izquierda.join();
+        primero.combinar(reporte);
+        return primero;
+      }
+      Reporte reporte = new Reporte();
+      try {
+        for(int i = inicio; i < fin; i += BLOQUE) {
+          for (Remito remito : remitos.leer(i, Math.min(i + BLOQUE, fin))) {
+            if(remito.getDia() >= desde && remito.getDia() < hasta) {
+              reporte.agregar(remito);
+            }
+          }
+        }
+      } catch(IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return reporte;
+    }
+  }
+}
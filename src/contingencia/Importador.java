@@ -0,0 +1,420 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia;
+
+import contingencia.Modelo.IndiceEntero;
+import contingencia.Modelo.Mercaderia;
+import contingencia.Modelo.Validacion;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Importa catalogos de Mercaderias desde archivos CSV grandes.
+ *
+ * El archivo se lee en un solo hilo, registro por registro, y se parte en
+ * lotes de {@link #LOTE} filas que se validan en paralelo con las mismas
+ * reglas que la captura manual. Los lotes validados se agregan en orden, cada
+ * uno con un solo candado del {@link ServicioInventario}; ahi se descartan las
+ * claves repetidas, dentro del archivo o ya existentes. Solo hay unos cuantos
+ * lotes en memoria a la vez, sin importar el tamaño del archivo.
+ *
+ * El archivo debe tener encabezado con las columnas clave, nombre,
+ * descripcion, precio_compra, existencias y tipo_unidad, en cualquier orden
+ * (otras columnas, como las del {@link Exportador}, se ignoran). Las filas
+ * rechazadas se escriben a otro CSV con la linea y el motivo.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public class Importador {
+
+  /** Filas por lote. */
+  public static final int LOTE = 8192;
+
+  private static final String[] COLUMNAS = {"clave", "nombre", "descripcion", "precio_compra", "existencias", "tipo_unidad"};
+
+  private final ServicioInventario servicio;
+
+  /**
+   * Inicializa el importador.
+   * @param servicio Inventario donde se agregan las Mercaderias.
+   */
+  public Importador(ServicioInventario servicio) {
+    this.servicio = servicio;
+  }
+
+  /**
+   * Importa un archivo.
+   * @param origen Archivo CSV.
+   * @param rechazados Archivo CSV donde se escriben las filas rechazadas.
+   * @return Resultado de la importacion.
+   * @throws IOException Si ocurre un error de lectura o escritura, o el encabezado no es valido.
+   */
+  public Resultado importar(Path origen, Path rechazados) throws IOException {
+    int hilos = Runtime.getRuntime().availableProcessors();
+    ExecutorService validadores = Executors.newFixedThreadPool(hilos, (Runnable r) -> {
+      Thread hilo = new Thread(r, "Validacion de importacion");
+      hilo.setDaemon(true);
+      return hilo;
+    });
+    try(Reader in = Files.newBufferedReader(origen, StandardCharsets.UTF_8);
+        Writer rechazos = Files.newBufferedWriter(rechazados, StandardCharsets.UTF_8)) {
+      LectorCsv csv = new LectorCsv(in);
+      String[] encabezado = csv.siguiente();
+      if(encabezado == null) {
+        throw new IOException("El archivo " + origen + " esta vacio.");
+      }
+      int[] posiciones = posiciones(encabezado);
+      rechazos.write("linea,motivo");
+      for (String columna : encabezado) {
+        rechazos.write(',');
+        rechazos.write(Exportador.campoCsv(columna));
+      }
+      rechazos.write("\r\n");
+      Resultado resultado = new Resultado();
+      IndiceEntero<Integer> vistas = new IndiceEntero<>();
+      Deque<Future<Lote>> enCurso = new ArrayDeque<>();
+      while(true) {
+        Lote lote = new Lote();
+        String[] fila;
+        while(lote.filas < LOTE && (fila = csv.siguiente()) != null) {
+          lote.agregar(csv.getLinea(), fila);
+        }
+        if(lote.filas > 0) {
+          enCurso.add(validadores.submit(() -> lote.validar(posiciones)));
+        }
+        if(enCurso.isEmpty()) {
+          break;
+        }
+        // Se siguen leyendo lotes mientras los anteriores se validan.
+        if(enCurso.size() > hilos || lote.filas < LOTE) {
+          agregar(esperar(enCurso.poll()), vistas, rechazos, resultado);
+        }
+      }
+      return resultado;
+    } finally {
+      validadores.shutdownNow();
+    }
+  }
+
+  /**
+   * Importa un archivo desde la linea de comandos, con el programa cerrado:
+   * {@code --importar <archivo> [rechazados]}. Si no se indica, las filas
+   * rechazadas van a un archivo junto al original terminado en
+   * ".rechazados.csv".
+   * @param args Archivo y, opcionalmente, archivo de rechazados.
+   * @return Verdadero si se importo, falso en caso contrario.
+   */
+  public static boolean ejecutar(String[] args) {
+    if(args.length < 1) {
+      System.err.println("ERROR: Uso: --importar <archivo> [rechazados]");
+      return false;
+    }
+    Path origen = Paths.get(args[0]);
+    Path rechazados = Paths.get(args.length > 1 ? args[1] : args[0] + ".rechazados.csv");
+    ServicioInventario servicio;
+    try {
+      servicio = new ServicioInventario(Runnable::run);
+    } catch(IOException e) {
+      System.err.println("ERROR: " + e.getLocalizedMessage());
+      return false;
+    }
+    try {
+      long inicio = System.nanoTime();
+      Resultado resultado = new Importador(servicio).importar(origen, rechazados);
+      boolean guardado = servicio.guardar();
+      long ms = (System.nanoTime() - inicio) / 1000000;
+      System.out.println("Filas: " + resultado.getLeidas());
+      System.out.println("Importadas: " + resultado.getImportadas());
+      System.out.println("Rechazadas: " + resultado.getRechazadas() + (resultado.getRechazadas() > 0 ? " (" + rechazados + ")" : ""));
+      System.out.println("Tiempo: " + ms + " ms");
+      return guardado;
+    } catch(IOException e) {
+      System.err.println("ERROR: " + e.getLocalizedMessage());
+      return false;
+    } finally {
+      servicio.cerrar();
+    }
+  }
+
+  /**
+   * Agrega las filas validas de un lote y escribe las rechazadas.
+   */
+  private void agregar(Lote lote, IndiceEntero<Integer> vistas, Writer rechazos, Resultado resultado) throws IOException {
+    List<Mercaderia> nuevas = new ArrayList<>(lote.filas);
+    List<Integer> lineas = new ArrayList<>(lote.filas);
+    for(int i = 0; i < lote.filas; i++) {
+      String motivo = lote.motivos[i];
+      if(motivo == null) {
+        Integer anterior = vistas.obtener(lote.validas[i].getClave());
+        if(anterior != null) {
+          motivo = "Clave repetida en la linea " + anterior;
+        } else if(servicio.existe(lote.validas[i].getClave())) {
+          motivo = "La clave ya existe en el inventario";
+        } else {
+          vistas.poner(lote.validas[i].getClave(), lote.lineas[i]);
+          nuevas.add(lote.validas[i]);
+          lineas.add(i);
+          continue;
+        }
+      }
+      rechazar(rechazos, lote.lineas[i], motivo, lote.contenido[i]);
+      resultado.rechazadas++;
+    }
+    List<Mercaderia> agregadas = servicio.agregar(nuevas);
+    resultado.importadas += agregadas.size();
+    resultado.leidas += lote.filas;
+    // Solo faltan si otro hilo agrego las mismas claves en el intermedio.
+    if(agregadas.size() < nuevas.size()) {
+      for(int i = 0, j = 0; i < nuevas.size(); i++) {
+        if(j < agregadas.size() && agregadas.get(j) == nuevas.get(i)) {
+          j++;
+        } else {
+          rechazar(rechazos, lote.lineas[lineas.get(i)], "La clave ya existe en el inventario", lote.contenido[lineas.get(i)]);
+          resultado.rechazadas++;
+        }
+      }
+    }
+  }
+
+  /**
+   * Escribe una fila rechazada.
+   */
+  private static void rechazar(Writer rechazos, int linea, String motivo, String[] fila) throws IOException {
+    rechazos.write(Integer.toString(linea));
+    rechazos.write(',');
+    rechazos.write(Exportador.campoCsv(motivo));
+    for (String campo : fila) {
+      rechazos.write(',');
+      rechazos.write(Exportador.campoCsv(campo));
+    }
+    rechazos.write("\r\n");
+  }
+
+  /**
+   * Espera a que termine la validacion de un lote.
+   */
+  private static Lote esperar(Future<Lote> lote) throws IOException {
+    try {
+      return lote.get();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Importacion interrumpida.", e);
+    } catch(ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Posicion en el encabezado de cada columna requerida.
+   */
+  private static int[] posiciones(String[] encabezado) throws IOException {
+    int[] posiciones = new int[COLUMNAS.length];
+    for(int i = 0; i < COLUMNAS.length; i++) {
+      posiciones[i] = Arrays.asList(encabezado).indexOf(COLUMNAS[i]);
+      if(posiciones[i] < 0) {
+        throw new IOException("Falta la columna " + COLUMNAS[i] + " en el encabezado.");
+      }
+    }
+    return posiciones;
+  }
+
+  /**
+   * Filas de un lote y el resultado de validarlas.
+   */
+  private static class Lote {
+
+    private final int[] lineas = new int[LOTE];
+    private final String[][] contenido = new String[LOTE][];
+    private final Mercaderia[] validas = new Mercaderia[LOTE];
+    private final String[] motivos = new String[LOTE];
+    private int filas;
+
+    void agregar(int linea, String[] fila) {
+      lineas[filas] = linea;
+      contenido[filas++] = fila;
+    }
+
+    Lote validar(int[] posiciones) {
+      for(int i = 0; i < filas; i++) {
+        motivos[i] = validar(contenido[i], posiciones, i);
+      }
+      return this;
+    }
+
+    /**
+     * Valida una fila con las mismas reglas que la captura manual.
+     * @return Motivo del rechazo, o null si es valida.
+     */
+    private String validar(String[] fila, int[] posiciones, int i) {
+      for (int posicion : posiciones) {
+        if(posicion >= fila.length) {
+          return "Faltan columnas";
+        }
+      }
+      String clave = fila[posiciones[0]];
+      String nombre = fila[posiciones[1]];
+      String descripcion = fila[posiciones[2]];
+      String precio = fila[posiciones[3]];
+      String existencias = fila[posiciones[4]];
+      String unidad = fila[posiciones[5]];
+      Validacion validacion = Validacion.mercaderia(clave, nombre, descripcion, precio, existencias, unidad);
+      if(!validacion.esValida()) {
+        return validacion.getMensaje();
+      }
+      validas[i] = new Mercaderia(Validacion.entero(clave), nombre, descripcion,
+          Validacion.decimal(precio), Validacion.entero(existencias), unidad);
+      return null;
+    }
+  }
+
+  /**
+   * Lector de registros CSV (RFC 4180): campos entre comillas con comas,
+   * comillas dobles y saltos de linea.
+   */
+  private static class LectorCsv {
+
+    private final Reader in;
+    private final char[] buffer;
+    private final StringBuilder campo;
+    private final List<String> campos;
+    private int posicion;
+    private int limite;
+    private int linea;
+    private int inicio;
+
+    LectorCsv(Reader in) {
+      this.in = in;
+      buffer = new char[1 << 16];
+      campo = new StringBuilder();
+      campos = new ArrayList<>();
+      linea = 1;
+    }
+
+    /**
+     * Linea donde empezo el ultimo registro leido.
+     */
+    int getLinea() {
+      return inicio;
+    }
+
+    /**
+     * Lee el siguiente registro, omitiendo lineas vacias.
+     * @return Campos, o null al final del archivo.
+     */
+    String[] siguiente() throws IOException {
+      int c;
+      do {
+        inicio = linea;
+        campos.clear();
+        campo.setLength(0);
+        c = leer();
+        if(c < 0) {
+          return null;
+        }
+        boolean comillas = false;
+        boolean entreComillas = false;
+        while(true) {
+          if(entreComillas) {
+            if(c < 0) {
+              throw new IOException("Comillas sin cerrar desde la linea " + inicio + ".");
+            }
+            if(c == '"') {
+              c = leer();
+              if(c != '"') {
+                entreComillas = false;
+                continue;
+              }
+            } else if(c == '\n') {
+              linea++;
+            }
+            campo.append((char) c);
+          } else if(c == '"' && campo.length() == 0 && !comillas) {
+            comillas = true;
+            entreComillas = true;
+          } else if(c == ',') {
+            campos.add(campo.toString());
+            campo.setLength(0);
+            comillas = false;
+          } else if(c == '\n' || c == '\r' || c < 0) {
+            if(c == '\r') {
+              c = leer();
+              if(c != '\n' && c >= 0) {
+                posicion--;
+              }
+            }
+            linea++;
+            break;
+          } else {
+            campo.append((char) c);
+          }
+          c = leer();
+        }
+        campos.add(campo.toString());
+      } while(campos.size() == 1 && campos.get(0).isEmpty());
+      return campos.toArray(new String[campos.size()]);
+    }
+
+    private int leer() throws IOException {
+      if(posicion == limite) {
+        limite = in.read(buffer, 0, buffer.length);
+        posicion = 0;
+        if(limite <= 0) {
+          limite = 0;
+          return -1;
+        }
+      }
+      return buffer[posicion++];
+    }
+  }
+
+  /**
+   * Cuentas de una importacion.
+   */
+  public static class Resultado {
+
+    private long leidas;
+    private long importadas;
+    private long rechazadas;
+
+    public long getLeidas() {
+      return leidas;
+    }
+
+    public long getImportadas() {
+      return importadas;
+    }
+
+    public long getRechazadas() {
+      return rechazadas;
+    }
+  }
+}
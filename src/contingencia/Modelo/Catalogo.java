@@ -0,0 +1,33 @@
+/* 
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia.Modelo;
+
+/**
+ * Consulta de Mercaderias por clave.
+ * 
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public interface Catalogo {
+  
+  /**
+   * Busca una Mercaderia por su clave.
+   * @param clave Clave de la Mercaderia.
+   * @return Mercaderia, o null si no existe.
+   */
+  Mercaderia buscar(int clave);
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia.Modelo;
+
+/**
+ * Aritmetica de dinero en centavos enteros.
+ *
+ * Los precios e importes se guardan como long de centavos, asi que sumarlos
+ * es exacto y no depende del orden. Las tasas (margen, IVA) se expresan en
+ * diezmilesimos y su resultado se trunca al centavo, igual que el redondeo
+ * hacia abajo que se usaba con DecimalFormat, pero sin crear objetos ni pasar
+ * por texto. Los doubles solo quedan en la captura, la presentacion y los
+ * formatos de archivo.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public final class Dinero {
+
+  /** Denominador de las tasas: 10000 es el 100%. */
+  public static final int BASE_TASA = 10000;
+
+  private Dinero() {
+  }
+
+  /**
+   * Convierte pesos a centavos, al centavo mas cercano.
+   * @param pesos Cantidad en pesos.
+   * @return Centavos.
+   */
+  public static long centavos(double pesos) {
+    return Math.round(pesos * 100);
+  }
+
+  /**
+   * Convierte centavos a pesos.
+   * @param centavos Cantidad en centavos.
+   * @return Pesos.
+   */
+  public static double pesos(long centavos) {
+    return centavos / 100.0;
+  }
+
+  /**
+   * Convierte un factor (1.50, 0.16) a diezmilesimos.
+   * @param factor Factor.
+   * @return Tasa.
+   */
+  public static int tasa(double factor) {
+    return (int) Math.round(factor * BASE_TASA);
+  }
+
+  /**
+   * Aplica una tasa a una cantidad y trunca al centavo.
+   * @param centavos Cantidad en centavos.
+   * @param tasa Tasa en diezmilesimos.
+   * @return Centavos resultantes.
+   */
+  public static long aplicar(long centavos, int tasa) {
+    return centavos * tasa / BASE_TASA;
+  }
+
+  /**
+   * Texto con dos decimales, como "12.50".
+   * @param centavos Cantidad en centavos.
+   * @return Texto.
+   */
+  public static String texto(long centavos) {
+    long absoluto = Math.abs(centavos);
+    long fraccion = absoluto % 100;
+    return (centavos < 0 ? "-" : "") + absoluto / 100 + (fraccion < 10 ? ".0" : ".") + fraccion;
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia.Modelo;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Contador de existencias sin candados.
+ *
+ * Las existencias fisicas y las unidades reservadas se guardan juntas en un
+ * solo long ([existencias][reservadas]) y cada operacion es un ciclo de
+ * compare-and-set sobre el, asi que la comprobacion y el descuento ocurren
+ * en un solo paso atomico y nunca se vende de mas. Las reservas apartan
+ * unidades para un Remito abierto: dejan de estar disponibles para otros
+ * vendedores pero siguen contando como existencias hasta confirmarse. Solo
+ * las existencias fisicas se guardan; las reservas viven en memoria. El long
+ * es un campo propio actualizado con un AtomicLongFieldUpdater, para no
+ * agregar un AtomicLong por Mercaderia.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public class Existencias {
+
+  private static final AtomicLongFieldUpdater<Existencias> ESTADO = AtomicLongFieldUpdater.newUpdater(Existencias.class, "estado");
+
+  private volatile long estado;
+
+  /**
+   * Inicializa el contador.
+   * @param existencias Existencias iniciales.
+   */
+  public Existencias(int existencias) {
+    estado = empacar(existencias, 0);
+  }
+
+  /**
+   * Existencias fisicas, incluidas las reservadas.
+   * @return Existencias.
+   */
+  public int get() {
+    return existencias(estado);
+  }
+
+  /**
+   * Unidades reservadas por Remitos abiertos.
+   * @return Reservadas.
+   */
+  public int reservadas() {
+    return reservadas(estado);
+  }
+
+  /**
+   * Unidades que aun se pueden vender o reservar.
+   * @return Disponibles.
+   */
+  public int disponibles() {
+    long actual = estado;
+    return existencias(actual) - reservadas(actual);
+  }
+
+  /**
+   * Reemplaza las existencias fisicas conservando las reservas.
+   * @param existencias Existencias nuevas.
+   */
+  public void fijar(int existencias) {
+    long actual;
+    do {
+      actual = estado;
+    } while(!ESTADO.compareAndSet(this, actual, empacar(existencias, reservadas(actual))));
+  }
+
+  /**
+   * Descuenta unidades si hay suficientes disponibles.
+   * @param cantidad Unidades a descontar.
+   * @return Verdadero si se descontaron, falso en caso contrario.
+   */
+  public boolean tomar(int cantidad) {
+    long actual;
+    do {
+      actual = estado;
+      if(existencias(actual) - reservadas(actual) < cantidad) {
+        return false;
+      }
+    } while(!ESTADO.compareAndSet(this, actual, empacar(existencias(actual) - cantidad, reservadas(actual))));
+    return true;
+  }
+
+  /**
+   * Regresa unidades descontadas con {@link #tomar(int)}.
+   * @param cantidad Unidades a regresar.
+   */
+  public void devolver(int cantidad) {
+    long actual;
+    do {
+      actual = estado;
+    } while(!ESTADO.compareAndSet(this, actual, empacar(existencias(actual) + cantidad, reservadas(actual))));
+  }
+
+  /**
+   * Aparta unidades si hay suficientes disponibles.
+   * @param cantidad Unidades a reservar.
+   * @return Verdadero si se reservaron, falso en caso contrario.
+   */
+  public boolean reservar(int cantidad) {
+    long actual;
+    do {
+      actual = estado;
+      if(existencias(actual) - reservadas(actual) < cantidad) {
+        return false;
+      }
+    } while(!ESTADO.compareAndSet(this, actual, empacar(existencias(actual), reservadas(actual) + cantidad)));
+    return true;
+  }
+
+  /**
+   * Libera unidades reservadas sin venderlas.
+   * @param cantidad Unidades a liberar.
+   */
+  public void liberar(int cantidad) {
+    long actual;
+    do {
+      actual = estado;
+    } while(!ESTADO.compareAndSet(this, actual, empacar(existencias(actual), reservadas(actual) - Math.min(cantidad, reservadas(actual)))));
+  }
+
+  /**
+   * Vende unidades reservadas: salen de las reservas y de las existencias.
+   * @param cantidad Unidades a vender.
+   * @return Verdadero si se vendieron, falso si no estaban reservadas o ya
+   *         no hay existencias (por ejemplo, tras una edicion).
+   */
+  public boolean confirmar(int cantidad) {
+    long actual;
+    do {
+      actual = estado;
+      if(reservadas(actual) < cantidad || existencias(actual) < cantidad) {
+        return false;
+      }
+    } while(!ESTADO.compareAndSet(this, actual, empacar(existencias(actual) - cantidad, reservadas(actual) - cantidad)));
+    return true;
+  }
+
+  /**
+   * Deshace un {@link #confirmar(int)}: las unidades vuelven a las
+   * existencias y a las reservas.
+   * @param cantidad Unidades a regresar.
+   */
+  void revertir(int cantidad) {
+    long actual;
+    do {
+      actual = estado;
+    } while(!ESTADO.compareAndSet(this, actual, empacar(existencias(actual) + cantidad, reservadas(actual) + cantidad)));
+  }
+
+  private static long empacar(int existencias, int reservadas) {
+    return ((long) existencias << 32) | (reservadas & 0xFFFFFFFFL);
+  }
+
+  private static int existencias(long estado) {
+    return (int) (estado >> 32);
+  }
+
+  private static int reservadas(long estado) {
+    return (int) estado;
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia.Modelo;
+
+import java.util.Arrays;
+
+/**
+ * Tabla hash de direccionamiento abierto con llaves enteras primitivas.
+ *
+ * Evita el uso de Integer como llave, por lo que las busquedas no generan
+ * basura. Las llaves se guardan en un arreglo int[] y los valores en un
+ * arreglo paralelo; una casilla esta ocupada si su valor no es nulo.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ * @param <V> Tipo de los valores.
+ */
+public class IndiceEntero<V> {
+
+  private static final int CAPACIDAD_INICIAL = 16;
+
+  private int[] llaves;
+  private Object[] valores;
+  private int tamano;
+  private int limite;
+
+  /**
+   * Inicializa el indice.
+   */
+  public IndiceEntero() {
+    this(CAPACIDAD_INICIAL);
+  }
+
+  /**
+   * Constructor sobrecargado.
+   * @param esperados Cantidad de elementos esperados.
+   */
+  public IndiceEntero(int esperados) {
+    int capacidad = CAPACIDAD_INICIAL;
+    while(capacidad * 3 / 4 < esperados) {
+      capacidad <<= 1;
+    }
+    llaves = new int[capacidad];
+    valores = new Object[capacidad];
+    limite = capacidad * 3 / 4;
+  }
+
+  /**
+   * Mezcla los bits de la llave para repartirla en la tabla.
+   * @param llave Llave.
+   * @return Hash mezclado.
+   */
+  private static int mezclar(int llave) {
+    int h = llave * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Busca la casilla de una llave.
+   * @param llave Llave a buscar.
+   * @return Posicion de la casilla, o -1 si no existe.
+   */
+  private int casilla(int llave) {
+    int mascara = llaves.length - 1;
+    int i = mezclar(llave) & mascara;
+    while(valores[i] != null) {
+      if(llaves[i] == llave) {
+        return i;
+      }
+      i = (i + 1) & mascara;
+    }
+    return -1;
+  }
+
+  /**
+   * Obtiene el valor asociado a una llave.
+   * @param llave Llave.
+   * @return Valor, o null si no existe.
+   */
+  @SuppressWarnings("unchecked")
+  public V obtener(int llave) {
+    int i = casilla(llave);
+    return i < 0 ? null : (V) valores[i];
+  }
+
+  /**
+   * Comprueba si existe una llave.
+   * @param llave Llave.
+   * @return Verdadero si existe, falso en caso contrario.
+   */
+  public boolean contiene(int llave) {
+    return casilla(llave) >= 0;
+  }
+
+  /**
+   * Asocia un valor a una llave, reemplazando el anterior.
+   * @param llave Llave.
+   * @param valor Valor, no nulo.
+   * @return Valor anterior, o null si no existia.
+   */
+  @SuppressWarnings("unchecked")
+  public V poner(int llave, V valor) {
+    if(valor == null) {
+      throw new IllegalArgumentException("El valor no puede ser nulo.");
+    }
+    int mascara = llaves.length - 1;
+    int i = mezclar(llave) & mascara;
+    while(valores[i] != null) {
+      if(llaves[i] == llave) {
+        V anterior = (V) valores[i];
+        valores[i] = valor;
+        return anterior;
+      }
+      i = (i + 1) & mascara;
+    }
+    llaves[i] = llave;
+    valores[i] = valor;
+    if(++tamano > limite) {
+      crecer();
+    }
+    return null;
+  }
+
+  /**
+   * Elimina una llave del indice.
+   * @param llave Llave.
+   * @return Valor eliminado, o null si no existia.
+   */
+  @SuppressWarnings("unchecked")
+  public V quitar(int llave) {
+    int i = casilla(llave);
+    if(i < 0) {
+      return null;
+    }
+    V anterior = (V) valores[i];
+    int mascara = llaves.length - 1;
+    // Recorre el grupo hacia atras para no dejar huecos en las secuencias.
+    int j = i;
+    while(true) {
+      j = (j + 1) & mascara;
+      if(valores[j] == null) {
+        break;
+      }
+      int ideal = mezclar(llaves[j]) & mascara;
+      if((j > i && (ideal <= i || ideal > j)) || (j < i && ideal <= i && ideal > j)) {
+        llaves[i] = llaves[j];
+        valores[i] = valores[j];
+        i = j;
+      }
+    }
+    valores[i] = null;
+    tamano--;
+    return anterior;
+  }
+
+  /**
+   * Elimina todos los elementos.
+   */
+  public void limpiar() {
+    Arrays.fill(valores, null);
+    tamano = 0;
+  }
+
+  /**
+   * Numero de elementos en el indice.
+   * @return Tamaño.
+   */
+  public int tamano() {
+    return tamano;
+  }
+
+  /**
+   * Llaves presentes, sin ningun orden en particular.
+   * @return Arreglo con las llaves.
+   */
+  public int[] llaves() {
+    int[] presentes = new int[tamano];
+    for(int i = 0, j = 0; i < llaves.length; i++) {
+      if(valores[i] != null) {
+        presentes[j++] = llaves[i];
+      }
+    }
+    return presentes;
+  }
+
+  /**
+   * Duplica la capacidad de la tabla.
+   */
+  @SuppressWarnings("unchecked")
+  private void crecer() {
+    int[] viejasLlaves = llaves;
+    Object[] viejosValores = valores;
+    llaves = new int[viejasLlaves.length << 1];
+    valores = new Object[viejosValores.length << 1];
+    limite = llaves.length * 3 / 4;
+    tamano = 0;
+    for(int i = 0; i < viejasLlaves.length; i++) {
+      if(viejosValores[i] != null) {
+        poner(viejasLlaves[i], (V) viejosValores[i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,450 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia.Modelo;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Indice invertido de texto sobre el nombre y la descripcion de las
+ * Mercaderias.
+ *
+ * Los textos se dividen en terminos sin acentos y en minusculas ("Rollizo
+ * 1.5 kg" da "rollizo", "1.5" y "kg"). Cada termino apunta a la lista
+ * ordenada de claves que lo contienen, y los terminos estan en un TreeMap por
+ * campo para encontrar por prefijo todos los que empiezan igual. Una consulta
+ * devuelve las claves que tienen todos sus terminos (como prefijo) en algun
+ * campo, ordenadas por puntaje: pesa mas el nombre que la descripcion y el
+ * termino completo que el prefijo. El indice se actualiza por Mercaderia, sin
+ * reconstruirse, y no es seguro para hilos por si mismo.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public class IndiceTexto {
+
+  /** Campo nombre. */
+  public static final int NOMBRE = 1;
+  /** Campo descripcion. */
+  public static final int DESCRIPCION = 2;
+  /** Ambos campos. */
+  public static final int TODOS = NOMBRE | DESCRIPCION;
+
+  private static final int[] PESO_EXACTO = {8, 2};
+  private static final int[] PESO_PREFIJO = {4, 1};
+  private static final Pattern MARCAS = Pattern.compile("\\p{M}+");
+  private static final Pattern SEPARADORES = Pattern.compile("[^\\p{L}\\p{N}.]+");
+  private static final String[] SIN_TERMINOS = new String[0];
+  /** Claves recorridas por cada resultado que cuesta verificar directamente. */
+  private static final int VERIFICACION = 8;
+
+  private final List<TreeMap<String, Claves>> campos;
+  private final IndiceEntero<String[][]> terminos;
+
+  /**
+   * Inicializa un indice vacio.
+   */
+  public IndiceTexto() {
+    campos = new ArrayList<>(2);
+    campos.add(new TreeMap<>());
+    campos.add(new TreeMap<>());
+    terminos = new IndiceEntero<>();
+  }
+
+  /**
+   * Numero de Mercaderias indexadas.
+   * @return Tamaño.
+   */
+  public int tamano() {
+    return terminos.tamano();
+  }
+
+  /**
+   * Indexa una Mercaderia, o reemplaza sus textos si ya estaba.
+   * @param clave Clave de la Mercaderia.
+   * @param nombre Nombre.
+   * @param descripcion Descripcion.
+   */
+  public void agregar(int clave, String nombre, String descripcion) {
+    quitar(clave);
+    String[][] propios = {terminos(nombre), terminos(descripcion)};
+    for(int campo = 0; campo < propios.length; campo++) {
+      TreeMap<String, Claves> mapa = campos.get(campo);
+      for(int i = 0; i < propios[campo].length; i++) {
+        Claves claves = mapa.get(propios[campo][i]);
+        if(claves == null) {
+          claves = new Claves();
+          mapa.put(propios[campo][i], claves);
+        }
+        claves.agregar(clave);
+      }
+    }
+    terminos.poner(clave, propios);
+  }
+
+  /**
+   * Quita una Mercaderia del indice.
+   * @param clave Clave de la Mercaderia.
+   */
+  public void quitar(int clave) {
+    String[][] propios = terminos.quitar(clave);
+    if(propios == null) {
+      return;
+    }
+    for(int campo = 0; campo < propios.length; campo++) {
+      TreeMap<String, Claves> mapa = campos.get(campo);
+      for (String termino : propios[campo]) {
+        Claves claves = mapa.get(termino);
+        if(claves != null && claves.quitar(clave) && claves.tamano == 0) {
+          mapa.remove(termino);
+        }
+      }
+    }
+  }
+
+  /**
+   * Busca las Mercaderias que contienen todos los terminos de una consulta.
+   * @param consulta Texto a buscar; cada palabra puede ser solo el inicio.
+   * @param campos Campos donde buscar ({@link #NOMBRE}, {@link #DESCRIPCION} o {@link #TODOS}).
+   * @param limite Maximo de resultados.
+   * @return Claves, de mayor a menor puntaje.
+   */
+  public int[] buscar(String consulta, int campos, int limite) {
+    String[] buscados = terminos(consulta);
+    long[] costos = new long[buscados.length];
+    for(int i = 0; i < buscados.length; i++) {
+      costos[i] = costo(buscados[i], campos);
+    }
+    // Primero el termino mas selectivo, para que los demas solo filtren.
+    Integer[] orden = new Integer[buscados.length];
+    for(int i = 0; i < orden.length; i++) {
+      orden[i] = i;
+    }
+    Arrays.sort(orden, (x, y) -> Long.compare(costos[x], costos[y]));
+    Puntajes total = null;
+    for (int i : orden) {
+      if(total != null && (long) total.tamano * VERIFICACION < costos[i]) {
+        total = verificar(total, buscados[i], campos);
+      } else {
+        total = recorrer(total, buscados[i], campos, costos[i]);
+      }
+      if(total.tamano == 0) {
+        break;
+      }
+    }
+    return total == null ? new int[0] : total.mejores(limite);
+  }
+
+  /**
+   * Claves que habria que recorrer para un termino.
+   */
+  private long costo(String buscado, int campos) {
+    long costo = 0;
+    for(int campo = 0; campo < this.campos.size(); campo++) {
+      if((campos & (1 << campo)) != 0) {
+        for (Claves claves : prefijo(campo, buscado).values()) {
+          costo += claves.tamano;
+        }
+      }
+    }
+    return costo;
+  }
+
+  /**
+   * Puntua un termino recorriendo sus listas de claves; si ya hay
+   * resultados, solo se conservan las claves que estan en ellos.
+   */
+  private Puntajes recorrer(Puntajes total, String buscado, int campos, long costo) {
+    int esperados = (int) Math.min(costo, total == null ? Integer.MAX_VALUE / 4 : total.tamano);
+    Puntajes termino = new Puntajes(esperados);
+    for(int campo = 0; campo < this.campos.size(); campo++) {
+      if((campos & (1 << campo)) == 0) {
+        continue;
+      }
+      Puntajes enCampo = new Puntajes(esperados);
+      for (Map.Entry<String, Claves> entrada : prefijo(campo, buscado).entrySet()) {
+        int peso = entrada.getKey().length() == buscado.length() ? PESO_EXACTO[campo] : PESO_PREFIJO[campo];
+        Claves claves = entrada.getValue();
+        for(int i = 0; i < claves.tamano; i++) {
+          if(total == null || total.obtener(claves.claves[i]) > 0) {
+            enCampo.maximo(claves.claves[i], peso);
+          }
+        }
+      }
+      termino.sumar(enCampo, null);
+    }
+    if(total != null) {
+      termino.sumar(null, total);
+    }
+    return termino;
+  }
+
+  /**
+   * Puntua un termino revisando los terminos propios de cada resultado, mas
+   * barato que recorrer listas largas cuando ya quedan pocos resultados.
+   */
+  private Puntajes verificar(Puntajes total, String buscado, int campos) {
+    Puntajes termino = new Puntajes(total.tamano);
+    for(int i = 0; i < total.claves.length; i++) {
+      if(total.puntos[i] == 0) {
+        continue;
+      }
+      String[][] propios = terminos.obtener(total.claves[i]);
+      int puntos = 0;
+      for(int campo = 0; campo < propios.length; campo++) {
+        if((campos & (1 << campo)) == 0) {
+          continue;
+        }
+        int mejor = 0;
+        for (String propio : propios[campo]) {
+          if(propio.equals(buscado)) {
+            mejor = PESO_EXACTO[campo];
+          } else if(mejor == 0 && propio.startsWith(buscado)) {
+            mejor = PESO_PREFIJO[campo];
+          }
+        }
+        puntos += mejor;
+      }
+      if(puntos > 0) {
+        termino.maximo(total.claves[i], puntos + total.puntos[i]);
+      }
+    }
+    return termino;
+  }
+
+  /**
+   * Terminos de un campo que empiezan con el texto dado.
+   */
+  private Map<String, Claves> prefijo(int campo, String buscado) {
+    return campos.get(campo).subMap(buscado, true, buscado + Character.MAX_VALUE, false);
+  }
+
+  /**
+   * Divide un texto en terminos sin acentos, en minusculas y sin repetir.
+   * @param texto Texto.
+   * @return Terminos.
+   */
+  public static String[] terminos(String texto) {
+    if(texto == null || texto.isEmpty()) {
+      return SIN_TERMINOS;
+    }
+    String normal = Normalizer.normalize(texto, Normalizer.Form.NFD);
+    normal = MARCAS.matcher(normal).replaceAll("").toLowerCase(Locale.ROOT);
+    List<String> lista = new ArrayList<>();
+    for (String parte : SEPARADORES.split(normal)) {
+      int inicio = 0;
+      int fin = parte.length();
+      // El punto solo cuenta dentro de un numero como 1.5.
+      while(inicio < fin && parte.charAt(inicio) == '.') {
+        inicio++;
+      }
+      while(fin > inicio && parte.charAt(fin - 1) == '.') {
+        fin--;
+      }
+      if(inicio < fin && !lista.contains(parte.substring(inicio, fin))) {
+        lista.add(parte.substring(inicio, fin));
+      }
+    }
+    return lista.toArray(SIN_TERMINOS);
+  }
+
+  /**
+   * Lista ordenada de claves de un termino.
+   */
+  private static final class Claves {
+    private int[] claves = new int[2];
+    private int tamano;
+
+    private void agregar(int clave) {
+      int i = Arrays.binarySearch(claves, 0, tamano, clave);
+      if(i >= 0) {
+        return;
+      }
+      i = -i - 1;
+      if(tamano == claves.length) {
+        claves = Arrays.copyOf(claves, tamano * 2);
+      }
+      System.arraycopy(claves, i, claves, i + 1, tamano - i);
+      claves[i] = clave;
+      tamano++;
+    }
+
+    private boolean quitar(int clave) {
+      int i = Arrays.binarySearch(claves, 0, tamano, clave);
+      if(i < 0) {
+        return false;
+      }
+      System.arraycopy(claves, i + 1, claves, i, tamano - i - 1);
+      tamano--;
+      return true;
+    }
+  }
+
+  /**
+   * Tabla de direccionamiento abierto clave a puntaje, sin objetos por
+   * entrada. Un puntaje de 0 significa ausente.
+   */
+  private static final class Puntajes {
+    private int[] claves;
+    private int[] puntos;
+    private int tamano;
+
+    private Puntajes(int esperados) {
+      int capacidad = 16;
+      while(capacidad / 2 < esperados) {
+        capacidad <<= 1;
+      }
+      claves = new int[capacidad];
+      puntos = new int[capacidad];
+    }
+
+    private int casilla(int clave) {
+      int mascara = claves.length - 1;
+      int h = clave * 0x9E3779B9;
+      int i = (h ^ (h >>> 16)) & mascara;
+      while(puntos[i] != 0 && claves[i] != clave) {
+        i = (i + 1) & mascara;
+      }
+      return i;
+    }
+
+    private int obtener(int clave) {
+      return puntos[casilla(clave)];
+    }
+
+    private void maximo(int clave, int puntaje) {
+      int i = casilla(clave);
+      if(puntos[i] == 0) {
+        claves[i] = clave;
+        puntos[i] = puntaje;
+        if(++tamano > claves.length / 2) {
+          crecer();
+        }
+      } else if(puntos[i] < puntaje) {
+        puntos[i] = puntaje;
+      }
+    }
+
+    /**
+     * Suma a este los puntajes de otro. Si se da un filtro, solo se
+     * conservan las claves que estan en el y se les suma su puntaje.
+     */
+    private void sumar(Puntajes otros, Puntajes filtro) {
+      if(otros != null) {
+        for(int i = 0; i < otros.claves.length; i++) {
+          if(otros.puntos[i] != 0) {
+            int j = casilla(otros.claves[i]);
+            if(puntos[j] == 0) {
+              claves[j] = otros.claves[i];
+              puntos[j] = otros.puntos[i];
+              if(++tamano > claves.length / 2) {
+                crecer();
+              }
+            } else {
+              puntos[j] += otros.puntos[i];
+            }
+          }
+        }
+      }
+      if(filtro != null) {
+        for(int i = 0; i < claves.length; i++) {
+          if(puntos[i] != 0) {
+            puntos[i] += filtro.obtener(claves[i]);
+          }
+        }
+      }
+    }
+
+    private void crecer() {
+      int[] viejasClaves = claves;
+      int[] viejosPuntos = puntos;
+      claves = new int[viejasClaves.length * 2];
+      puntos = new int[viejasClaves.length * 2];
+      for(int i = 0; i < viejasClaves.length; i++) {
+        if(viejosPuntos[i] != 0) {
+          int j = casilla(viejasClaves[i]);
+          claves[j] = viejasClaves[i];
+          puntos[j] = viejosPuntos[i];
+        }
+      }
+    }
+
+    /**
+     * Claves con mayor puntaje; a igual puntaje, la menor clave primero. Se
+     * conserva un monticulo de los mejores, sin ordenar todos los resultados.
+     */
+    private int[] mejores(int limite) {
+      int k = Math.min(limite, tamano);
+      long[] monticulo = new long[k];
+      int n = 0;
+      for(int i = 0; i < claves.length; i++) {
+        if(puntos[i] == 0) {
+          continue;
+        }
+        long orden = ((long) puntos[i] << 32) | (Integer.MAX_VALUE - (long) claves[i]);
+        if(n < k) {
+          monticulo[n] = orden;
+          subir(monticulo, n++);
+        } else if(k > 0 && orden > monticulo[0]) {
+          monticulo[0] = orden;
+          bajar(monticulo, k);
+        }
+      }
+      Arrays.sort(monticulo);
+      int[] resultado = new int[k];
+      for(int i = 0; i < k; i++) {
+        resultado[i] = (int) (Integer.MAX_VALUE - (monticulo[k - 1 - i] & 0xFFFFFFFFL));
+      }
+      return resultado;
+    }
+
+    private static void subir(long[] monticulo, int i) {
+      while(i > 0 && monticulo[(i - 1) / 2] > monticulo[i]) {
+        long temporal = monticulo[i];
+        monticulo[i] = monticulo[(i - 1) / 2];
+        monticulo[(i - 1) / 2] = temporal;
+        i = (i - 1) / 2;
+      }
+    }
+
+    private static void bajar(long[] monticulo, int tamano) {
+      int i = 0;
+      while(true) {
+        int menor = i;
+        if(2 * i + 1 < tamano && monticulo[2 * i + 1] < monticulo[menor]) {
+          menor = 2 * i + 1;
+        }
+        if(2 * i + 2 < tamano && monticulo[2 * i + 2] < monticulo[menor]) {
+          menor = 2 * i + 2;
+        }
+        if(menor == i) {
+          return;
+        }
+        long temporal = monticulo[i];
+        monticulo[i] = monticulo[menor];
+        monticulo[menor] = temporal;
+        i = menor;
+      }
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia.Modelo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Repositorio de Mercaderias con indice por clave.
+ *
+ * No depende de JavaFX ni es seguro para hilos por si mismo: quien lo comparta
+ * entre hilos (ver contingencia.ServicioInventario) debe coordinar el acceso.
+ * La clave de una Mercaderia no se puede editar, asi que las ediciones no
+ * afectan al indice.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public class Inventario implements Catalogo {
+
+  private final List<Mercaderia> mercaderias;
+  private final IndiceEntero<Mercaderia> indice;
+
+  /**
+   * Inicializa el inventario con las Mercaderias dadas.
+   * @param mercaderias Mercaderias iniciales.
+   */
+  public Inventario(Collection<Mercaderia> mercaderias) {
+    this.mercaderias = new ArrayList<>(mercaderias);
+    indice = new IndiceEntero<>(mercaderias.size());
+    for (Mercaderia mercaderia : mercaderias) {
+      indice.poner(mercaderia.getClave(), mercaderia);
+    }
+  }
+
+  /**
+   * Lista de solo lectura de las Mercaderias.
+   * @return Lista.
+   */
+  public List<Mercaderia> getMercaderias() {
+    return Collections.unmodifiableList(mercaderias);
+  }
+
+  /**
+   * Numero de Mercaderias.
+   * @return Tamaño.
+   */
+  public int tamano() {
+    return mercaderias.size();
+  }
+
+  /**
+   * Busca una Mercaderia por su clave.
+   * @param clave Clave de la Mercaderia.
+   * @return Mercaderia, o null si no existe.
+   */
+  @Override
+  public Mercaderia buscar(int clave) {
+    return indice.obtener(clave);
+  }
+
+  /**
+   * Comprueba si existe una Mercaderia.
+   * @param clave Clave de la Mercaderia.
+   * @return Verdadero si existe, falso en caso contrario.
+   */
+  public boolean existe(int clave) {
+    return indice.contiene(clave);
+  }
+
+  /**
+   * Agrega una Mercaderia si su clave no existe.
+   * @param mercaderia Mercaderia a agregar.
+   * @return Verdadero si se agrego, falso si la clave ya existia.
+   */
+  public boolean agregar(Mercaderia mercaderia) {
+    if(existe(mercaderia.getClave())) {
+      return false;
+    }
+    indice.poner(mercaderia.getClave(), mercaderia);
+    return mercaderias.add(mercaderia);
+  }
+
+  /**
+   * Vende un pedido completo en un solo paso. Cada linea se descuenta con un
+   * compare-and-set sobre las existencias disponibles (sumando las cantidades
+   * repetidas de una misma clave); si alguna no alcanza, las lineas ya
+   * descontadas se regresan, asi que nunca queda a medias ni se vende de mas.
+   * @param folio Folio del Remito.
+   * @param pedido Claves y cantidades a vender; el precio se toma del catalogo.
+   * @param iva IVA% de la venta.
+   * @return Remito de la venta.
+   * @throws IllegalArgumentException Si una clave no existe o una cantidad no es valida.
+   * @throws IllegalStateException Si no hay existencias suficientes.
+   */
+  public Remito vender(int folio, Renglones pedido, double iva) {
+    return new Remito(folio, vender(pedido), iva);
+  }
+
+  /**
+   * Vende un pedido completo sin crear el Remito, para que quien llama
+   * asigne el folio despues de descontar las existencias.
+   * @param pedido Claves y cantidades a vender; el precio se toma del catalogo.
+   * @return Renglones vendidos, con una linea por clave y precio de venta.
+   * @throws IllegalArgumentException Si una clave no existe o una cantidad no es valida.
+   * @throws IllegalStateException Si no hay existencias suficientes.
+   */
+  public Renglones vender(Renglones pedido) {
+    return vender(pedido, false);
+  }
+
+  /**
+   * Vende un pedido cuyas unidades ya se reservaron con
+   * {@link Mercaderia#reservar(int)}. Si alguna linea falla, las reservas
+   * quedan como estaban para que quien llama las libere.
+   * @param pedido Claves y cantidades reservadas.
+   * @return Renglones vendidos, con una linea por clave y precio de venta.
+   * @throws IllegalArgumentException Si una clave no existe o una cantidad no es valida.
+   * @throws IllegalStateException Si las unidades no estaban reservadas o ya no hay existencias.
+   */
+  public Renglones venderReservado(Renglones pedido) {
+    return vender(pedido, true);
+  }
+
+  private Renglones vender(Renglones pedido, boolean reservado) {
+    Renglones venta = new Renglones(pedido.tamano());
+    for(int i = 0; i < pedido.tamano(); i++) {
+      Mercaderia mercaderia = buscar(pedido.getClave(i));
+      if(mercaderia == null) {
+        throw new IllegalArgumentException("La mercaderia #" + pedido.getClave(i) + " no existe en el inventario.");
+      }
+      if(pedido.getCantidad(i) < 1) {
+        throw new IllegalArgumentException("Cantidad invalida para la mercaderia #" + pedido.getClave(i) + ".");
+      }
+      venta.agregar(mercaderia, pedido.getCantidad(i));
+    }
+    Mercaderia[] vendidas = new Mercaderia[venta.tamano()];
+    for(int i = 0; i < venta.tamano(); i++) {
+      vendidas[i] = buscar(venta.getClave(i));
+      boolean vendida = reservado ? vendidas[i].confirmar(venta.getCantidad(i)) : vendidas[i].venderMercaderia(venta.getCantidad(i));
+      if(!vendida) {
+        for(int j = i - 1; j >= 0; j--) {
+          if(reservado) {
+            vendidas[j].revertir(venta.getCantidad(j));
+          } else {
+            vendidas[j].devolverMercaderia(venta.getCantidad(j));
+          }
+        }
+        throw new IllegalStateException("La mercaderia " + vendidas[i].getNombre() + " no se encuentra en existencia.");
+      }
+    }
+    return venta;
+  }
+
+  /**
+   * Deshace una venta ya aplicada que no se pudo completar, devolviendo las
+   * existencias o, si era de unidades reservadas, las reservas.
+   * @param venta Renglones devueltos por {@link #vender(Renglones)} o
+   * {@link #venderReservado(Renglones)}.
+   * @param reservado Verdadero si la venta era de unidades reservadas.
+   */
+  public void deshacer(Renglones venta, boolean reservado) {
+    for(int i = venta.tamano() - 1; i >= 0; i--) {
+      Mercaderia mercaderia = buscar(venta.getClave(i));
+      if(reservado) {
+        mercaderia.revertir(venta.getCantidad(i));
+      } else {
+        mercaderia.devolverMercaderia(venta.getCantidad(i));
+      }
+    }
+  }
+
+  /**
+   * Elimina una Mercaderia del inventario.
+   * @param mercaderia Mercaderia a eliminar.
+   * @return Verdadero si se elimino, falso en caso contrario.
+   */
+  public boolean eliminar(Mercaderia mercaderia) {
+    if(indice.obtener(mercaderia.getClave()) != mercaderia) {
+      return false;
+    }
+    indice.quitar(mercaderia.getClave());
+    return mercaderias.remove(mercaderia);
+  }
+}
@@ -16,10 +16,17 @@
  */
 package contingencia.Modelo;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyStringProperty;
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleIntegerProperty;
 import javafx.beans.property.SimpleStringProperty;
@@ -27,28 +34,40 @@ import javafx.beans.property.SimpleStringProperty;
 /**
  * Clase Mercaderias
  * 
+ * Los datos son campos simples y las existencias un contador atomico
+ * ({@link Existencias}) que se puede vender y reservar desde varios hilos.
+ * Los precios se guardan en centavos ({@link Dinero}).
+ * Las propiedades de JavaFX solo sirven para mostrar la Mercaderia y se crean
+ * la primera vez que una tabla las pide, asi que un catalogo grande no carga
+ * con ellas. Una vez creadas se actualizan despues de cada cambio a traves
+ * del notificador, y varios cambios seguidos se juntan en una sola
+ * actualizacion.
+ * 
  * @author Carlos Olivo
  * @version 0.1
  */
 public class Mercaderia implements Externalizable {
   
-  private final SimpleIntegerProperty clave;
-  private final SimpleStringProperty nombre;
-  private final SimpleStringProperty descripcion;
-  private final SimpleDoubleProperty precioCompra;
-  private final SimpleIntegerProperty existencias;
-  private final SimpleStringProperty tipoUnidad;
+  /** Margen aplicado al precio de compra para obtener el precio de venta. */
+  public static final double MARGEN = 1.50;
+  
+  private static final int TASA_MARGEN = Dinero.tasa(MARGEN);
+  
+  private static volatile Executor notificador = Runnable::run;
+  
+  private int clave;
+  private volatile String nombre;
+  private volatile String descripcion;
+  private volatile long precioCompra;
+  private final Existencias existencias;
+  private volatile String tipoUnidad;
+  private volatile Propiedades propiedades;
   
   /**
    * Inicializa la clase Mercaderia.
    */
   public Mercaderia() {
-    clave = new SimpleIntegerProperty(0);
-    nombre = new SimpleStringProperty("Por definir");
-    descripcion = new SimpleStringProperty("Por definir");
-    precioCompra = new SimpleDoubleProperty(0);
-    existencias = new SimpleIntegerProperty(0);
-    tipoUnidad = new SimpleStringProperty("Por definir");
+    this(0, "Por definir", "Por definir", 0, 0, "Por definir");
   }
   
   /**
@@ -61,44 +80,51 @@ public class Mercaderia implements Externalizable {
    * @param tipoUnidad Unidad de medición del Mercaderia.
    */
   public Mercaderia(int clave, String nombre, String descripcion, double precioCompra, int existencias, String tipoUnidad) {
-    this.clave = new SimpleIntegerProperty(clave);
-    this.nombre = new SimpleStringProperty(nombre);
-    this.descripcion = new SimpleStringProperty(descripcion);
-    this.precioCompra = new SimpleDoubleProperty(precioCompra);
-    this.existencias = new SimpleIntegerProperty(existencias);
-    this.tipoUnidad = new SimpleStringProperty(tipoUnidad);
+    this.clave = clave;
+    this.nombre = nombre;
+    this.descripcion = descripcion;
+    this.precioCompra = Dinero.centavos(precioCompra);
+    this.existencias = new Existencias(existencias);
+    this.tipoUnidad = tipoUnidad;
   }
 
   public int getClave() {
-    return clave.get();
+    return clave;
   }
 
   private void setClave(int clave) {
-    this.clave.set(clave);
+    this.clave = clave;
   }
 
   public String getNombre() {
-    return nombre.get();
+    return nombre;
   }
 
   public void setNombre(String nombre) {
-    this.nombre.set(nombre);
+    this.nombre = nombre;
+    publicar();
   }
 
   public String getDescripcion() {
-    return descripcion.get();
+    return descripcion;
   }
 
   public void setDescripcion(String descripcion) {
-    this.descripcion.set(descripcion);
+    this.descripcion = descripcion;
+    publicar();
   }
 
   public double getPrecioCompra() {
-    return precioCompra.get();
+    return Dinero.pesos(precioCompra);
   }
 
   public void setPrecioCompra(double precioCompra) {
-    this.precioCompra.set(precioCompra);
+    this.precioCompra = Dinero.centavos(precioCompra);
+    publicar();
+  }
+
+  public long getPrecioCompraCentavos() {
+    return precioCompra;
   }
 
   public int getExistencias() {
@@ -106,15 +132,70 @@ public class Mercaderia implements Externalizable {
   }
 
   public void setExistencias(int existencias) {
-    this.existencias.set(existencias);
+    this.existencias.fijar(existencias);
+    publicar();
+  }
+
+  /**
+   * Unidades que aun se pueden vender o reservar.
+   * @return Disponibles.
+   */
+  public int getDisponibles() {
+    return existencias.disponibles();
   }
 
   public String getTipoUnidad() {
-    return tipoUnidad.get();
+    return tipoUnidad;
   }
 
   public void setTipoUnidad(String tipoUnidad) {
-    this.tipoUnidad.set(tipoUnidad);
+    this.tipoUnidad = tipoUnidad;
+    publicar();
+  }
+
+  /*
+   * Propiedades para mostrar la Mercaderia. Solo se deben pedir desde el
+   * hilo del notificador.
+   */
+
+  public ReadOnlyIntegerProperty claveProperty() {
+    return propiedades().clave;
+  }
+
+  public ReadOnlyStringProperty nombreProperty() {
+    return propiedades().nombre;
+  }
+
+  public ReadOnlyStringProperty descripcionProperty() {
+    return propiedades().descripcion;
+  }
+
+  public ReadOnlyDoubleProperty precioCompraProperty() {
+    return propiedades().precioCompra;
+  }
+
+  public ReadOnlyIntegerProperty existenciasProperty() {
+    return propiedades().existencias;
+  }
+
+  public ReadOnlyStringProperty tipoUnidadProperty() {
+    return propiedades().tipoUnidad;
+  }
+  
+  /**
+   * Precio de venta unitario: el precio de compra mas el margen.
+   * @return Precio truncado al centavo.
+   */
+  public double getPrecioVenta() {
+    return Dinero.pesos(getPrecioVentaCentavos());
+  }
+  
+  /**
+   * Precio de venta unitario en centavos.
+   * @return Centavos.
+   */
+  public long getPrecioVentaCentavos() {
+    return Dinero.aplicar(precioCompra, TASA_MARGEN);
   }
   
   /**
@@ -122,13 +203,153 @@ public class Mercaderia implements Externalizable {
    * @return Verdadero en caso exitoso, falso en caso contrario.
    */
   public boolean venderMercaderia() {
-    if(getExistencias() >= 1) {
-      setExistencias(getExistencias() - 1);
+    return venderMercaderia(1);
+  }
+  
+  /**
+   * Vende varias unidades de una Mercaderia en existencia.
+   * @param cantidad Unidades a vender.
+   * @return Verdadero en caso exitoso, falso en caso contrario.
+   */
+  public boolean venderMercaderia(int cantidad) {
+    if(cantidad >= 1 && existencias.tomar(cantidad)) {
+      publicar();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Regresa unidades vendidas con {@link #venderMercaderia(int)}.
+   * @param cantidad Unidades a regresar.
+   */
+  public void devolverMercaderia(int cantidad) {
+    existencias.devolver(cantidad);
+    publicar();
+  }
+
+  /**
+   * Aparta unidades para un Remito abierto.
+   * @param cantidad Unidades a reservar.
+   * @return Verdadero si se reservaron, falso si no hay suficientes.
+   */
+  public boolean reservar(int cantidad) {
+    return cantidad >= 1 && existencias.reservar(cantidad);
+  }
+
+  /**
+   * Libera unidades reservadas sin venderlas.
+   * @param cantidad Unidades a liberar.
+   */
+  public void liberar(int cantidad) {
+    existencias.liberar(cantidad);
+  }
+
+  /**
+   * Vende unidades reservadas con {@link #reservar(int)}.
+   * @param cantidad Unidades a vender.
+   * @return Verdadero en caso exitoso, falso en caso contrario.
+   */
+  public boolean confirmar(int cantidad) {
+    if(existencias.confirmar(cantidad)) {
+      publicar();
       return true;
     }
     return false;
   }
 
+  /**
+   * Deshace un {@link #confirmar(int)}.
+   */
+  void revertir(int cantidad) {
+    existencias.revertir(cantidad);
+    publicar();
+  }
+
+  /**
+   * Define el ejecutor que actualiza las propiedades (el hilo de JavaFX en la
+   * interfaz).
+   * @param notificador Ejecutor.
+   */
+  public static void setNotificador(Executor notificador) {
+    Mercaderia.notificador = notificador;
+  }
+
+  /**
+   * Crea las propiedades la primera vez que se piden.
+   */
+  private Propiedades propiedades() {
+    Propiedades actuales = propiedades;
+    if(actuales == null) {
+      actuales = new Propiedades();
+      actuales.copiar(this);
+      propiedades = actuales;
+      // Un cambio hecho mientras se creaban pudo no verlas todavia.
+      publicar();
+    }
+    return actuales;
+  }
+
+  /**
+   * Programa la actualizacion de las propiedades, si existen y no hay una ya
+   * pendiente.
+   */
+  private void publicar() {
+    Propiedades actuales = propiedades;
+    if(actuales != null && actuales.pendiente.compareAndSet(false, true)) {
+      notificador.execute(() -> {
+        actuales.pendiente.set(false);
+        actuales.copiar(this);
+      });
+    }
+  }
+
+  /**
+   * Propiedades de JavaFX de una Mercaderia mostrada.
+   */
+  private static final class Propiedades {
+    private final SimpleIntegerProperty clave = new SimpleIntegerProperty();
+    private final SimpleStringProperty nombre = new SimpleStringProperty();
+    private final SimpleStringProperty descripcion = new SimpleStringProperty();
+    private final SimpleDoubleProperty precioCompra = new SimpleDoubleProperty();
+    private final SimpleIntegerProperty existencias = new SimpleIntegerProperty();
+    private final SimpleStringProperty tipoUnidad = new SimpleStringProperty();
+    private final AtomicBoolean pendiente = new AtomicBoolean();
+
+    private void copiar(Mercaderia mercaderia) {
+      clave.set(mercaderia.getClave());
+      nombre.set(mercaderia.getNombre());
+      descripcion.set(mercaderia.getDescripcion());
+      precioCompra.set(mercaderia.getPrecioCompra());
+      existencias.set(mercaderia.getExistencias());
+      tipoUnidad.set(mercaderia.getTipoUnidad());
+    }
+  }
+
+  /**
+   * Escribe la Mercaderia en formato compacto.
+   * @param out Salida.
+   * @throws IOException Si ocurre un error de escritura.
+   */
+  public void escribir(DataOutput out) throws IOException {
+    out.writeInt(getClave());
+    out.writeUTF(getNombre());
+    out.writeUTF(getDescripcion());
+    out.writeDouble(getPrecioCompra());
+    out.writeInt(getExistencias());
+    out.writeUTF(getTipoUnidad());
+  }
+
+  /**
+   * Lee una Mercaderia escrita con {@link #escribir(DataOutput)}.
+   * @param in Entrada.
+   * @return Mercaderia leida.
+   * @throws IOException Si ocurre un error de lectura.
+   */
+  public static Mercaderia leer(DataInput in) throws IOException {
+    return new Mercaderia(in.readInt(), in.readUTF(), in.readUTF(), in.readDouble(), in.readInt(), in.readUTF());
+  }
+
   @Override
   public void writeExternal(ObjectOutput out) throws IOException {
     out.writeInt(getClave());
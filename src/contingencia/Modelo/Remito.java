@@ -16,131 +16,270 @@
  */
 package contingencia.Modelo;
 
-import static contingencia.Util.obtenerFechaActual;
-import static contingencia.Util.redondear;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
-import javafx.beans.property.SimpleDoubleProperty;
-import javafx.beans.property.SimpleIntegerProperty;
-import javafx.beans.property.SimpleStringProperty;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
 
 /**
  * Clase ventas.
  * 
+ * Un Remito no cambia despues de crearse y la tabla lee sus valores con los
+ * getters, asi que guarda campos simples en lugar de propiedades de JavaFX.
+ * 
  * @author Carlos Olivo
  * @version 0.1
  */
 public class Remito implements Externalizable {
   
-  private final SimpleIntegerProperty folio;
-  private final SimpleStringProperty fecha = new SimpleStringProperty(obtenerFechaActual());
-  private final SimpleStringProperty mercaderias;
-  private final SimpleIntegerProperty cantidad;
-  private final SimpleDoubleProperty subtotal;
-  private final SimpleDoubleProperty iva;
-  private final SimpleDoubleProperty total;
+  /** Formato de fecha de los remitos. */
+  public static final DateTimeFormatter FORMATO_FECHA = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+  /**
+   * Version del formato compacto de {@link #escribir(DataOutput)}: 1 guardaba
+   * la fecha como texto, 2 como dia, 3 agrega los renglones y 4 el nombre y
+   * la unidad de cada renglon.
+   */
+  public static final int FORMATO = 4;
+  
+  private static final int COMPACTO = -2;
+  /** Marca del formato 3, con renglones sin nombre ni unidad. */
+  private static final int COMPACTO_SIN_TEXTOS = -1;
+  
+  private int folio;
+  private int dia = (int) LocalDate.now().toEpochDay();
+  private String mercaderias;
+  private Renglones renglones;
+  private int cantidad;
+  private long subtotal;
+  private long iva;
+  private long total;
   
   /**
    * Inicializa la clase Venta.
    */
   public Remito() {
-    folio = new SimpleIntegerProperty(0);
-    mercaderias = new SimpleStringProperty("");
-    cantidad = new SimpleIntegerProperty(0);
-    subtotal = new SimpleDoubleProperty(0);
-    iva = new SimpleDoubleProperty(0);
-    total = new SimpleDoubleProperty(0);
+    mercaderias = "";
+    renglones = new Renglones(0);
   }
   
   /**
    * Constructor sobrecargado.
    * @param folio Folio de venta.
-   * @param mercaderias Lista de mercaderias.
-   * @param cantidad Cantidad de mercaderias.
-   * @param subtotal Subtotal de la venta.
+   * @param renglones Renglones vendidos; se copian.
+   * @param iva IVA% de la venta.
+   */
+  public Remito(int folio, Renglones renglones, double iva) {
+    this(folio, (int) LocalDate.now().toEpochDay(), renglones, iva);
+  }
+  
+  /**
+   * Constructor sobrecargado con fecha.
+   * @param folio Folio de venta.
+   * @param dia Fecha como dias desde el 01/01/1970.
+   * @param renglones Renglones vendidos; se copian.
    * @param iva IVA% de la venta.
    */
-  public Remito(int folio, String mercaderias, int cantidad, double subtotal, double iva) {
-    this.folio = new SimpleIntegerProperty(folio);
-    this.mercaderias = new SimpleStringProperty(mercaderias);
-    this.cantidad = new SimpleIntegerProperty(cantidad);
-    this.subtotal = new SimpleDoubleProperty(subtotal);
-    this.iva = new SimpleDoubleProperty(redondear(getSubtotal()*iva));
-    this.total = new SimpleDoubleProperty(redondear(getSubtotal()+getIVA()));
+  public Remito(int folio, int dia, Renglones renglones, double iva) {
+    this.folio = folio;
+    this.dia = dia;
+    this.mercaderias = "";
+    this.renglones = renglones.copia();
+    this.cantidad = renglones.unidades();
+    this.subtotal = renglones.subtotal();
+    this.iva = Dinero.aplicar(subtotal, Dinero.tasa(iva));
+    this.total = subtotal + this.iva;
   }
 
   public int getFolio() {
-    return folio.get();
+    return folio;
   }
 
   private void setFolio(int folio) {
-    this.folio.set(folio);
+    this.folio = folio;
   }
   
+  /**
+   * Fecha del Remito.
+   * @return Fecha en formato dd/MM/yyyy.
+   */
   public String getFecha() {
-    return fecha.get();
+    return LocalDate.ofEpochDay(dia).format(FORMATO_FECHA);
   }
 
   private void setFecha(String fecha) {
-    this.fecha.set(fecha);
+    setDia((int) LocalDate.parse(fecha, FORMATO_FECHA).toEpochDay());
   }
 
-  public String getMercaderias() {
-    return mercaderias.get();
+  /**
+   * Fecha del Remito como dias desde el 01/01/1970.
+   * @return Dia.
+   */
+  public int getDia() {
+    return dia;
+  }
+
+  private void setDia(int dia) {
+    this.dia = dia;
+  }
+
+  /**
+   * Texto de las mercaderias vendidas. Se arma a partir de los renglones
+   * cada vez que se pide, con el nombre y la unidad de la venta; los remitos
+   * anteriores a los renglones conservan el texto con el que se guardaron.
+   * @param catalogo Catalogo para obtener nombre y unidad de los renglones
+   * del formato 3, que no los guardaron.
+   * @return Texto de la nota.
+   */
+  public String getMercaderias(Catalogo catalogo) {
+    if(renglones.tamano() == 0) {
+      return mercaderias;
+    }
+    return renglones.detalle(catalogo);
   }
   
-  public void setMercaderias(String mercaderias) {
-    this.mercaderias.set(mercaderias);
+  private void setMercaderias(String mercaderias) {
+    this.mercaderias = mercaderias;
+  }
+
+  public Renglones getRenglones() {
+    return renglones;
   }
 
   public int getCantidad() {
-    return cantidad.get();
+    return cantidad;
   }
 
   public void setCantidad(int cantidad) {
-    this.cantidad.set(cantidad);
+    this.cantidad = cantidad;
   }
 
   public double getSubtotal() {
-    return subtotal.get();
+    return Dinero.pesos(subtotal);
   }
 
   public void setSubtotal(double subtotal) {
-    this.subtotal.set(subtotal);
+    this.subtotal = Dinero.centavos(subtotal);
+  }
+  
+  public long getSubtotalCentavos() {
+    return subtotal;
   }
   
   public double getIVA() {
-    return iva.get();
+    return Dinero.pesos(iva);
   }
 
   public void setIVA(double iva) {
-    this.iva.set(iva);
+    this.iva = Dinero.centavos(iva);
+  }
+  
+  public long getIVACentavos() {
+    return iva;
   }
   
   public double getTotal() {
-    return total.get();
+    return Dinero.pesos(total);
   }
 
   public void setTotal(double total) {
-    this.total.set(total);
+    this.total = Dinero.centavos(total);
+  }
+  
+  public long getTotalCentavos() {
+    return total;
   }
 
-  @Override
-  public void writeExternal(ObjectOutput out) throws IOException {
+  /**
+   * Escribe el Remito en formato compacto.
+   * @param out Salida.
+   * @throws IOException Si ocurre un error de escritura.
+   */
+  public void escribir(DataOutput out) throws IOException {
     out.writeInt(getFolio());
-    out.writeObject(getFecha());
-    out.writeObject(getMercaderias());
+    out.writeInt(getDia());
+    out.writeUTF(mercaderias);
+    renglones.escribir(out);
     out.writeInt(getCantidad());
     out.writeDouble(getSubtotal());
     out.writeDouble(getIVA());
     out.writeDouble(getTotal());
   }
 
+  /**
+   * Lee un Remito escrito con {@link #escribir(DataOutput)}.
+   * @param in Entrada.
+   * @return Remito leido.
+   * @throws IOException Si ocurre un error de lectura.
+   */
+  public static Remito leer(DataInput in) throws IOException {
+    return leer(in, FORMATO);
+  }
+
+  /**
+   * Lee un Remito escrito en una version anterior del formato compacto.
+   * @param in Entrada.
+   * @param formato Version del formato, de 1 a {@link #FORMATO}.
+   * @return Remito leido.
+   * @throws IOException Si ocurre un error de lectura o la version no existe.
+   */
+  public static Remito leer(DataInput in, int formato) throws IOException {
+    if(formato < 1 || formato > FORMATO) {
+      throw new IOException("Formato de remito desconocido: " + formato);
+    }
+    Remito remito = new Remito();
+    int folio = in.readInt();
+    if(formato >= 3) {
+      remito.leerCompacto(folio, in, formato == FORMATO);
+      return remito;
+    }
+    remito.setFolio(folio);
+    if(formato == 1) {
+      remito.setFecha(in.readUTF());
+    } else {
+      remito.setDia(in.readInt());
+    }
+    remito.setMercaderias(in.readUTF());
+    remito.setCantidad(in.readInt());
+    remito.setSubtotal(in.readDouble());
+    remito.setIVA(in.readDouble());
+    remito.setTotal(in.readDouble());
+    return remito;
+  }
+
+  private void leerCompacto(int folio, DataInput in, boolean textos) throws IOException {
+    setFolio(folio);
+    setDia(in.readInt());
+    setMercaderias(in.readUTF());
+    renglones = Renglones.leer(in, textos);
+    setCantidad(in.readInt());
+    setSubtotal(in.readDouble());
+    setIVA(in.readDouble());
+    setTotal(in.readDouble());
+  }
+
+  /**
+   * Usa el formato compacto precedido de una marca negativa, pues un folio
+   * nunca es negativo; asi se distingue del formato anterior sin renglones.
+   * La marca del formato 3 se sigue leyendo.
+   */
+  @Override
+  public void writeExternal(ObjectOutput out) throws IOException {
+    out.writeInt(COMPACTO);
+    escribir(out);
+  }
+
   @Override
   public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
-    setFolio(in.readInt());
+    int primero = in.readInt();
+    if(primero == COMPACTO || primero == COMPACTO_SIN_TEXTOS) {
+      leerCompacto(in.readInt(), in, primero == COMPACTO);
+      return;
+    }
+    setFolio(primero);
     setFecha((String) in.readObject());
     setMercaderias((String) in.readObject());
     setCantidad(in.readInt());
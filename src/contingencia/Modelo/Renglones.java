@@ -0,0 +1,353 @@
+/* 
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia.Modelo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Renglones de un Remito: clave, cantidad y precio unitario de cada
+ * Mercaderia vendida, guardados en arreglos primitivos paralelos. Los precios
+ * e importes son centavos exactos ({@link Dinero}).
+ * 
+ * Cada renglon guarda tambien el nombre y la unidad que tenia la Mercaderia
+ * al venderse, para que la nota no cambie si despues se renombra o se
+ * elimina. El texto de la nota se arma solo cuando se necesita mostrar, con
+ * {@link #detalle(Catalogo)}.
+ * 
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public class Renglones {
+  
+  /** Renglones hasta los que se buscan recorriendolos, sin indice. */
+  private static final int LINEAL = 8;
+  
+  private int[] claves;
+  private int[] cantidades;
+  private long[] precios;
+  private String[] nombres;
+  private String[] unidades;
+  /** Ultimo renglon de cada clave; se crea al pasar de {@link #LINEAL}. */
+  private IndiceEntero<Integer> porClave;
+  /** Renglon anterior con la misma clave, o -1. */
+  private int[] anteriores;
+  private int tamano;
+  
+  /**
+   * Inicializa la clase Renglones.
+   */
+  public Renglones() {
+    this(4);
+  }
+  
+  /**
+   * Constructor sobrecargado.
+   * @param capacidad Renglones esperados.
+   */
+  public Renglones(int capacidad) {
+    claves = new int[Math.max(capacidad, 1)];
+    cantidades = new int[claves.length];
+    precios = new long[claves.length];
+    nombres = new String[claves.length];
+    unidades = new String[claves.length];
+  }
+  
+  /**
+   * Agrega unidades de una Mercaderia. Si ya hay un renglon con la misma
+   * clave y precio, solo aumenta su cantidad.
+   * @param clave Clave de la Mercaderia.
+   * @param cantidad Unidades vendidas.
+   * @param precio Precio unitario.
+   */
+  public void agregar(int clave, int cantidad, double precio) {
+    agregarCentavos(clave, cantidad, Dinero.centavos(precio));
+  }
+  
+  /**
+   * Agrega unidades de una Mercaderia con el precio en centavos.
+   * @param clave Clave de la Mercaderia.
+   * @param cantidad Unidades vendidas.
+   * @param precio Precio unitario en centavos.
+   */
+  public void agregarCentavos(int clave, int cantidad, long precio) {
+    agregar(clave, null, null, cantidad, precio);
+  }
+  
+  /**
+   * Vende unidades de una Mercaderia a su precio de venta, guardando su
+   * nombre y unidad tal como estan en este momento.
+   * @param mercaderia Mercaderia vendida.
+   * @param cantidad Unidades vendidas.
+   */
+  public void agregar(Mercaderia mercaderia, int cantidad) {
+    agregar(mercaderia.getClave(), mercaderia.getNombre(), mercaderia.getTipoUnidad(), cantidad, mercaderia.getPrecioVentaCentavos());
+  }
+  
+  private void agregar(int clave, String nombre, String unidad, int cantidad, long precio) {
+    int renglon = buscar(clave, precio);
+    if(renglon >= 0) {
+      cantidades[renglon] += cantidad;
+      return;
+    }
+    if(tamano == claves.length) {
+      int capacidad = tamano * 2;
+      claves = Arrays.copyOf(claves, capacidad);
+      cantidades = Arrays.copyOf(cantidades, capacidad);
+      precios = Arrays.copyOf(precios, capacidad);
+      nombres = Arrays.copyOf(nombres, capacidad);
+      unidades = Arrays.copyOf(unidades, capacidad);
+      if(porClave != null) {
+        anteriores = Arrays.copyOf(anteriores, capacidad);
+      }
+    }
+    if(porClave != null) {
+      Integer anterior = porClave.poner(clave, tamano);
+      anteriores[tamano] = anterior == null ? -1 : anterior;
+    }
+    claves[tamano] = clave;
+    cantidades[tamano] = cantidad;
+    precios[tamano] = precio;
+    nombres[tamano] = nombre;
+    unidades[tamano] = unidad;
+    tamano++;
+  }
+  
+  /**
+   * Renglon con una clave y precio. Los pedidos chicos se recorren; los
+   * grandes usan un indice por clave para que armarlos no sea cuadratico.
+   */
+  private int buscar(int clave, long precio) {
+    if(porClave == null) {
+      if(tamano < LINEAL) {
+        for(int i = 0; i < tamano; i++) {
+          if(claves[i] == clave && precios[i] == precio) {
+            return i;
+          }
+        }
+        return -1;
+      }
+      porClave = new IndiceEntero<>(claves.length);
+      anteriores = new int[claves.length];
+      for(int i = 0; i < tamano; i++) {
+        Integer anterior = porClave.poner(claves[i], i);
+        anteriores[i] = anterior == null ? -1 : anterior;
+      }
+    }
+    Integer ultimo = porClave.obtener(clave);
+    for(int i = ultimo == null ? -1 : ultimo; i >= 0; i = anteriores[i]) {
+      if(precios[i] == precio) {
+        return i;
+      }
+    }
+    return -1;
+  }
+  
+  /**
+   * Elimina todos los renglones.
+   */
+  public void limpiar() {
+    tamano = 0;
+    porClave = null;
+    anteriores = null;
+  }
+  
+  /**
+   * Numero de renglones.
+   * @return Tamaño.
+   */
+  public int tamano() {
+    return tamano;
+  }
+  
+  public int getClave(int renglon) {
+    return claves[renglon];
+  }
+  
+  public int getCantidad(int renglon) {
+    return cantidades[renglon];
+  }
+  
+  public double getPrecio(int renglon) {
+    return Dinero.pesos(precios[renglon]);
+  }
+  
+  public long getPrecioCentavos(int renglon) {
+    return precios[renglon];
+  }
+  
+  /**
+   * Nombre de la Mercaderia al momento de la venta.
+   * @param renglon Renglon.
+   * @return Nombre, o null si el renglon no lo guardo.
+   */
+  public String getNombre(int renglon) {
+    return nombres[renglon];
+  }
+  
+  /**
+   * Unidad de la Mercaderia al momento de la venta.
+   * @param renglon Renglon.
+   * @return Unidad, o null si el renglon no la guardo.
+   */
+  public String getUnidad(int renglon) {
+    return unidades[renglon];
+  }
+  
+  /**
+   * Importe de un renglon (cantidad por precio unitario).
+   * @param renglon Renglon.
+   * @return Importe.
+   */
+  public double getImporte(int renglon) {
+    return Dinero.pesos(getImporteCentavos(renglon));
+  }
+  
+  /**
+   * Importe de un renglon en centavos.
+   * @param renglon Renglon.
+   * @return Centavos.
+   */
+  public long getImporteCentavos(int renglon) {
+    return cantidades[renglon] * precios[renglon];
+  }
+  
+  /**
+   * Suma de las unidades de todos los renglones.
+   * @return Unidades.
+   */
+  public int unidades() {
+    int unidades = 0;
+    for(int i = 0; i < tamano; i++) {
+      unidades += cantidades[i];
+    }
+    return unidades;
+  }
+  
+  /**
+   * Suma de las unidades de una clave.
+   * @param clave Clave de la Mercaderia.
+   * @return Unidades.
+   */
+  public int unidades(int clave) {
+    int unidades = 0;
+    for(int i = 0; i < tamano; i++) {
+      if(claves[i] == clave) {
+        unidades += cantidades[i];
+      }
+    }
+    return unidades;
+  }
+  
+  /**
+   * Suma de los importes de todos los renglones.
+   * @return Subtotal en centavos.
+   */
+  public long subtotal() {
+    long subtotal = 0;
+    for(int i = 0; i < tamano; i++) {
+      subtotal += getImporteCentavos(i);
+    }
+    return subtotal;
+  }
+  
+  /**
+   * Copia los renglones sin espacio sobrante.
+   * @return Copia.
+   */
+  public Renglones copia() {
+    Renglones copia = new Renglones(tamano);
+    System.arraycopy(claves, 0, copia.claves, 0, tamano);
+    System.arraycopy(cantidades, 0, copia.cantidades, 0, tamano);
+    System.arraycopy(precios, 0, copia.precios, 0, tamano);
+    System.arraycopy(nombres, 0, copia.nombres, 0, tamano);
+    System.arraycopy(unidades, 0, copia.unidades, 0, tamano);
+    copia.tamano = tamano;
+    return copia;
+  }
+  
+  /**
+   * Arma el texto de la nota, un renglon por linea.
+   * @param catalogo Catalogo para obtener nombre y unidad de los renglones que
+   * no los guardaron.
+   * @return Texto de los renglones.
+   */
+  public String detalle(Catalogo catalogo) {
+    StringBuilder sb = new StringBuilder(tamano * 32);
+    for(int i = 0; i < tamano; i++) {
+      if(nombres[i] != null) {
+        sb.append(nombres[i]).append(" | ").append(cantidades[i]).append(' ').append(unidades[i]);
+      } else {
+        Mercaderia mercaderia = catalogo == null ? null : catalogo.buscar(claves[i]);
+        if(mercaderia != null) {
+          sb.append(mercaderia.getNombre()).append(" | ").append(cantidades[i]).append(' ').append(mercaderia.getTipoUnidad());
+        } else {
+          sb.append('#').append(claves[i]).append(" | ").append(cantidades[i]);
+        }
+      }
+      sb.append(" | $").append(Dinero.texto(getImporteCentavos(i))).append('\n');
+    }
+    return sb.toString();
+  }
+  
+  /**
+   * Escribe los renglones en formato compacto. Un renglon sin nombre se
+   * escribe con nombre y unidad vacios.
+   * @param out Salida.
+   * @throws IOException Si ocurre un error de escritura.
+   */
+  public void escribir(DataOutput out) throws IOException {
+    out.writeInt(tamano);
+    for(int i = 0; i < tamano; i++) {
+      out.writeInt(claves[i]);
+      out.writeInt(cantidades[i]);
+      out.writeDouble(Dinero.pesos(precios[i]));
+      out.writeUTF(nombres[i] == null ? "" : nombres[i]);
+      out.writeUTF(nombres[i] == null || unidades[i] == null ? "" : unidades[i]);
+    }
+  }
+  
+  /**
+   * Lee renglones escritos con {@link #escribir(DataOutput)}, o sin nombre y
+   * unidad como en el formato 3 de {@link Remito}.
+   * @param in Entrada.
+   * @param textos Si cada renglon trae nombre y unidad.
+   * @return Renglones leidos.
+   * @throws IOException Si ocurre un error de lectura.
+   */
+  public static Renglones leer(DataInput in, boolean textos) throws IOException {
+    int tamano = in.readInt();
+    Renglones renglones = new Renglones(tamano);
+    for(int i = 0; i < tamano; i++) {
+      renglones.claves[i] = in.readInt();
+      renglones.cantidades[i] = in.readInt();
+      renglones.precios[i] = Dinero.centavos(in.readDouble());
+      if(textos) {
+        String nombre = in.readUTF();
+        String unidad = in.readUTF();
+        if(!nombre.isEmpty()) {
+          renglones.nombres[i] = nombre;
+          renglones.unidades[i] = unidad;
+        }
+      }
+    }
+    renglones.tamano = tamano;
+    return renglones;
+  }
+}
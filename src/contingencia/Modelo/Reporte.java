@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia.Modelo;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Resumen de ventas de un conjunto de Remitos: totales por dia y por mes,
+ * unidades e importe por Mercaderia.
+ *
+ * Se llena Remito por Remito y dos reportes parciales se pueden combinar, asi
+ * que cada parte del historial se puede resumir por separado. Los importes se
+ * suman en centavos enteros para que el resultado no dependa del orden en que
+ * se combinan las partes.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public class Reporte {
+
+  private final TreeMap<Integer, Periodo> dias;
+  private final IndiceEntero<long[]> productos;
+  private final Periodo total;
+  private Periodo ultimo;
+  private int ultimoDia;
+
+  /**
+   * Inicializa un reporte vacio.
+   */
+  public Reporte() {
+    dias = new TreeMap<>();
+    productos = new IndiceEntero<>();
+    total = new Periodo();
+  }
+
+  /**
+   * Agrega un Remito al reporte.
+   * @param remito Remito a agregar.
+   */
+  public void agregar(Remito remito) {
+    // El historial esta casi siempre en orden de dia.
+    if(ultimo == null || ultimoDia != remito.getDia()) {
+      ultimoDia = remito.getDia();
+      ultimo = dias.computeIfAbsent(ultimoDia, dia -> new Periodo());
+    }
+    ultimo.agregar(remito);
+    total.agregar(remito);
+    Renglones renglones = remito.getRenglones();
+    for(int i = 0; i < renglones.tamano(); i++) {
+      long[] producto = productos.obtener(renglones.getClave(i));
+      if(producto == null) {
+        producto = new long[2];
+        productos.poner(renglones.getClave(i), producto);
+      }
+      producto[0] += renglones.getCantidad(i);
+      producto[1] += renglones.getImporteCentavos(i);
+    }
+  }
+
+  /**
+   * Suma otro reporte a este.
+   * @param otro Reporte a sumar.
+   */
+  public void combinar(Reporte otro) {
+    for (Map.Entry<Integer, Periodo> dia : otro.dias.entrySet()) {
+      dias.computeIfAbsent(dia.getKey(), d -> new Periodo()).combinar(dia.getValue());
+    }
+    total.combinar(otro.total);
+    for (int clave : otro.productos.llaves()) {
+      long[] suyo = otro.productos.obtener(clave);
+      long[] producto = productos.obtener(clave);
+      if(producto == null) {
+        productos.poner(clave, suyo.clone());
+      } else {
+        producto[0] += suyo[0];
+        producto[1] += suyo[1];
+      }
+    }
+    ultimo = null;
+  }
+
+  /**
+   * Totales de todo el reporte.
+   * @return Periodo.
+   */
+  public Periodo getTotal() {
+    return total;
+  }
+
+  /**
+   * Totales por dia.
+   * @return Periodos por dias desde el 01/01/1970, en orden.
+   */
+  public SortedMap<Integer, Periodo> getDias() {
+    return Collections.unmodifiableSortedMap(dias);
+  }
+
+  /**
+   * Totales por mes, a partir de los totales por dia.
+   * @return Periodos por mes, en orden.
+   */
+  public SortedMap<YearMonth, Periodo> getMeses() {
+    TreeMap<YearMonth, Periodo> meses = new TreeMap<>();
+    for (Map.Entry<Integer, Periodo> dia : dias.entrySet()) {
+      YearMonth mes = YearMonth.from(LocalDate.ofEpochDay(dia.getKey()));
+      meses.computeIfAbsent(mes, m -> new Periodo()).combinar(dia.getValue());
+    }
+    return meses;
+  }
+
+  /**
+   * Claves de las Mercaderias con mas unidades vendidas.
+   * @param cuantas Maximo de claves.
+   * @return Claves, de la mas a la menos vendida.
+   */
+  public int[] masVendidas(int cuantas) {
+    int[] claves = productos.llaves();
+    long[] orden = new long[claves.length];
+    for(int i = 0; i < claves.length; i++) {
+      // Unidades en la parte alta; a igual venta gana la clave menor.
+      orden[i] = productos.obtener(claves[i])[0] << 32 | (Integer.MAX_VALUE - claves[i]) & 0xFFFFFFFFL;
+    }
+    Arrays.sort(orden);
+    int[] mejores = new int[Math.min(cuantas, orden.length)];
+    for(int i = 0; i < mejores.length; i++) {
+      mejores[i] = Integer.MAX_VALUE - (int) orden[orden.length - 1 - i];
+    }
+    return mejores;
+  }
+
+  /**
+   * Unidades vendidas de una Mercaderia.
+   * @param clave Clave de la Mercaderia.
+   * @return Unidades.
+   */
+  public long getUnidades(int clave) {
+    long[] producto = productos.obtener(clave);
+    return producto == null ? 0 : producto[0];
+  }
+
+  /**
+   * Importe vendido de una Mercaderia, sin IVA.
+   * @param clave Clave de la Mercaderia.
+   * @return Importe en centavos.
+   */
+  public long getImporteCentavos(int clave) {
+    long[] producto = productos.obtener(clave);
+    return producto == null ? 0 : producto[1];
+  }
+
+  /**
+   * Totales de un periodo.
+   */
+  public static class Periodo {
+
+    private long remitos;
+    private long unidades;
+    private long subtotal;
+    private long iva;
+    private long total;
+
+    private void agregar(Remito remito) {
+      remitos++;
+      unidades += remito.getCantidad();
+      subtotal += remito.getSubtotalCentavos();
+      iva += remito.getIVACentavos();
+      total += remito.getTotalCentavos();
+    }
+
+    private void combinar(Periodo otro) {
+      remitos += otro.remitos;
+      unidades += otro.unidades;
+      subtotal += otro.subtotal;
+      iva += otro.iva;
+      total += otro.total;
+    }
+
+    public long getRemitos() {
+      return remitos;
+    }
+
+    public long getUnidades() {
+      return unidades;
+    }
+
+    public long getSubtotalCentavos() {
+      return subtotal;
+    }
+
+    public long getIVACentavos() {
+      return iva;
+    }
+
+    public long getTotalCentavos() {
+      return total;
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia.Modelo;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Totales del inventario mantenidos con cada cambio, sin recorrer el
+ * catalogo: numero de Mercaderias, unidades en existencia y su valor a
+ * precio de compra y de venta.
+ *
+ * Los valores se acumulan en centavos enteros para que sumar y restar
+ * millones de veces no acumule error de redondeo. Se pueden actualizar desde
+ * varios hilos a la vez; quien cambia una Mercaderia debe quitar su aporte
+ * anterior y agregar el nuevo sin que otra operacion sobre ella se
+ * intercale.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public class Totales {
+
+  private final LongAdder mercaderias;
+  private final LongAdder unidades;
+  private final LongAdder costo;
+  private final LongAdder venta;
+
+  /**
+   * Inicializa los totales en cero.
+   */
+  public Totales() {
+    mercaderias = new LongAdder();
+    unidades = new LongAdder();
+    costo = new LongAdder();
+    venta = new LongAdder();
+  }
+
+  /**
+   * Suma el aporte de una Mercaderia.
+   * @param mercaderia Mercaderia.
+   */
+  public void agregar(Mercaderia mercaderia) {
+    mercaderias.increment();
+    existencias(mercaderia, mercaderia.getExistencias());
+  }
+
+  /**
+   * Resta el aporte de una Mercaderia.
+   * @param mercaderia Mercaderia.
+   */
+  public void quitar(Mercaderia mercaderia) {
+    mercaderias.decrement();
+    existencias(mercaderia, -mercaderia.getExistencias());
+  }
+
+  /**
+   * Suma (o resta, si es negativo) un cambio de existencias.
+   * @param mercaderia Mercaderia, con los precios vigentes.
+   * @param cambio Unidades agregadas o, si es negativo, vendidas.
+   */
+  public void existencias(Mercaderia mercaderia, int cambio) {
+    unidades.add(cambio);
+    costo.add(cambio * mercaderia.getPrecioCompraCentavos());
+    venta.add(cambio * mercaderia.getPrecioVentaCentavos());
+  }
+
+  public int getMercaderias() {
+    return mercaderias.intValue();
+  }
+
+  public long getUnidades() {
+    return unidades.sum();
+  }
+
+  /**
+   * Valor de las existencias a precio de compra.
+   * @return Valor en centavos.
+   */
+  public long getValorCostoCentavos() {
+    return costo.sum();
+  }
+
+  /**
+   * Valor de las existencias a precio de venta.
+   * @return Valor en centavos.
+   */
+  public long getValorVentaCentavos() {
+    return venta.sum();
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia.Modelo;
+
+/**
+ * Reglas de validacion de los datos de una Mercaderia, sin interfaz grafica.
+ *
+ * Trabaja sobre textos simples y regresa un resultado con el campo invalido y
+ * el motivo, en vez de mostrar alertas, asi que la usan tanto la captura
+ * manual como la importacion. Los numeros se interpretan sin excepciones ni
+ * objetos intermedios: un dato invalido cuesta lo mismo que uno valido.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public class Validacion {
+
+  /** Resultado de datos validos. */
+  public static final Validacion VALIDA = new Validacion(null, null);
+
+  /** Valor de {@link #entero(CharSequence)} para un texto invalido. */
+  public static final int ENTERO_INVALIDO = -1;
+
+  /**
+   * Campos de una Mercaderia.
+   */
+  public enum Campo {
+    CLAVE, NOMBRE, DESCRIPCION, PRECIO, EXISTENCIAS, UNIDAD
+  }
+
+  private static final Validacion CLAVE = new Validacion(Campo.CLAVE, "La clave debe ser un n\u00FAmero entero valido.");
+  private static final Validacion NOMBRE = new Validacion(Campo.NOMBRE, "Introduce un nombre.");
+  private static final Validacion DESCRIPCION = new Validacion(Campo.DESCRIPCION, "Introduce una descripci\u00F3n.");
+  private static final Validacion PRECIO = new Validacion(Campo.PRECIO, "El precio debe ser un n\u00FAmero valido.");
+  private static final Validacion EXISTENCIAS = new Validacion(Campo.EXISTENCIAS, "Las existencias deben ser un n\u00FAmero entero valido.");
+  private static final Validacion UNIDAD = new Validacion(Campo.UNIDAD, "Introduce un tipo de unidad.");
+
+  /** Potencias de 10 que un double representa exactamente. */
+  private static final double[] POTENCIAS = new double[23];
+
+  static {
+    POTENCIAS[0] = 1;
+    for(int i = 1; i < POTENCIAS.length; i++) {
+      POTENCIAS[i] = POTENCIAS[i - 1] * 10;
+    }
+  }
+
+  private final Campo campo;
+  private final String mensaje;
+
+  private Validacion(Campo campo, String mensaje) {
+    this.campo = campo;
+    this.mensaje = mensaje;
+  }
+
+  public boolean esValida() {
+    return campo == null;
+  }
+
+  /**
+   * Campo invalido.
+   * @return Campo, o null si los datos son validos.
+   */
+  public Campo getCampo() {
+    return campo;
+  }
+
+  /**
+   * Motivo por el que el campo es invalido.
+   * @return Mensaje, o null si los datos son validos.
+   */
+  public String getMensaje() {
+    return mensaje;
+  }
+
+  /**
+   * Valida los datos de una Mercaderia, campo por campo y en orden.
+   * @param clave Clave, entero no negativo.
+   * @param nombre Nombre, no vacio.
+   * @param descripcion Descripcion, no vacia.
+   * @param precio Precio, numero decimal no negativo.
+   * @param existencias Existencias, entero no negativo.
+   * @param unidad Tipo de unidad, no vacio.
+   * @return El primer campo invalido, o {@link #VALIDA}.
+   */
+  public static Validacion mercaderia(CharSequence clave, CharSequence nombre, CharSequence descripcion,
+      CharSequence precio, CharSequence existencias, CharSequence unidad) {
+    if(entero(clave) == ENTERO_INVALIDO) {
+      return CLAVE;
+    }
+    if(nombre.length() == 0) {
+      return NOMBRE;
+    }
+    if(descripcion.length() == 0) {
+      return DESCRIPCION;
+    }
+    if(Double.isNaN(decimal(precio))) {
+      return PRECIO;
+    }
+    if(entero(existencias) == ENTERO_INVALIDO) {
+      return EXISTENCIAS;
+    }
+    if(unidad.length() == 0) {
+      return UNIDAD;
+    }
+    return VALIDA;
+  }
+
+  /**
+   * Interpreta un entero no negativo: solo digitos, con un '+' opcional, que
+   * quepa en un int.
+   * @param texto Texto a interpretar.
+   * @return Valor, o {@link #ENTERO_INVALIDO} si no es valido.
+   */
+  public static int entero(CharSequence texto) {
+    int longitud = texto.length();
+    int i = longitud > 0 && texto.charAt(0) == '+' ? 1 : 0;
+    if(i == longitud) {
+      return ENTERO_INVALIDO;
+    }
+    long valor = 0;
+    for(; i < longitud; i++) {
+      int digito = texto.charAt(i) - '0';
+      if(digito < 0 || digito > 9) {
+        return ENTERO_INVALIDO;
+      }
+      valor = valor * 10 + digito;
+      if(valor > Integer.MAX_VALUE) {
+        return ENTERO_INVALIDO;
+      }
+    }
+    return (int) valor;
+  }
+
+  /**
+   * Interpreta un decimal no negativo: digitos con punto decimal opcional
+   * (como "12", "12.5" o ".5"), con un '+' opcional. El resultado es el mismo
+   * que el de Double.parseDouble.
+   * @param texto Texto a interpretar.
+   * @return Valor, o NaN si no es valido.
+   */
+  public static double decimal(CharSequence texto) {
+    int longitud = texto.length();
+    int i = longitud > 0 && texto.charAt(0) == '+' ? 1 : 0;
+    long mantisa = 0;
+    int cifras = 0;
+    int decimales = 0;
+    boolean punto = false;
+    boolean digitos = false;
+    boolean exacto = true;
+    for(; i < longitud; i++) {
+      char c = texto.charAt(i);
+      if(c == '.' && !punto) {
+        punto = true;
+        continue;
+      }
+      if(c < '0' || c > '9') {
+        return Double.NaN;
+      }
+      digitos = true;
+      if(cifras > 0 || c != '0') {
+        cifras++;
+      }
+      if(cifras > 18) {
+        exacto = false;
+      } else {
+        mantisa = mantisa * 10 + (c - '0');
+        if(punto) {
+          decimales++;
+        }
+      }
+    }
+    if(!digitos) {
+      return Double.NaN;
+    }
+    // Un cociente de dos doubles exactos queda bien redondeado.
+    if(exacto && mantisa < (1L << 53) && decimales < POTENCIAS.length) {
+      return mantisa / POTENCIAS[decimales];
+    }
+    return Double.parseDouble(texto.toString());
+  }
+}
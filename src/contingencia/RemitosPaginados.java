@@ -0,0 +1,448 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia;
+
+import contingencia.Modelo.Remito;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.collections.ObservableListBase;
+import javafx.collections.WeakListChangeListener;
+
+/**
+ * Lista observable de Remitos que se carga por paginas desde disco.
+ *
+ * La tabla solo pide los Remitos visibles, asi que solo esas paginas se leen
+ * del {@link AlmacenRemitos}; las paginas vecinas se precargan en segundo plano
+ * y solo se conservan las {@link #MAX_PAGINAS} usadas mas recientemente. Los
+ * Remitos nuevos quedan pendientes en memoria hasta {@link #guardar()}.
+ *
+ * {@link #get(int)} nunca lee del disco en el hilo que la llama: si la pagina
+ * no esta en memoria la pide en segundo plano y devuelve null, y cuando llega
+ * anuncia sus posiciones como reemplazadas para que la tabla las vuelva a
+ * pedir. Para recorrer el historial se usa {@link #leer(int, int)}.
+ *
+ * Se pueden agregar Remitos desde cualquier hilo. Los eventos de cambio, y el
+ * tamaño que ve la tabla, se actualizan a traves del notificador (el hilo de
+ * JavaFX en la interfaz), asi que la tabla nunca ve una posicion que aun no
+ * se le ha anunciado.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public class RemitosPaginados extends ObservableListBase<Remito> {
+
+  /** Remitos por pagina. */
+  public static final int PAGINA = 100;
+  /** Paginas conservadas en memoria. */
+  public static final int MAX_PAGINAS = 16;
+
+  private final AlmacenRemitos almacen;
+  private final List<Remito> pendientes;
+  private final Map<Integer, Remito[]> paginas;
+  private final Set<Integer> cargando;
+  private final ExecutorService precarga;
+  private final Executor notificador;
+  private int guardados;
+  private volatile int visibles;
+
+  /**
+   * Inicializa la lista sobre un almacen.
+   * @param almacen Almacen de Remitos.
+   * @param notificador Ejecutor de los eventos de cambio.
+   */
+  public RemitosPaginados(AlmacenRemitos almacen, Executor notificador) {
+    this.almacen = almacen;
+    this.notificador = notificador;
+    guardados = almacen.tamano();
+    visibles = guardados;
+    pendientes = new ArrayList<>();
+    paginas = new LinkedHashMap<Integer, Remito[]>(MAX_PAGINAS, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, Remito[]> eldest) {
+        return size() > MAX_PAGINAS;
+      }
+    };
+    cargando = new HashSet<>();
+    precarga = Executors.newSingleThreadExecutor((Runnable r) -> {
+      Thread hilo = new Thread(r, "Precarga de remitos");
+      hilo.setDaemon(true);
+      return hilo;
+    });
+  }
+
+  /**
+   * Remito en una posicion, sin esperar al disco.
+   * @param index Posicion.
+   * @return Remito, o null si su pagina aun se esta leyendo.
+   */
+  @Override
+  public Remito get(int index) {
+    synchronized(this) {
+      if(index >= guardados) {
+        return pendientes.get(index - guardados);
+      }
+    }
+    int pagina = index / PAGINA;
+    Remito[] remitos;
+    synchronized(paginas) {
+      remitos = paginas.get(pagina);
+    }
+    precargar(pagina);
+    precargar(pagina - 1);
+    precargar(pagina + 1);
+    int posicion = index - pagina * PAGINA;
+    return remitos == null || posicion >= remitos.length ? null : remitos[posicion];
+  }
+
+  @Override
+  public int size() {
+    return visibles;
+  }
+
+  @Override
+  public boolean add(Remito remito) {
+    synchronized(this) {
+      pendientes.add(remito);
+    }
+    notificador.execute(() -> {
+      int posicion;
+      synchronized(this) {
+        posicion = visibles++;
+      }
+      beginChange();
+      nextAdd(posicion, posicion + 1);
+      endChange();
+    });
+    return true;
+  }
+
+  @Override
+  public void add(int index, Remito remito) {
+    if(index != size()) {
+      throw new UnsupportedOperationException("Los remitos solo se agregan al final.");
+    }
+    add(remito);
+  }
+
+  /**
+   * Numero total de Remitos, guardados y pendientes, incluso los que aun no
+   * se han anunciado a la tabla.
+   * @return Tamaño.
+   */
+  public synchronized int total() {
+    return guardados + pendientes.size();
+  }
+
+  /**
+   * Comprueba si hay Remitos sin guardar.
+   * @return Verdadero si hay pendientes, falso en caso contrario.
+   */
+  public synchronized boolean hayPendientes() {
+    return !pendientes.isEmpty();
+  }
+
+  /**
+   * Folio del ultimo Remito, guardado o pendiente.
+   * @return Folio, o 0 si no hay Remitos.
+   */
+  public synchronized int ultimoFolio() {
+    if(!pendientes.isEmpty()) {
+      return pendientes.get(pendientes.size() - 1).getFolio();
+    }
+    return guardados == 0 ? 0 : almacen.folio(guardados - 1);
+  }
+
+  /**
+   * Comprueba si ya existe un folio, guardado o pendiente.
+   * @param folio Folio a buscar.
+   * @return Verdadero si existe, falso en caso contrario.
+   */
+  public synchronized boolean contieneFolio(int folio) {
+    for (Remito remito : pendientes) {
+      if(remito.getFolio() == folio) {
+        return true;
+      }
+    }
+    return almacen.buscar(folio) >= 0;
+  }
+
+  /**
+   * Busca un Remito por su folio, guardado o pendiente. Un Remito guardado se
+   * lee directo del almacen, sin pasar por las paginas en memoria.
+   * @param folio Folio a buscar.
+   * @return Remito, o null si no existe.
+   * @throws IOException Si ocurre un error de lectura.
+   */
+  public Remito buscarFolio(int folio) throws IOException {
+    int posicion;
+    synchronized(this) {
+      for (Remito remito : pendientes) {
+        if(remito.getFolio() == folio) {
+          return remito;
+        }
+      }
+      posicion = almacen.buscar(folio);
+    }
+    return posicion < 0 ? null : almacen.leer(posicion, posicion + 1)[0];
+  }
+
+  /**
+   * Comprueba si los Remitos, guardados y pendientes, estan en orden de dia.
+   * @return Verdadero si estan ordenados, falso en caso contrario.
+   */
+  public synchronized boolean ordenadoPorDia() {
+    if(!almacen.ordenadoPorDia()) {
+      return false;
+    }
+    int anterior = guardados == 0 ? Integer.MIN_VALUE : almacen.dia(guardados - 1);
+    for (Remito remito : pendientes) {
+      if(remito.getDia() < anterior) {
+        return false;
+      }
+      anterior = remito.getDia();
+    }
+    return true;
+  }
+
+  /**
+   * Busca la primera posicion con un dia mayor o igual al dado. Solo es
+   * valido si {@link #ordenadoPorDia()}.
+   * @param dia Dias desde el 01/01/1970.
+   * @return Posicion, o {@link #total()} si todos son anteriores.
+   */
+  public synchronized int inicioDia(int dia) {
+    int posicion = almacen.inicioDia(dia);
+    if(posicion < guardados) {
+      return posicion;
+    }
+    while(posicion - guardados < pendientes.size() && pendientes.get(posicion - guardados).getDia() < dia) {
+      posicion++;
+    }
+    return posicion;
+  }
+
+  /**
+   * Busca la primera posicion con un folio mayor o igual al dado.
+   * @param folio Folio.
+   * @return Posicion, o {@link #total()} si todos son menores.
+   */
+  public synchronized int inicioFolio(int folio) {
+    int posicion = almacen.inicioFolio(folio);
+    if(posicion < guardados) {
+      return posicion;
+    }
+    while(posicion - guardados < pendientes.size() && pendientes.get(posicion - guardados).getFolio() < folio) {
+      posicion++;
+    }
+    return posicion;
+  }
+
+  /**
+   * Vista de un rango de posiciones, tambien paginada. Si el rango queda
+   * invertido, como cuando {@link #inicioDia(int)} ya cuenta Remitos que aun
+   * no se anuncian en {@link #size()}, la vista queda vacia.
+   * @param desde Primera posicion (inclusive).
+   * @param hasta Ultima posicion (exclusiva).
+   * @return Lista con los Remitos del rango.
+   */
+  public ObservableList<Remito> rango(int desde, int hasta) {
+    return new Rango(desde, Math.max(desde, hasta));
+  }
+
+  /**
+   * Lee un rango de posiciones directo del almacen, sin pasar por las
+   * paginas en memoria, para recorrer el historial sin desplazar las paginas
+   * que usa la tabla. Se puede llamar desde varios hilos a la vez.
+   * @param desde Primera posicion (inclusive).
+   * @param hasta Ultima posicion (exclusiva), a lo mas {@link #total()}.
+   * @return Remitos leidos.
+   * @throws IOException Si ocurre un error de lectura.
+   */
+  public Remito[] leer(int desde, int hasta) throws IOException {
+    int guardadosAhora;
+    Remito[] remitos = new Remito[hasta - desde];
+    synchronized(this) {
+      guardadosAhora = guardados;
+      for(int i = Math.max(desde, guardados); i < hasta; i++) {
+        remitos[i - desde] = pendientes.get(i - guardados);
+      }
+    }
+    if(desde < guardadosAhora) {
+      Remito[] leidos = almacen.leer(desde, Math.min(hasta, guardadosAhora));
+      System.arraycopy(leidos, 0, remitos, 0, leidos.length);
+    }
+    return remitos;
+  }
+
+  /**
+   * Escribe los Remitos pendientes al almacen. La escritura se hace fuera del
+   * candado; los Remitos solo dejan de estar pendientes una vez guardados,
+   * asi que mientras tanto se siguen leyendo de memoria.
+   * @throws IOException Si ocurre un error de escritura.
+   */
+  public void guardar() throws IOException {
+    List<Remito> lote;
+    synchronized(this) {
+      lote = new ArrayList<>(pendientes);
+    }
+    almacen.agregar(lote);
+    synchronized(this) {
+      pendientes.subList(0, lote.size()).clear();
+      guardados += lote.size();
+    }
+  }
+
+  /**
+   * Pasa al archivo comprimido los Remitos guardados anteriores a un dia
+   * (ver {@link AlmacenRemitos#archivar(int)}). Las posiciones no cambian,
+   * asi que las paginas en memoria siguen siendo validas.
+   * @param dia Dias desde el 01/01/1970.
+   * @return Remitos archivados.
+   * @throws IOException Si ocurre un error de lectura o escritura.
+   */
+  public int archivar(int dia) throws IOException {
+    return almacen.archivar(dia);
+  }
+
+  /**
+   * Detiene la precarga y cierra el almacen.
+   * @throws IOException Si ocurre un error al cerrar.
+   */
+  public void cerrar() throws IOException {
+    precarga.shutdownNow();
+    almacen.cerrar();
+  }
+
+  /**
+   * Lee una pagina en segundo plano si no esta en memoria, o si esta
+   * incompleta, y no se esta leyendo ya.
+   */
+  private void precargar(int pagina) {
+    int desde = pagina * PAGINA;
+    int hasta;
+    synchronized(this) {
+      if(pagina < 0 || desde >= guardados) {
+        return;
+      }
+      hasta = Math.min(desde + PAGINA, guardados);
+    }
+    synchronized(paginas) {
+      Remito[] remitos = paginas.get(pagina);
+      // La ultima pagina pudo leerse incompleta antes de guardar mas remitos.
+      if((remitos != null && remitos.length >= hasta - desde) || !cargando.add(pagina)) {
+        return;
+      }
+    }
+    try {
+      precarga.execute(() -> {
+        try {
+          Remito[] leidos = almacen.leer(desde, hasta);
+          synchronized(paginas) {
+            paginas.put(pagina, leidos);
+          }
+          notificador.execute(() -> anunciar(desde, hasta));
+        } catch(IOException e) {
+          System.err.println("ERROR: " + e.getLocalizedMessage());
+        } finally {
+          synchronized(paginas) {
+            cargando.remove(pagina);
+          }
+        }
+      });
+    } catch(RejectedExecutionException e) {
+      synchronized(paginas) {
+        cargando.remove(pagina);
+      }
+    }
+  }
+
+  /**
+   * Anuncia como reemplazadas las posiciones de una pagina recien leida, para
+   * que la tabla cambie los null que recibio por los Remitos.
+   */
+  private void anunciar(int desde, int hasta) {
+    int fin = Math.min(hasta, visibles);
+    if(desde >= fin) {
+      return;
+    }
+    beginChange();
+    for(int i = desde; i < fin; i++) {
+      nextSet(i, null);
+    }
+    endChange();
+  }
+
+  /**
+   * Vista de un rango de posiciones que reenvia los reemplazos de las
+   * paginas que caen dentro de el.
+   */
+  private class Rango extends ObservableListBase<Remito> {
+
+    private final int desde;
+    private final int hasta;
+    private final ListChangeListener<Remito> reemplazos;
+
+    Rango(int desde, int hasta) {
+      this.desde = desde;
+      this.hasta = hasta;
+      reemplazos = (ListChangeListener.Change<? extends Remito> cambio) -> {
+        boolean iniciado = false;
+        while(cambio.next()) {
+          if(!cambio.wasReplaced()) {
+            continue;
+          }
+          for(int i = Math.max(cambio.getFrom(), desde); i < Math.min(cambio.getTo(), hasta); i++) {
+            if(!iniciado) {
+              beginChange();
+              iniciado = true;
+            }
+            nextSet(i - desde, null);
+          }
+        }
+        if(iniciado) {
+          endChange();
+        }
+      };
+      // La vista solo vive mientras la tabla la use.
+      RemitosPaginados.this.addListener(new WeakListChangeListener<>(reemplazos));
+    }
+
+    @Override
+    public Remito get(int index) {
+      if(index < 0 || index >= size()) {
+        throw new IndexOutOfBoundsException(Integer.toString(index));
+      }
+      return RemitosPaginados.this.get(desde + index);
+    }
+
+    @Override
+    public int size() {
+      return hasta - desde;
+    }
+  }
+}
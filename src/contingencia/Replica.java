@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia;
+
+import contingencia.Modelo.IndiceEntero;
+import contingencia.Modelo.Mercaderia;
+import contingencia.Modelo.Remito;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Replica de la {@link Replicacion}: recibe los cambios del primario y los
+ * aplica al inventario local, que queda de solo lectura.
+ *
+ * Los cambios pasan por el {@link ServicioInventario} como si fueran
+ * locales, asi que la interfaz los ve llegar y la replica los guarda en su
+ * propia bitacora y almacenes; al reiniciar solo pide los Remitos que le
+ * faltan. Si la conexion se pierde, se reintenta cada {@link #REINTENTO} ms.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public class Replica {
+
+  /** Milisegundos entre intentos de conexion. */
+  public static final int REINTENTO = 1000;
+
+  private final ServicioInventario servicio;
+  private final InetSocketAddress primario;
+  private final Thread hilo;
+  private volatile boolean activa;
+  private volatile Socket conexion;
+  private volatile boolean sincronizada;
+
+  /**
+   * Prepara la replica y marca el inventario como de solo lectura.
+   * @param servicio Inventario local.
+   * @param servidor Servidor del primario.
+   * @param puerto Puerto del primario.
+   */
+  public Replica(ServicioInventario servicio, String servidor, int puerto) {
+    this.servicio = servicio;
+    primario = new InetSocketAddress(servidor, puerto);
+    servicio.setSoloLectura(true);
+    hilo = new Thread(this::replicar, "Replica");
+    hilo.setDaemon(true);
+  }
+
+  /**
+   * Empieza a recibir cambios.
+   */
+  public void iniciar() {
+    activa = true;
+    hilo.start();
+  }
+
+  /**
+   * Comprueba si la replica ya recibio la foto del primario y esta
+   * conectada.
+   * @return Verdadero si esta al dia, falso en caso contrario.
+   */
+  public boolean isSincronizada() {
+    return sincronizada;
+  }
+
+  /**
+   * Se desconecta y espera a que termine el cambio en curso.
+   */
+  public void detener() {
+    activa = false;
+    Socket actual = conexion;
+    if(actual != null) {
+      try {
+        actual.close();
+      } catch(IOException e) {
+        System.err.println("ERROR: " + e.getLocalizedMessage());
+      }
+    }
+    hilo.interrupt();
+    try {
+      hilo.join(REINTENTO);
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void replicar() {
+    Bitacora.Cambios cambios = servicio.replicacion();
+    while(activa) {
+      try(Socket socket = new Socket()) {
+        conexion = socket;
+        socket.connect(primario, REINTENTO);
+        socket.setTcpNoDelay(true);
+        socket.setKeepAlive(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), Replicacion.MAX_TRAMA));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeInt(Replicacion.MAGIA);
+        out.writeInt(Replicacion.VERSION);
+        out.writeInt(servicio.getRemitos().ultimoFolio());
+        out.flush();
+        recibir(new Replicacion(in, out), cambios);
+      } catch(IOException e) {
+        if(activa) {
+          System.err.println("ERROR: Replica de " + primario + ": " + e.getLocalizedMessage());
+        }
+      } finally {
+        sincronizada = false;
+        conexion = null;
+      }
+      try {
+        Thread.sleep(REINTENTO);
+      } catch(InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Aplica las tramas hasta que se cierra la conexion. Al cerrar la foto se
+   * eliminan las Mercaderias locales que ya no existen en el primario.
+   */
+  private void recibir(Replicacion tramas, Bitacora.Cambios cambios) throws IOException {
+    try {
+      IndiceEntero<Boolean> vistas = new IndiceEntero<>();
+      Bitacora.Cambios foto = new Bitacora.Cambios() {
+        @Override
+        public void alta(Mercaderia mercaderia) {
+          vistas.poner(mercaderia.getClave(), Boolean.TRUE);
+          cambios.alta(mercaderia);
+        }
+
+        @Override
+        public void baja(int clave) {
+          cambios.baja(clave);
+        }
+
+        @Override
+        public void venta(Remito remito, int[] claves, int[] existencias) {
+          cambios.venta(remito, claves, existencias);
+        }
+      };
+      while(activa) {
+        Replicacion.Trama trama = tramas.recibir();
+        switch(trama.getTipo()) {
+          case Replicacion.FOTO:
+            Bitacora.leer(trama.getDatos(), foto);
+            break;
+          case Replicacion.FIN_FOTO:
+            for (Mercaderia mercaderia : servicio.getMercaderias()) {
+              if(!vistas.contiene(mercaderia.getClave())) {
+                cambios.baja(mercaderia.getClave());
+              }
+            }
+            vistas.limpiar();
+            sincronizada = true;
+            break;
+          case Replicacion.CAMBIOS:
+            Bitacora.leer(trama.getDatos(), cambios);
+            break;
+          default:
+            throw new IOException("Trama de replicacion desconocida.");
+        }
+      }
+    } finally {
+      tramas.cerrar();
+    }
+  }
+}
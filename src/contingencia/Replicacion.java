@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia;
+
+import contingencia.Modelo.Validacion;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Replicacion del inventario entre terminales.
+ *
+ * Una terminal es el primario ({@link Replicador}) y las demas replicas de
+ * solo lectura ({@link Replica}) que reciben sus cambios por TCP. Al
+ * conectarse, la replica envia el ultimo folio que tiene y recibe una foto
+ * del catalogo y los Remitos que le faltan; despues, cada lote de la
+ * {@link Bitacora} del primario en cuanto esta en disco, de modo que las
+ * replicas van unos milisegundos detras. Si la conexion se pierde, la
+ * replica se vuelve a conectar y recibe una foto nueva.
+ *
+ * Protocolo: la replica envia [magia][version][ultimo folio]; el primario
+ * responde tramas [tipo][longitud][longitud comprimida][datos deflate] con
+ * registros en el formato de la bitacora. Las tramas {@link #FOTO} forman la
+ * foto, {@link #FIN_FOTO} la cierra y {@link #CAMBIOS} traen los cambios.
+ *
+ * Se activa con las propiedades del sistema contingencia.primario=puerto o
+ * contingencia.replica=servidor:puerto.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public class Replicacion {
+
+  /** Trama con parte de la foto. */
+  public static final byte FOTO = 1;
+  /** Trama que cierra la foto. */
+  public static final byte FIN_FOTO = 2;
+  /** Trama con cambios. */
+  public static final byte CAMBIOS = 3;
+  /** Bytes, sin comprimir, que se juntan en una trama. */
+  public static final int MAX_TRAMA = 65536;
+  /**
+   * Bytes, sin comprimir, que admite una trama. Las tramas se cortan entre
+   * registros, asi que solo pasan de {@link #MAX_TRAMA} por el ultimo
+   * registro, o por uno solo que ya es mas grande; lo que exceda este limite
+   * se rechaza antes de reservar memoria.
+   */
+  static final int LIMITE_TRAMA = 16 * MAX_TRAMA;
+
+  static final int MAGIA = 0x5245504C;
+  static final int VERSION = 1;
+
+  private final DataInputStream in;
+  private final DataOutputStream out;
+  private final Deflater compresor;
+  private final Inflater descompresor;
+  private final ByteArrayOutputStream comprimido;
+  private final byte[] buffer;
+
+  /**
+   * Prepara el envio y la recepcion de tramas sobre una conexion.
+   * @param in Entrada de la conexion.
+   * @param out Salida de la conexion.
+   */
+  Replicacion(DataInputStream in, DataOutputStream out) {
+    this.in = in;
+    this.out = out;
+    compresor = new Deflater(Deflater.BEST_SPEED);
+    descompresor = new Inflater();
+    comprimido = new ByteArrayOutputStream(MAX_TRAMA);
+    buffer = new byte[8192];
+  }
+
+  /**
+   * Inicia la replicacion indicada en las propiedades del sistema, si hay.
+   * @param servicio Inventario a replicar.
+   * @return Accion que detiene la replicacion.
+   * @throws IOException Si no se puede abrir el puerto del primario.
+   */
+  public static Runnable iniciar(ServicioInventario servicio) throws IOException {
+    String primario = System.getProperty("contingencia.primario");
+    String replica = System.getProperty("contingencia.replica");
+    if(primario != null) {
+      int puerto = Validacion.entero(primario);
+      if(puerto < 0 || puerto > 65535) {
+        throw new IOException("Puerto de replicacion invalido: " + primario);
+      }
+      Replicador replicador = new Replicador(servicio, puerto);
+      replicador.iniciar();
+      return replicador::detener;
+    }
+    if(replica != null) {
+      int dos = replica.lastIndexOf(':');
+      int puerto = dos < 0 ? Validacion.ENTERO_INVALIDO : Validacion.entero(replica.substring(dos + 1));
+      if(puerto < 0 || puerto > 65535) {
+        throw new IOException("Primario invalido: " + replica);
+      }
+      Replica cliente = new Replica(servicio, replica.substring(0, dos), puerto);
+      cliente.iniciar();
+      return cliente::detener;
+    }
+    return () -> {};
+  }
+
+  /**
+   * Envia una trama comprimida.
+   * @param tipo Tipo de trama.
+   * @param datos Registros.
+   * @param longitud Bytes de datos a enviar.
+   * @throws IOException Si ocurre un error de escritura.
+   */
+  void enviar(byte tipo, byte[] datos, int longitud) throws IOException {
+    if(longitud > LIMITE_TRAMA) {
+      throw new IOException("Trama de replicacion demasiado grande: " + longitud + " bytes.");
+    }
+    compresor.reset();
+    compresor.setInput(datos, 0, longitud);
+    compresor.finish();
+    comprimido.reset();
+    while(!compresor.finished()) {
+      int n = compresor.deflate(buffer);
+      comprimido.write(buffer, 0, n);
+    }
+    out.writeByte(tipo);
+    out.writeInt(longitud);
+    out.writeInt(comprimido.size());
+    comprimido.writeTo(out);
+    out.flush();
+  }
+
+  /**
+   * Recibe una trama.
+   * @return Tipo de la trama y sus registros.
+   * @throws IOException Si la conexion se cierra o la trama no es valida.
+   */
+  Trama recibir() throws IOException {
+    byte tipo = in.readByte();
+    int longitud = in.readInt();
+    int bytes = in.readInt();
+    if(longitud < 0 || longitud > LIMITE_TRAMA || bytes < 0 || bytes > comprimidoMaximo(longitud)) {
+      throw new IOException("Trama de replicacion invalida.");
+    }
+    byte[] entrada = new byte[bytes];
+    in.readFully(entrada);
+    byte[] datos = new byte[longitud];
+    descompresor.reset();
+    descompresor.setInput(entrada);
+    try {
+      int leidos = 0;
+      while(leidos < longitud && !descompresor.finished()) {
+        int n = descompresor.inflate(datos, leidos, longitud - leidos);
+        if(n == 0 && descompresor.needsInput()) {
+          break;
+        }
+        leidos += n;
+      }
+      if(leidos != longitud) {
+        throw new IOException("Trama de replicacion incompleta.");
+      }
+    } catch(DataFormatException e) {
+      throw new IOException("Trama de replicacion corrupta.", e);
+    }
+    return new Trama(tipo, datos);
+  }
+
+  /**
+   * Bytes que puede ocupar, comprimida, una trama de la longitud dada; deflate
+   * agrega a lo mas unos bytes por bloque a los datos que no logra comprimir.
+   */
+  private static int comprimidoMaximo(int longitud) {
+    return longitud + longitud / 1000 + 64;
+  }
+
+  /**
+   * Libera el compresor.
+   */
+  void cerrar() {
+    compresor.end();
+    descompresor.end();
+  }
+
+  /**
+   * Trama recibida.
+   */
+  static class Trama {
+
+    private final byte tipo;
+    private final byte[] datos;
+
+    private Trama(byte tipo, byte[] datos) {
+      this.tipo = tipo;
+      this.datos = datos;
+    }
+
+    byte getTipo() {
+      return tipo;
+    }
+
+    byte[] getDatos() {
+      return datos;
+    }
+  }
+}
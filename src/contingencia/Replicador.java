@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia;
+
+import contingencia.Modelo.Mercaderia;
+import contingencia.Modelo.Remito;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Primario de la {@link Replicacion}: acepta replicas y les envia la foto
+ * inicial y despues los cambios del inventario.
+ *
+ * Cada replica tiene su propio hilo y una cola de lotes de la bitacora; los
+ * lotes que se acumulan mientras se envia la trama anterior salen juntos en
+ * la siguiente, asi que una replica lenta recibe tramas mas grandes en lugar
+ * de atrasarse. Si aun asi su cola se llena, se desconecta y al volver a
+ * conectarse recibe una foto nueva, sin detener las ventas del primario.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public class Replicador {
+
+  /** Lotes de la bitacora que pueden esperar por una replica. */
+  public static final int MAX_COLA = 4096;
+  /** Remitos leidos a la vez para la foto. */
+  private static final int BLOQUE = 1024;
+
+  private final ServicioInventario servicio;
+  private final ServerSocket servidor;
+  private final ExecutorService hilos;
+  private final Set<Socket> conexiones;
+  private volatile boolean activo;
+
+  /**
+   * Abre el puerto del primario sin aceptar replicas aun.
+   * @param servicio Inventario a replicar.
+   * @param puerto Puerto donde escuchar, o 0 para uno libre.
+   * @throws IOException Si no se puede abrir el puerto.
+   */
+  public Replicador(ServicioInventario servicio, int puerto) throws IOException {
+    this.servicio = servicio;
+    servidor = new ServerSocket(puerto);
+    hilos = Asincrono.hilos("Replicador");
+    conexiones = ConcurrentHashMap.newKeySet();
+  }
+
+  /**
+   * Empieza a aceptar replicas.
+   */
+  public void iniciar() {
+    activo = true;
+    hilos.execute(this::aceptar);
+  }
+
+  /**
+   * Puerto donde escucha el primario.
+   * @return Puerto.
+   */
+  public int getPuerto() {
+    return servidor.getLocalPort();
+  }
+
+  /**
+   * Desconecta a las replicas y cierra el puerto.
+   */
+  public void detener() {
+    activo = false;
+    try {
+      servidor.close();
+    } catch(IOException e) {
+      System.err.println("ERROR: " + e.getLocalizedMessage());
+    }
+    for (Socket conexion : conexiones) {
+      cerrar(conexion);
+    }
+    hilos.shutdownNow();
+  }
+
+  private void aceptar() {
+    while(activo) {
+      try {
+        Socket conexion = servidor.accept();
+        conexiones.add(conexion);
+        hilos.execute(() -> atender(conexion));
+      } catch(IOException e) {
+        if(activo) {
+          System.err.println("ERROR: " + e.getLocalizedMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * Atiende a una replica hasta que se desconecta.
+   */
+  private void atender(Socket conexion) {
+    BlockingQueue<byte[]> cola = new ArrayBlockingQueue<>(MAX_COLA);
+    AtomicBoolean desbordada = new AtomicBoolean();
+    Consumer<byte[]> copia = (byte[] lote) -> {
+      if(!cola.offer(lote) && !desbordada.getAndSet(true)) {
+        cerrar(conexion);
+      }
+    };
+    Replicacion tramas = null;
+    try {
+      conexion.setTcpNoDelay(true);
+      conexion.setKeepAlive(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(conexion.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(conexion.getOutputStream(), Replicacion.MAX_TRAMA));
+      tramas = new Replicacion(in, out);
+      if(in.readInt() != Replicacion.MAGIA || in.readInt() != Replicacion.VERSION) {
+        throw new IOException("Replica con otro protocolo: " + conexion.getRemoteSocketAddress());
+      }
+      int ultimoFolio = in.readInt();
+      ServicioInventario.Foto foto = servicio.suscribir(copia);
+      try {
+        enviarFoto(tramas, foto, ultimoFolio);
+        ByteArrayOutputStream cambios = new ByteArrayOutputStream(Replicacion.MAX_TRAMA);
+        while(activo) {
+          byte[] lote = cola.take();
+          cambios.reset();
+          do {
+            partir(tramas, lote, cambios);
+          } while(cambios.size() < Replicacion.MAX_TRAMA && (lote = cola.poll()) != null);
+          if(cambios.size() > 0) {
+            tramas.enviar(Replicacion.CAMBIOS, cambios.toByteArray(), cambios.size());
+          }
+        }
+      } finally {
+        servicio.desuscribir(copia);
+      }
+    } catch(IOException e) {
+      if(activo) {
+        System.err.println("ERROR: " + (desbordada.get() ? "Replica demasiado lenta: " + conexion.getRemoteSocketAddress() : e.getLocalizedMessage()));
+      }
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      if(tramas != null) {
+        tramas.cerrar();
+      }
+      cerrar(conexion);
+      conexiones.remove(conexion);
+    }
+  }
+
+  /**
+   * Envia el catalogo completo y los Remitos posteriores al ultimo folio de
+   * la replica.
+   */
+  private void enviarFoto(Replicacion tramas, ServicioInventario.Foto foto, int ultimoFolio) throws IOException {
+    Bitacora.Registros registros = new Bitacora.Registros();
+    ByteArrayOutputStream lote = new ByteArrayOutputStream(Replicacion.MAX_TRAMA + 4096);
+    for (Mercaderia mercaderia : foto.getMercaderias()) {
+      registros.alta(mercaderia, lote);
+      if(lote.size() >= Replicacion.MAX_TRAMA) {
+        tramas.enviar(Replicacion.FOTO, lote.toByteArray(), lote.size());
+        lote.reset();
+      }
+    }
+    RemitosPaginados remitos = servicio.getRemitos();
+    for(int desde = remitos.inicioFolio(ultimoFolio + 1); desde < foto.getRemitos(); desde += BLOQUE) {
+      for (Remito remito : remitos.leer(desde, Math.min(desde + BLOQUE, foto.getRemitos()))) {
+        registros.venta(remito, Collections.emptyList(), lote);
+        if(lote.size() >= Replicacion.MAX_TRAMA) {
+          tramas.enviar(Replicacion.FOTO, lote.toByteArray(), lote.size());
+          lote.reset();
+        }
+      }
+    }
+    if(lote.size() > 0) {
+      tramas.enviar(Replicacion.FOTO, lote.toByteArray(), lote.size());
+    }
+    tramas.enviar(Replicacion.FIN_FOTO, new byte[0], 0);
+  }
+
+  /**
+   * Agrega los registros de un lote de la bitacora a la trama en curso. Cada
+   * registro empieza con su longitud; antes del que ya no cabe en
+   * {@link Replicacion#MAX_TRAMA} se envia lo acumulado, asi que un lote de
+   * una escritura agrupada grande sale en varias tramas.
+   */
+  private static void partir(Replicacion tramas, byte[] lote, ByteArrayOutputStream cambios) throws IOException {
+    int desde = 0;
+    while(desde < lote.length) {
+      int registro = Integer.BYTES + ByteBuffer.wrap(lote, desde, Integer.BYTES).getInt() + Integer.BYTES;
+      if(cambios.size() > 0 && cambios.size() + registro > Replicacion.MAX_TRAMA) {
+        tramas.enviar(Replicacion.CAMBIOS, cambios.toByteArray(), cambios.size());
+        cambios.reset();
+      }
+      cambios.write(lote, desde, registro);
+      desde += registro;
+    }
+  }
+
+  private static void cerrar(Socket conexion) {
+    try {
+      conexion.close();
+    } catch(IOException e) {
+      System.err.println("ERROR: " + e.getLocalizedMessage());
+    }
+  }
+}
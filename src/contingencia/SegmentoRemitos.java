@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia;
+
+import contingencia.Modelo.Remito;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Segmento inmutable y comprimido del historial de Remitos, normalmente un
+ * mes (ver {@link AlmacenRemitos#archivar(int)}).
+ *
+ * El archivo, mapeado en memoria, tiene un encabezado [magia][version]
+ * [Remitos][desordenado][formato de los Remitos], las columnas de folio
+ * y dia de cada Remito, una tabla de bloques [desplazamiento][comprimido]
+ * [longitud] y los bloques de {@link #BLOQUE} Remitos comprimidos con
+ * deflate. Las columnas permiten buscar por folio o dia sin descomprimir
+ * nada; leer un Remito descomprime solo su bloque, y el ultimo bloque leido
+ * se conserva porque las paginas se piden en orden.
+ *
+ * Los Remitos se comprimen tal como estan en el archivo de datos, asi que el
+ * encabezado guarda su {@link Remito#FORMATO} y se leen con ese formato aunque
+ * cambie despues. Los segmentos de la version 1, sin ese campo, tienen
+ * Remitos en el formato 3.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+class SegmentoRemitos {
+
+  /** Remitos por bloque comprimido. */
+  static final int BLOQUE = 256;
+
+  private static final int MAGIA = 0x53454752;
+  private static final int VERSION = 2;
+  private static final int ENCABEZADO = 20;
+  private static final int VERSION_SIN_FORMATO = 1;
+  private static final int ENCABEZADO_SIN_FORMATO = 16;
+  /** Formato de los Remitos en los segmentos de la version 1. */
+  private static final int FORMATO_SIN_FORMATO = 3;
+  private static final int COLUMNAS = 8;
+  private static final int TABLA = 16;
+
+  private final MappedByteBuffer archivo;
+  private final int encabezado;
+  private final int formato;
+  private final int cantidad;
+  private final boolean ordenado;
+  private final Inflater descompresor;
+  private int bloqueLeido;
+  private Remito[] remitosLeidos;
+
+  /**
+   * Abre un segmento.
+   * @param ruta Archivo del segmento.
+   * @throws IOException Si el archivo no se puede abrir o no es valido.
+   */
+  SegmentoRemitos(Path ruta) throws IOException {
+    try(FileChannel canal = FileChannel.open(ruta, StandardOpenOption.READ)) {
+      archivo = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+    }
+    int version = archivo.capacity() < ENCABEZADO_SIN_FORMATO || archivo.getInt(0) != MAGIA ? -1 : archivo.getInt(4);
+    if((version != VERSION && version != VERSION_SIN_FORMATO) || (version == VERSION && archivo.capacity() < ENCABEZADO)) {
+      throw new IOException("Formato de " + ruta.getFileName() + " invalido.");
+    }
+    encabezado = version == VERSION ? ENCABEZADO : ENCABEZADO_SIN_FORMATO;
+    formato = version == VERSION ? archivo.getInt(16) : FORMATO_SIN_FORMATO;
+    if(formato < 1 || formato > Remito.FORMATO) {
+      throw new IOException("Segmento " + ruta.getFileName() + " con Remitos en un formato desconocido: " + formato);
+    }
+    cantidad = archivo.getInt(8);
+    ordenado = archivo.getInt(12) == 0;
+    if(cantidad < 1 || tabla(encabezado, cantidad, bloques(cantidad)) > archivo.capacity()) {
+      throw new IOException("Segmento " + ruta.getFileName() + " incompleto.");
+    }
+    descompresor = new Inflater();
+    bloqueLeido = -1;
+  }
+
+  /**
+   * Escribe un segmento con un rango del archivo de datos de un
+   * {@link AlmacenRemitos}. Los bytes de los Remitos, que deben estar en el
+   * {@link Remito#FORMATO} actual, se comprimen tal cual, sin volver a
+   * serializarlos, y el archivo se sincroniza con el disco.
+   * @param ruta Archivo del segmento; no debe existir.
+   * @param datos Archivo de datos.
+   * @param desplazamientos Inicio de cada Remito en los datos, mas el fin del ultimo.
+   * @param folios Folio de cada Remito.
+   * @param dias Dia de cada Remito.
+   * @throws IOException Si ocurre un error de lectura o escritura.
+   */
+  static void crear(Path ruta, FileChannel datos, long[] desplazamientos, int[] folios, int[] dias) throws IOException {
+    int cantidad = folios.length;
+    int bloques = bloques(cantidad);
+    ByteBuffer columnas = ByteBuffer.allocate(tabla(ENCABEZADO, cantidad, 0));
+    boolean ordenado = true;
+    columnas.putInt(MAGIA).putInt(VERSION).putInt(cantidad).putInt(0).putInt(Remito.FORMATO);
+    for(int i = 0; i < cantidad; i++) {
+      columnas.putInt(folios[i]).putInt(dias[i]);
+      ordenado &= i == 0 || dias[i] >= dias[i - 1];
+    }
+    columnas.putInt(12, ordenado ? 0 : 1).flip();
+    ByteBuffer tabla = ByteBuffer.allocate(bloques * TABLA);
+    Deflater compresor = new Deflater();
+    try(FileChannel canal = FileChannel.open(ruta, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+      escribir(canal, columnas, 0);
+      long fin = tabla(ENCABEZADO, cantidad, bloques);
+      byte[] buffer = new byte[8192];
+      ByteArrayOutputStream comprimido = new ByteArrayOutputStream();
+      for(int b = 0; b < bloques; b++) {
+        long inicio = desplazamientos[b * BLOQUE];
+        ByteBuffer crudo = ByteBuffer.allocate((int) (desplazamientos[Math.min((b + 1) * BLOQUE, cantidad)] - inicio));
+        while(crudo.hasRemaining()) {
+          if(datos.read(crudo, inicio + crudo.position()) < 0) {
+            throw new IOException("Archivo de remitos incompleto.");
+          }
+        }
+        compresor.reset();
+        compresor.setInput(crudo.array());
+        compresor.finish();
+        comprimido.reset();
+        while(!compresor.finished()) {
+          int n = compresor.deflate(buffer);
+          comprimido.write(buffer, 0, n);
+        }
+        tabla.putLong(fin).putInt(comprimido.size()).putInt(crudo.capacity());
+        escribir(canal, ByteBuffer.wrap(comprimido.toByteArray()), fin);
+        fin += comprimido.size();
+      }
+      tabla.flip();
+      escribir(canal, tabla, tabla(ENCABEZADO, cantidad, 0));
+      canal.force(true);
+    } finally {
+      compresor.end();
+    }
+  }
+
+  /**
+   * Numero de Remitos.
+   * @return Tamaño.
+   */
+  int tamano() {
+    return cantidad;
+  }
+
+  /**
+   * Folio del Remito en una posicion.
+   * @param posicion Posicion dentro del segmento.
+   * @return Folio.
+   */
+  int folio(int posicion) {
+    return archivo.getInt(encabezado + posicion * COLUMNAS);
+  }
+
+  /**
+   * Dia del Remito en una posicion.
+   * @param posicion Posicion dentro del segmento.
+   * @return Dias desde el 01/01/1970.
+   */
+  int dia(int posicion) {
+    return archivo.getInt(encabezado + posicion * COLUMNAS + 4);
+  }
+
+  /**
+   * Comprueba si la columna de dias esta en orden.
+   * @return Verdadero si esta ordenada, falso en caso contrario.
+   */
+  boolean ordenadoPorDia() {
+    return ordenado;
+  }
+
+  /**
+   * Lee un rango de Remitos, descomprimiendo solo los bloques necesarios.
+   * @param desde Primera posicion (inclusive).
+   * @param hasta Ultima posicion (exclusiva).
+   * @param destino Arreglo donde se dejan los Remitos.
+   * @param inicio Posicion del arreglo para el primero.
+   * @throws IOException Si un bloque esta corrupto.
+   */
+  synchronized void leer(int desde, int hasta, Remito[] destino, int inicio) throws IOException {
+    for(int i = desde; i < hasta; ) {
+      int b = i / BLOQUE;
+      Remito[] bloque = bloque(b);
+      int n = Math.min(hasta, (b + 1) * BLOQUE) - i;
+      System.arraycopy(bloque, i - b * BLOQUE, destino, inicio + i - desde, n);
+      i += n;
+    }
+  }
+
+  /**
+   * Libera el descompresor.
+   */
+  synchronized void cerrar() {
+    descompresor.end();
+    remitosLeidos = null;
+  }
+
+  private Remito[] bloque(int b) throws IOException {
+    if(b == bloqueLeido) {
+      return remitosLeidos;
+    }
+    int base = tabla(encabezado, cantidad, b);
+    int desplazamiento = (int) archivo.getLong(base);
+    byte[] entrada = new byte[archivo.getInt(base + 8)];
+    byte[] crudo = new byte[archivo.getInt(base + 12)];
+    ByteBuffer vista = archivo.duplicate();
+    vista.position(desplazamiento);
+    vista.get(entrada);
+    descompresor.reset();
+    descompresor.setInput(entrada);
+    try {
+      int leidos = 0;
+      while(leidos < crudo.length && !descompresor.finished()) {
+        int n = descompresor.inflate(crudo, leidos, crudo.length - leidos);
+        if(n == 0 && descompresor.needsInput()) {
+          break;
+        }
+        leidos += n;
+      }
+      if(leidos != crudo.length) {
+        throw new IOException("Bloque de remitos incompleto.");
+      }
+    } catch(DataFormatException e) {
+      throw new IOException("Bloque de remitos corrupto.", e);
+    }
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(crudo));
+    Remito[] remitos = new Remito[Math.min(BLOQUE, cantidad - b * BLOQUE)];
+    for(int i = 0; i < remitos.length; i++) {
+      remitos[i] = Remito.leer(in, formato);
+    }
+    bloqueLeido = b;
+    remitosLeidos = remitos;
+    return remitos;
+  }
+
+  private static int tabla(int encabezado, int cantidad, int bloques) {
+    return encabezado + cantidad * COLUMNAS + bloques * TABLA;
+  }
+
+  private static int bloques(int cantidad) {
+    return (cantidad + BLOQUE - 1) / BLOQUE;
+  }
+
+  private static void escribir(FileChannel canal, ByteBuffer buffer, long posicion) throws IOException {
+    while(buffer.hasRemaining()) {
+      canal.write(buffer, posicion + buffer.position());
+    }
+  }
+}
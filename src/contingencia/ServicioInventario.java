@@ -0,0 +1,998 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia;
+
+import contingencia.Modelo.Catalogo;
+import contingencia.Modelo.IndiceTexto;
+import contingencia.Modelo.Inventario;
+import contingencia.Modelo.Mercaderia;
+import contingencia.Modelo.Remito;
+import contingencia.Modelo.Renglones;
+import contingencia.Modelo.Reporte;
+import contingencia.Modelo.Totales;
+import java.time.LocalDate;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Nucleo del inventario, independiente de la interfaz grafica.
+ *
+ * Reune el inventario, el historial de Remitos, los almacenes y la bitacora,
+ * y se puede usar desde cualquier hilo. Las altas, bajas y el guardado
+ * cambian la estructura y toman el candado de escritura; las ventas y las
+ * ediciones solo toman el de lectura. Las existencias se descuentan y
+ * reservan sin candados ({@link contingencia.Modelo.Existencias}); el candado
+ * por franja de claves solo ordena los registros de la bitacora, que guardan
+ * existencias absolutas y deben quedar en el mismo orden en que se aplicaron.
+ * Una venta toma las franjas de todas sus claves en orden ascendente para no
+ * bloquearse con otra, asi que ventas de Mercaderias distintas avanzan en
+ * paralelo. Solo la asignacion del folio y el registro en la bitacora se
+ * hacen en serie, para que ambos conserven el orden de las ventas. Los folios
+ * salen de un contador atomico con marca alta en disco ({@link Folios}), asi
+ * que no dependen del historial.
+ *
+ * Las busquedas de texto usan un {@link IndiceTexto} con su propio candado de
+ * lectura y escritura, para que buscar no espere a las ventas.
+ *
+ * Los {@link Totales} se ajustan en cada operacion bajo el mismo candado que
+ * la ordena, asi que consultarlos nunca recorre el inventario.
+ *
+ * El guardado solo toma el candado de escritura para copiar lo que cambio y
+ * marcar la bitacora; escribe los almacenes fuera de el, en el hilo de
+ * guardado, mientras las ventas y ediciones siguen. Lo que cambie durante la
+ * escritura queda en la bitacora y vuelve a estar sucio para el siguiente.
+ *
+ * La interfaz es un cliente mas: recibe los cambios con un
+ * {@link EscuchaInventario} a traves del notificador.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public class ServicioInventario implements Catalogo {
+
+  /** IVA% aplicado a las ventas. */
+  public static final double IVA = 0.16;
+
+  private static final int FRANJAS = 64;
+  /** Elementos entre cada aviso de avance. */
+  private static final int AVISO = 4096;
+
+  private final AlmacenMercaderias almacen;
+  private final RemitosPaginados remitos;
+  private final GeneradorReportes reportes;
+  private final Inventario inventario;
+  private final IndiceTexto textos;
+  private final ReentrantReadWriteLock candadoTextos;
+  private final Totales totales;
+  private final Executor notificador;
+  private final ReentrantReadWriteLock estructura;
+  private final ReentrantLock[] franjas;
+  private final Set<Mercaderia> sucias;
+  private final List<Integer> bajas;
+  private final Object folios;
+  private final ReentrantLock candadoGuardado;
+  private final ScheduledExecutorService guardador;
+  private final AtomicBoolean compactando;
+  private volatile Bitacora bitacora;
+  private volatile boolean soloLectura;
+  private volatile int mesesVigentes;
+  private final Folios numeracion;
+  private final Candado candado;
+  private volatile EscuchaInventario escucha;
+
+  /**
+   * Abre los almacenes y reaplica la bitacora. La primera vez los llena con
+   * los archivos serializados anteriores.
+   * @param notificador Ejecutor de los avisos (el hilo de JavaFX en la interfaz).
+   * @throws IOException Si algun almacen no se puede abrir o otra instancia los tiene abiertos.
+   */
+  public ServicioInventario(Executor notificador) throws IOException {
+    this(notificador, Avance.NINGUNO);
+  }
+
+  /**
+   * Abre los almacenes y reaplica la bitacora, reportando el avance. Toma
+   * antes el {@link Candado} de los almacenes, que se suelta al cerrar.
+   * @param notificador Ejecutor de los avisos (el hilo de JavaFX en la interfaz).
+   * @param avance Avance de la apertura, llamado desde el hilo que abre.
+   * @throws IOException Si algun almacen no se puede abrir o otra instancia los tiene abiertos.
+   */
+  public ServicioInventario(Executor notificador, Avance avance) throws IOException {
+    this.notificador = notificador;
+    Mercaderia.setNotificador(notificador);
+    estructura = new ReentrantReadWriteLock();
+    franjas = new ReentrantLock[FRANJAS];
+    for(int i = 0; i < FRANJAS; i++) {
+      franjas[i] = new ReentrantLock();
+    }
+    sucias = ConcurrentHashMap.newKeySet();
+    bajas = new ArrayList<>();
+    folios = new Object();
+    candadoGuardado = new ReentrantLock();
+    compactando = new AtomicBoolean();
+    guardador = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+      Thread hilo = new Thread(r, "Guardado");
+      hilo.setDaemon(true);
+      return hilo;
+    });
+    escucha = new EscuchaInventario() {};
+    candado = Candado.tomar();
+    try {
+      avance.avanzar(0, "Abriendo mercader\u00EDas");
+      boolean migrar = !AlmacenMercaderias.existe("Mercaderia");
+      almacen = new AlmacenMercaderias("Mercaderia");
+      if(migrar) {
+        almacen.guardar(new Archivo<Mercaderia>().cargar("Mercaderia"));
+        almacen.sincronizar();
+      }
+      inventario = new Inventario(almacen.cargar());
+      avance.avanzar(0.3, "Abriendo remitos");
+      migrar = !AlmacenRemitos.existe("Remitos");
+      AlmacenRemitos historial = new AlmacenRemitos("Remitos");
+      if(migrar) {
+        historial.agregar(new Archivo<Remito>().cargar("Remitos"));
+      }
+      remitos = new RemitosPaginados(historial, notificador);
+      reportes = new GeneradorReportes(remitos);
+      avance.avanzar(0.4, "Recuperando cambios");
+      try {
+        bitacora = new Bitacora("Bitacora");
+        if(bitacora.recuperar(inventario, remitos) > 0) {
+          almacen.guardar(inventario.getMercaderias());
+        }
+      } catch(IOException e) {
+        System.err.println("ERROR: " + e.getLocalizedMessage());
+        bitacora = null;
+      }
+      numeracion = new Folios("Folios", remitos.ultimoFolio());
+      textos = new IndiceTexto();
+      candadoTextos = new ReentrantReadWriteLock();
+      totales = new Totales();
+      List<Mercaderia> todas = inventario.getMercaderias();
+      for(int i = 0; i < todas.size(); i++) {
+        Mercaderia mercaderia = todas.get(i);
+        textos.agregar(mercaderia.getClave(), mercaderia.getNombre(), mercaderia.getDescripcion());
+        totales.agregar(mercaderia);
+        if(i % AVISO == 0) {
+          avance.avanzar(0.5 + 0.5 * i / todas.size(), "Indexando mercader\u00EDas");
+        }
+      }
+      avance.avanzar(1, "Listo");
+    } catch(IOException | RuntimeException e) {
+      candado.soltar();
+      throw e;
+    }
+  }
+
+  /**
+   * Define quien recibe los cambios.
+   * @param escucha Escucha, o null para no avisar a nadie.
+   */
+  public void setEscucha(EscuchaInventario escucha) {
+    this.escucha = escucha == null ? new EscuchaInventario() {} : escucha;
+  }
+
+  /**
+   * Copia de las Mercaderias actuales.
+   * @return Lista de Mercaderias.
+   */
+  public List<Mercaderia> getMercaderias() {
+    estructura.readLock().lock();
+    try {
+      return new ArrayList<>(inventario.getMercaderias());
+    } finally {
+      estructura.readLock().unlock();
+    }
+  }
+
+  /**
+   * Historial de Remitos.
+   * @return Lista paginada de Remitos.
+   */
+  public RemitosPaginados getRemitos() {
+    return remitos;
+  }
+
+  /**
+   * Totales del inventario, mantenidos con cada cambio. Cada valor esta al
+   * dia, aunque leidos durante una venta pueden no corresponder al mismo
+   * instante.
+   * @return Totales.
+   */
+  public Totales getTotales() {
+    return totales;
+  }
+
+  /**
+   * Reporte de las ventas de un rango de fechas, incluso las que aun no se
+   * guardan. Recorre el historial en paralelo y sin candados del inventario,
+   * asi que no detiene las ventas, pero puede tardar: no se debe llamar desde
+   * el hilo de la interfaz.
+   * @param desde Primer dia (inclusive), en dias desde el 01/01/1970.
+   * @param hasta Ultimo dia (exclusivo), en dias desde el 01/01/1970.
+   * @return Reporte.
+   * @throws IOException Si ocurre un error de lectura.
+   */
+  public Reporte reporte(int desde, int hasta) throws IOException {
+    return reportes.generar(desde, hasta);
+  }
+
+  /**
+   * Busca una Mercaderia por su clave.
+   * @param clave Clave de la Mercaderia.
+   * @return Mercaderia, o null si no existe.
+   */
+  @Override
+  public Mercaderia buscar(int clave) {
+    estructura.readLock().lock();
+    try {
+      return inventario.buscar(clave);
+    } finally {
+      estructura.readLock().unlock();
+    }
+  }
+
+  /**
+   * Comprueba si existe una Mercaderia.
+   * @param clave Clave de la Mercaderia.
+   * @return Verdadero si existe, falso en caso contrario.
+   */
+  public boolean existe(int clave) {
+    return buscar(clave) != null;
+  }
+
+  /**
+   * Busca Mercaderias por las palabras de su nombre o descripcion, sin
+   * importar acentos ni mayusculas; cada palabra puede ser solo el inicio.
+   * @param consulta Texto a buscar.
+   * @param campos Campos donde buscar, de {@link IndiceTexto}.
+   * @param limite Maximo de resultados.
+   * @return Mercaderias, de la mas a la menos relevante.
+   */
+  public List<Mercaderia> buscarTexto(String consulta, int campos, int limite) {
+    int[] claves;
+    candadoTextos.readLock().lock();
+    try {
+      claves = textos.buscar(consulta, campos, limite);
+    } finally {
+      candadoTextos.readLock().unlock();
+    }
+    List<Mercaderia> resultados = new ArrayList<>(claves.length);
+    estructura.readLock().lock();
+    try {
+      for (int clave : claves) {
+        Mercaderia mercaderia = inventario.buscar(clave);
+        if(mercaderia != null) {
+          resultados.add(mercaderia);
+        }
+      }
+    } finally {
+      estructura.readLock().unlock();
+    }
+    return resultados;
+  }
+
+  /**
+   * Agrega una Mercaderia si su clave no existe.
+   * @param mercaderia Mercaderia a agregar.
+   * @return Verdadero si se agrego, falso si la clave ya existia.
+   * @throws IllegalStateException Si el inventario es de solo lectura.
+   */
+  public boolean agregar(Mercaderia mercaderia) {
+    comprobarEscritura();
+    return alta(mercaderia);
+  }
+
+  /**
+   * Agrega una Mercaderia sin comprobar si el inventario es de solo lectura.
+   */
+  private boolean alta(Mercaderia mercaderia) {
+    estructura.writeLock().lock();
+    try {
+      if(!inventario.agregar(mercaderia)) {
+        return false;
+      }
+      indexar(mercaderia);
+      totales.agregar(mercaderia);
+      sucias.add(mercaderia);
+      if(bitacora != null) {
+        bitacora.registrarAlta(mercaderia);
+      }
+    } finally {
+      estructura.writeLock().unlock();
+    }
+    avisar(e -> e.alta(mercaderia));
+    compactar();
+    return true;
+  }
+
+  /**
+   * Agrega varias Mercaderias tomando el candado de escritura una sola vez.
+   * Las claves que ya existen se omiten.
+   * @param lote Mercaderias a agregar.
+   * @return Mercaderias que se agregaron.
+   * @throws IllegalStateException Si el inventario es de solo lectura.
+   */
+  public List<Mercaderia> agregar(List<Mercaderia> lote) {
+    comprobarEscritura();
+    List<Mercaderia> agregadas = new ArrayList<>(lote.size());
+    estructura.writeLock().lock();
+    try {
+      candadoTextos.writeLock().lock();
+      try {
+        for (Mercaderia mercaderia : lote) {
+          if(inventario.agregar(mercaderia)) {
+            textos.agregar(mercaderia.getClave(), mercaderia.getNombre(), mercaderia.getDescripcion());
+            agregadas.add(mercaderia);
+          }
+        }
+      } finally {
+        candadoTextos.writeLock().unlock();
+      }
+      for (Mercaderia mercaderia : agregadas) {
+        totales.agregar(mercaderia);
+        sucias.add(mercaderia);
+        if(bitacora != null) {
+          bitacora.registrarAlta(mercaderia);
+        }
+      }
+    } finally {
+      estructura.writeLock().unlock();
+    }
+    for (Mercaderia mercaderia : agregadas) {
+      avisar(e -> e.alta(mercaderia));
+    }
+    compactar();
+    return agregadas;
+  }
+
+  /**
+   * Edita los datos de una Mercaderia.
+   * @param clave Clave de la Mercaderia.
+   * @param nombre Nombre.
+   * @param descripcion Descripcion.
+   * @param precioCompra Precio de compra.
+   * @param existencias Existencias.
+   * @param tipoUnidad Tipo de unidad.
+   * @return Verdadero si se edito, falso si no existe.
+   * @throws IllegalStateException Si el inventario es de solo lectura.
+   */
+  public boolean editar(int clave, String nombre, String descripcion, double precioCompra, int existencias, String tipoUnidad) {
+    comprobarEscritura();
+    return modificar(clave, nombre, descripcion, precioCompra, existencias, tipoUnidad);
+  }
+
+  /**
+   * Edita una Mercaderia sin comprobar si el inventario es de solo lectura.
+   */
+  private boolean modificar(int clave, String nombre, String descripcion, double precioCompra, int existencias, String tipoUnidad) {
+    Mercaderia mercaderia;
+    estructura.readLock().lock();
+    try {
+      mercaderia = inventario.buscar(clave);
+      if(mercaderia == null) {
+        return false;
+      }
+      ReentrantLock franja = franjas[franja(clave)];
+      franja.lock();
+      try {
+        totales.quitar(mercaderia);
+        mercaderia.setNombre(nombre);
+        mercaderia.setDescripcion(descripcion);
+        mercaderia.setPrecioCompra(precioCompra);
+        mercaderia.setExistencias(existencias);
+        mercaderia.setTipoUnidad(tipoUnidad);
+        totales.agregar(mercaderia);
+        indexar(mercaderia);
+        sucias.add(mercaderia);
+        if(bitacora != null) {
+          bitacora.registrarAlta(mercaderia);
+        }
+      } finally {
+        franja.unlock();
+      }
+    } finally {
+      estructura.readLock().unlock();
+    }
+    avisar(e -> e.cambio(mercaderia));
+    compactar();
+    return true;
+  }
+
+  /**
+   * Elimina una Mercaderia.
+   * @param clave Clave de la Mercaderia.
+   * @return Verdadero si se elimino, falso si no existe.
+   * @throws IllegalStateException Si el inventario es de solo lectura.
+   */
+  public boolean eliminar(int clave) {
+    comprobarEscritura();
+    return baja(clave);
+  }
+
+  /**
+   * Elimina una Mercaderia sin comprobar si el inventario es de solo lectura.
+   */
+  private boolean baja(int clave) {
+    Mercaderia mercaderia;
+    estructura.writeLock().lock();
+    try {
+      mercaderia = inventario.buscar(clave);
+      if(mercaderia == null || !inventario.eliminar(mercaderia)) {
+        return false;
+      }
+      candadoTextos.writeLock().lock();
+      try {
+        textos.quitar(clave);
+      } finally {
+        candadoTextos.writeLock().unlock();
+      }
+      totales.quitar(mercaderia);
+      sucias.remove(mercaderia);
+      bajas.add(clave);
+      if(bitacora != null) {
+        bitacora.registrarBaja(clave);
+      }
+    } finally {
+      estructura.writeLock().unlock();
+    }
+    avisar(e -> e.baja(mercaderia));
+    compactar();
+    return true;
+  }
+
+  /**
+   * Vende un pedido completo y lo agrega al historial con el siguiente folio.
+   * @param pedido Claves y cantidades a vender.
+   * @return Remito de la venta.
+   * @throws IllegalArgumentException Si una clave no existe o una cantidad no es valida.
+   * @throws IllegalStateException Si no hay existencias suficientes o el inventario es de solo lectura.
+   */
+  public Remito vender(Renglones pedido) {
+    return vender(pedido, false, null);
+  }
+
+  /**
+   * Vende un pedido completo como {@link #vender(Renglones)} y espera a que el
+   * Remito este sincronizado en la bitacora, para confirmar la venta solo
+   * cuando sobreviva a una caida. Otras ventas siguen mientras tanto y
+   * comparten la misma escritura al disco. Mientras la bitacora no logre
+   * escribir se rechazan las ventas nuevas antes de aplicarlas.
+   * @param pedido Claves y cantidades a vender.
+   * @return Remito de la venta.
+   * @throws IOException Si fallo la escritura que incluia la venta; el lote se
+   * reintenta, asi que la venta aun puede llegar al disco.
+   * @throws IllegalArgumentException Si una clave no existe o una cantidad no es valida.
+   * @throws IllegalStateException Si no hay existencias suficientes, el inventario es de solo lectura o la bitacora no logra escribir.
+   */
+  public Remito venderEnDisco(Renglones pedido) throws IOException {
+    long[] posicion = new long[1];
+    Bitacora actual = bitacora;
+    Remito remito = vender(pedido, false, posicion);
+    if(actual != null && posicion[0] > 0) {
+      try {
+        actual.esperar(posicion[0]);
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Se interrumpio la espera de la bitacora.");
+      }
+    }
+    return remito;
+  }
+
+  /**
+   * Vende un pedido apartado antes con {@link #reservar(int, int)}. Si la
+   * venta falla, las reservas siguen vigentes hasta {@link #liberar(Renglones)}.
+   * @param pedido Claves y cantidades reservadas.
+   * @return Remito de la venta.
+   * @throws IllegalArgumentException Si una clave no existe o una cantidad no es valida.
+   * @throws IllegalStateException Si no hay existencias suficientes o el inventario es de solo lectura.
+   */
+  public Remito venderReservado(Renglones pedido) {
+    return vender(pedido, true, null);
+  }
+
+  /**
+   * Aparta unidades de una Mercaderia para un Remito abierto, sin candados.
+   * @param clave Clave de la Mercaderia.
+   * @param cantidad Unidades a reservar.
+   * @return Verdadero si se reservaron, falso si no existe o no alcanza.
+   * @throws IllegalStateException Si el inventario es de solo lectura.
+   */
+  public boolean reservar(int clave, int cantidad) {
+    comprobarEscritura();
+    Mercaderia mercaderia = buscar(clave);
+    return mercaderia != null && mercaderia.reservar(cantidad);
+  }
+
+  /**
+   * Libera las reservas de un pedido que no se vendio.
+   * @param pedido Claves y cantidades reservadas.
+   */
+  public void liberar(Renglones pedido) {
+    for(int i = 0; i < pedido.tamano(); i++) {
+      Mercaderia mercaderia = buscar(pedido.getClave(i));
+      if(mercaderia != null) {
+        mercaderia.liberar(pedido.getCantidad(i));
+      }
+    }
+  }
+
+  /**
+   * @param posicion Si no es nulo, recibe la posicion de la venta en la
+   * bitacora, o 0 si no hay bitacora.
+   */
+  private Remito vender(Renglones pedido, boolean reservado, long[] posicion) {
+    comprobarEscritura();
+    int[] tomadas = franjas(pedido);
+    Remito remito;
+    estructura.readLock().lock();
+    try {
+      for (int franja : tomadas) {
+        franjas[franja].lock();
+      }
+      try {
+        Renglones venta = reservado ? inventario.venderReservado(pedido) : inventario.vender(pedido);
+        List<Mercaderia> vendidas = new ArrayList<>(venta.tamano());
+        for(int i = 0; i < venta.tamano(); i++) {
+          vendidas.add(inventario.buscar(venta.getClave(i)));
+        }
+        synchronized(folios) {
+          int folio;
+          try {
+            folio = numeracion.tomar();
+          } catch(UncheckedIOException e) {
+            inventario.deshacer(venta, reservado);
+            throw e;
+          }
+          remito = new Remito(folio, venta, IVA);
+          remitos.add(remito);
+          if(bitacora != null) {
+            long registrada = bitacora.registrarVenta(remito, vendidas);
+            if(posicion != null) {
+              posicion[0] = registrada;
+            }
+          }
+        }
+        for(int i = 0; i < venta.tamano(); i++) {
+          totales.existencias(vendidas.get(i), -venta.getCantidad(i));
+        }
+        sucias.addAll(vendidas);
+      } finally {
+        for(int i = tomadas.length - 1; i >= 0; i--) {
+          franjas[tomadas[i]].unlock();
+        }
+      }
+    } finally {
+      estructura.readLock().unlock();
+    }
+    avisar(e -> e.venta(remito));
+    compactar();
+    return remito;
+  }
+
+  /**
+   * Marca el inventario como de solo lectura, como en una replica: las
+   * altas, ediciones, bajas, reservas y ventas lanzan
+   * IllegalStateException y solo cambia con lo que llega del primario.
+   * @param soloLectura Verdadero para impedir cambios locales.
+   */
+  public void setSoloLectura(boolean soloLectura) {
+    this.soloLectura = soloLectura;
+  }
+
+  /**
+   * Comprueba si el inventario es de solo lectura.
+   * @return Verdadero si lo es, falso en caso contrario.
+   */
+  public boolean isSoloLectura() {
+    return soloLectura;
+  }
+
+  /**
+   * Empieza a copiar los cambios a un destino y toma una foto del estado en
+   * el mismo instante: todo cambio posterior a la foto llega al destino, en
+   * orden y en el formato de la {@link Bitacora}, en cuanto esta en disco. El
+   * destino tambien puede recibir algunos cambios anteriores; como guardan
+   * valores absolutos, aplicarlos sobre la foto no cambia el resultado.
+   * @param copia Destino de los lotes de cambios.
+   * @return Foto del estado.
+   * @throws IllegalStateException Si no hay bitacora.
+   */
+  public Foto suscribir(Consumer<byte[]> copia) {
+    estructura.writeLock().lock();
+    try {
+      if(bitacora == null) {
+        throw new IllegalStateException("Sin bitacora no se pueden copiar los cambios.");
+      }
+      bitacora.copiar(copia);
+      return new Foto(new ArrayList<>(inventario.getMercaderias()), remitos.total());
+    } finally {
+      estructura.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Deja de copiar los cambios a un destino.
+   * @param copia Destino dado a {@link #suscribir(Consumer)}.
+   */
+  public void desuscribir(Consumer<byte[]> copia) {
+    Bitacora actual = bitacora;
+    if(actual != null) {
+      actual.dejarDeCopiar(copia);
+    }
+  }
+
+  /**
+   * Aplica los cambios de otro inventario (el primario de una replica), aun
+   * si este es de solo lectura. Cada cambio pasa por los mismos candados,
+   * totales, bitacora y avisos que uno local.
+   * @return Destino de los cambios.
+   */
+  Bitacora.Cambios replicacion() {
+    return new Bitacora.Cambios() {
+      @Override
+      public void alta(Mercaderia nueva) {
+        if(!modificar(nueva.getClave(), nueva.getNombre(), nueva.getDescripcion(), nueva.getPrecioCompra(), nueva.getExistencias(), nueva.getTipoUnidad())) {
+          ServicioInventario.this.alta(nueva);
+        }
+      }
+
+      @Override
+      public void baja(int clave) {
+        ServicioInventario.this.baja(clave);
+      }
+
+      @Override
+      public void venta(Remito remito, int[] claves, int[] existencias) {
+        replicarVenta(remito, claves, existencias);
+      }
+    };
+  }
+
+  /**
+   * Guarda en los almacenes lo que cambio desde la ultima vez. Bajo el
+   * candado de escritura solo se copian las Mercaderias sucias y las bajas y
+   * se marca la bitacora; la escritura se hace despues, sin detener a nadie.
+   * Si todo se guarda, se descarta la bitacora hasta la marca; si algo falla,
+   * lo copiado vuelve a quedar sucio.
+   * @return Verdadero si se guardo todo, falso en caso contrario.
+   */
+  public boolean guardar() {
+    return guardar(Avance.NINGUNO);
+  }
+
+  /**
+   * Guarda lo que cambio, como {@link #guardar()}, reportando el avance.
+   * @param avance Avance del guardado, llamado desde el hilo que guarda.
+   * @return Verdadero si se guardo todo, falso en caso contrario.
+   */
+  public boolean guardar(Avance avance) {
+    candadoGuardado.lock();
+    try {
+      List<Mercaderia> lote;
+      List<Integer> bajasLote;
+      long marca;
+      Bitacora actual;
+      estructura.writeLock().lock();
+      try {
+        actual = bitacora;
+        if(sucias.isEmpty() && bajas.isEmpty() && !remitos.hayPendientes() && (actual == null || actual.vacia())) {
+          avance.avanzar(1, "Sin cambios");
+          return true;
+        }
+        lote = new ArrayList<>(sucias);
+        bajasLote = new ArrayList<>(bajas);
+        sucias.clear();
+        bajas.clear();
+        marca = actual == null ? 0 : actual.marcar();
+      } finally {
+        estructura.writeLock().unlock();
+      }
+      boolean guardado = true;
+      avance.avanzar(0, "Guardando mercader\u00EDas");
+      try {
+        for (Integer clave : bajasLote) {
+          almacen.eliminar(clave);
+        }
+        for(int i = 0; i < lote.size(); i++) {
+          almacen.escribir(lote.get(i));
+          if(i % AVISO == 0) {
+            avance.avanzar(0.8 * i / lote.size(), "Guardando mercader\u00EDas");
+          }
+        }
+        almacen.sincronizar();
+      } catch(IOException e) {
+        System.err.println("ERROR: " + e.getLocalizedMessage());
+        guardado = false;
+        ensuciar(lote, bajasLote);
+      }
+      avance.avanzar(0.8, "Guardando remitos");
+      try {
+        remitos.guardar();
+      } catch(IOException e) {
+        System.err.println("ERROR: " + e.getLocalizedMessage());
+        guardado = false;
+      }
+      int meses = mesesVigentes;
+      if(guardado && meses > 0) {
+        avance.avanzar(0.9, "Archivando remitos");
+        try {
+          remitos.archivar((int) LocalDate.now().withDayOfMonth(1).minusMonths(meses).toEpochDay());
+        } catch(IOException e) {
+          System.err.println("ERROR: " + e.getLocalizedMessage());
+        }
+      }
+      if(guardado && actual != null) {
+        avance.avanzar(0.95, "Compactando bit\u00E1cora");
+        try {
+          actual.descartar(marca);
+        } catch(IOException e) {
+          System.err.println("ERROR: " + e.getLocalizedMessage());
+        }
+      }
+      avance.avanzar(1, guardado ? "Guardado" : "Guardado incompleto");
+      return guardado;
+    } finally {
+      candadoGuardado.unlock();
+    }
+  }
+
+  /**
+   * Define cuantos meses completos, ademas del actual, se quedan en la
+   * particion actual del historial. Al guardar, los meses anteriores pasan a
+   * segmentos comprimidos que ya no se reescriben.
+   * @param meses Meses vigentes, o 0 para no archivar nunca.
+   */
+  public void setArchivo(int meses) {
+    mesesVigentes = meses;
+  }
+
+  /**
+   * Guarda en el hilo de guardado.
+   * @return Resultado de {@link #guardar()}.
+   */
+  public Future<Boolean> guardarDespues() {
+    return guardador.submit(() -> guardar());
+  }
+
+  /**
+   * Guarda periodicamente en el hilo de guardado.
+   * @param intervalo Tiempo entre cada guardado.
+   * @param unidad Unidad del intervalo.
+   */
+  public void autoguardar(long intervalo, TimeUnit unidad) {
+    guardador.scheduleWithFixedDelay(this::guardar, intervalo, intervalo, unidad);
+  }
+
+  /**
+   * Espera al guardado en curso, escribe los registros pendientes y cierra
+   * la bitacora y los almacenes.
+   */
+  public void cerrar() {
+    guardador.shutdown();
+    try {
+      guardador.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    estructura.writeLock().lock();
+    try {
+      if(bitacora != null) {
+        bitacora.cerrar();
+      }
+      almacen.cerrar();
+      remitos.cerrar();
+      numeracion.cerrar();
+    } catch(IOException e) {
+      System.err.println("ERROR: " + e.getLocalizedMessage());
+    } finally {
+      candado.soltar();
+      bitacora = null;
+      estructura.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Regresa a sucio lo que no se pudo guardar, salvo las Mercaderias que se
+   * eliminaron mientras tanto.
+   */
+  private void ensuciar(List<Mercaderia> lote, List<Integer> bajasLote) {
+    estructura.writeLock().lock();
+    try {
+      bajas.addAll(0, bajasLote);
+      for (Mercaderia mercaderia : lote) {
+        if(inventario.buscar(mercaderia.getClave()) == mercaderia) {
+          sucias.add(mercaderia);
+        }
+      }
+    } finally {
+      estructura.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Actualiza los textos de una Mercaderia en el indice.
+   */
+  private void indexar(Mercaderia mercaderia) {
+    candadoTextos.writeLock().lock();
+    try {
+      textos.agregar(mercaderia.getClave(), mercaderia.getNombre(), mercaderia.getDescripcion());
+    } finally {
+      candadoTextos.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Aplica una venta hecha en otro inventario: fija las existencias que
+   * resultaron y agrega el Remito con su folio, si aun no existe.
+   */
+  private void replicarVenta(Remito remito, int[] claves, int[] existencias) {
+    int[] tomadas = franjas(remito.getRenglones());
+    List<Mercaderia> vendidas = new ArrayList<>(claves.length);
+    estructura.readLock().lock();
+    try {
+      for (int franja : tomadas) {
+        franjas[franja].lock();
+      }
+      try {
+        for(int i = 0; i < claves.length; i++) {
+          Mercaderia vendida = inventario.buscar(claves[i]);
+          if(vendida != null) {
+            totales.existencias(vendida, existencias[i] - vendida.getExistencias());
+            vendida.setExistencias(existencias[i]);
+            vendidas.add(vendida);
+          }
+        }
+        sucias.addAll(vendidas);
+        synchronized(folios) {
+          // Los folios llegan en orden, asi que casi nunca hace falta buscar.
+          if(remito.getFolio() >= numeracion.siguiente() || !remitos.contieneFolio(remito.getFolio())) {
+            remitos.add(remito);
+            numeracion.avanzar(remito.getFolio());
+          }
+          if(bitacora != null) {
+            bitacora.registrarVenta(remito, vendidas);
+          }
+        }
+      } finally {
+        for(int i = tomadas.length - 1; i >= 0; i--) {
+          franjas[tomadas[i]].unlock();
+        }
+      }
+    } finally {
+      estructura.readLock().unlock();
+    }
+    avisar(e -> e.venta(remito));
+    compactar();
+  }
+
+  /**
+   * Lanza IllegalStateException si el inventario es de solo lectura o si la
+   * bitacora no logra escribir, para no aplicar cambios que no se podrian
+   * confirmar.
+   */
+  private void comprobarEscritura() {
+    if(soloLectura) {
+      throw new IllegalStateException("El inventario es una replica de solo lectura.");
+    }
+    Bitacora actual = bitacora;
+    if(actual != null && actual.getFallo() != null) {
+      throw new IllegalStateException("No se puede escribir la bitacora: " + actual.getFallo().getLocalizedMessage());
+    }
+  }
+
+  /**
+   * Compacta la bitacora en una instantanea, en el hilo de guardado, cuando
+   * crece demasiado.
+   */
+  private void compactar() {
+    Bitacora actual = bitacora;
+    if(actual != null && actual.requiereCompactacion() && compactando.compareAndSet(false, true)) {
+      try {
+        guardador.execute(() -> {
+          compactando.set(false);
+          guardar();
+        });
+      } catch(RejectedExecutionException e) {
+        compactando.set(false);
+      }
+    }
+  }
+
+  /**
+   * Entrega un aviso a la escucha a traves del notificador.
+   */
+  private void avisar(Consumer<EscuchaInventario> aviso) {
+    EscuchaInventario actual = escucha;
+    notificador.execute(() -> aviso.accept(actual));
+  }
+
+  /**
+   * Franja de una clave.
+   */
+  private static int franja(int clave) {
+    return (clave * 0x9E3779B9) >>> 26;
+  }
+
+  /**
+   * Franjas de un pedido, sin repetir y en orden ascendente.
+   */
+  private static int[] franjas(Renglones pedido) {
+    boolean[] usadas = new boolean[FRANJAS];
+    int cuantas = 0;
+    for(int i = 0; i < pedido.tamano(); i++) {
+      int franja = franja(pedido.getClave(i));
+      if(!usadas[franja]) {
+        usadas[franja] = true;
+        cuantas++;
+      }
+    }
+    int[] tomadas = new int[cuantas];
+    for(int franja = 0, j = 0; franja < FRANJAS; franja++) {
+      if(usadas[franja]) {
+        tomadas[j++] = franja;
+      }
+    }
+    return tomadas;
+  }
+
+  /**
+   * Estado del inventario en el instante de {@link #suscribir(Consumer)}.
+   */
+  public static class Foto {
+
+    private final List<Mercaderia> mercaderias;
+    private final int remitos;
+
+    private Foto(List<Mercaderia> mercaderias, int remitos) {
+      this.mercaderias = mercaderias;
+      this.remitos = remitos;
+    }
+
+    /**
+     * Mercaderias existentes. Sus valores pueden ser mas nuevos que la foto.
+     * @return Mercaderias.
+     */
+    public List<Mercaderia> getMercaderias() {
+      return mercaderias;
+    }
+
+    /**
+     * Numero de Remitos en el historial.
+     * @return Tamaño.
+     */
+    public int getRemitos() {
+      return remitos;
+    }
+  }
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) 2017 Carlos Olivo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package contingencia;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import contingencia.Modelo.Dinero;
+import contingencia.Modelo.IndiceTexto;
+import contingencia.Modelo.Mercaderia;
+import contingencia.Modelo.Remito;
+import contingencia.Modelo.Renglones;
+import contingencia.Modelo.Validacion;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Servidor HTTP sin interfaz grafica para consultar el inventario y vender
+ * desde otros equipos (lectores de codigos del almacen).
+ *
+ * Atiende, con respuestas JSON:
+ * <ul>
+ * <li>{@code GET /mercaderias/<clave>}: una Mercaderia.</li>
+ * <li>{@code GET /mercaderias?q=<texto>[&limite=n]}: busqueda de texto.</li>
+ * <li>{@code POST /ventas}: vende un pedido con una linea
+ * {@code clave[,cantidad]} por renglon (sin cantidad se vende una unidad) y
+ * responde el Remito con 201 en cuanto la venta esta sincronizada en la
+ * bitacora.</li>
+ * <li>{@code GET /remitos/<folio>}: un Remito.</li>
+ * </ul>
+ * Una clave inexistente o un pedido mal formado responde 400, lo que no
+ * existe 404 y la falta de existencias 409, igual que vender en una replica
+ * de solo lectura; la venta no se aplica a medias.
+ *
+ * Cada peticion se atiende en su propio hilo virtual cuando la maquina
+ * virtual los tiene (Java 21 o posterior) y si no en un grupo de hilos que
+ * crece segun se necesite. Las peticiones solo se coordinan a traves del
+ * {@link ServicioInventario}, asi que ventas de Mercaderias distintas
+ * avanzan en paralelo.
+ *
+ * @author Carlos Olivo
+ * @version 0.1
+ */
+public class ServidorHttp {
+
+  /** Puerto por omision. */
+  public static final int PUERTO = 8080;
+  /** Maximo de resultados de una busqueda. */
+  public static final int MAX_RESULTADOS = 200;
+  /** Tamaño maximo, en bytes, de un pedido. */
+  public static final int MAX_PEDIDO = 65536;
+
+  /** Conexiones en espera de ser aceptadas. */
+  private static final int PENDIENTES = 1024;
+  /** Segundos entre cada guardado automatico; 0 lo desactiva. */
+  private static final int AUTOGUARDADO = Integer.getInteger("contingencia.autoguardado", 60);
+  /** Meses de Remitos que no se archivan, ademas del actual; 0 lo desactiva. */
+  private static final int ARCHIVO = Integer.getInteger("contingencia.archivo", 12);
+
+  private final ServicioInventario servicio;
+  private final HttpServer servidor;
+  private final ExecutorService hilos;
+
+  /**
+   * Recurso que responde el cuerpo JSON de una peticion, o null si no existe.
+   */
+  private interface Recurso {
+    String atender(HttpExchange intercambio) throws IOException;
+  }
+
+  /**
+   * Prepara el servidor sin iniciarlo.
+   * @param servicio Inventario a publicar.
+   * @param puerto Puerto donde escuchar, o 0 para uno libre.
+   * @throws IOException Si no se puede abrir el puerto.
+   */
+  public ServidorHttp(ServicioInventario servicio, int puerto) throws IOException {
+    this.servicio = servicio;
+    hilos = Asincrono.hilos("Servidor");
+    // Sin esto los encabezados y el cuerpo salen en segmentos separados y
+    // cada respuesta en una conexion persistente espera el ACK retrasado.
+    if(System.getProperty("sun.net.httpserver.nodelay") == null) {
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+    servidor = HttpServer.create(new InetSocketAddress(puerto), PENDIENTES);
+    servidor.setExecutor(hilos);
+    servidor.createContext("/mercaderias", manejador("GET", 200, this::mercaderias));
+    servidor.createContext("/ventas", manejador("POST", 201, this::vender));
+    servidor.createContext("/remitos", manejador("GET", 200, this::remito));
+  }
+
+  /**
+   * Inicia el servidor con las opciones de la linea de comandos
+   * {@code [puerto]}. Regresa en cuanto escucha; el servidor sigue hasta que
+   * se detiene el proceso, y al detenerse guarda y cierra el inventario.
+   * @param args Opciones.
+   * @return Verdadero si el servidor inicio, falso en caso contrario.
+   */
+  public static boolean ejecutar(String[] args) {
+    int puerto = args.length > 0 ? Validacion.entero(args[0]) : PUERTO;
+    if(puerto < 0 || puerto > 65535) {
+      System.err.println("ERROR: Uso: --servidor [puerto]");
+      return false;
+    }
+    ServicioInventario servicio;
+    try {
+      servicio = new ServicioInventario(Runnable::run);
+    } catch(IOException e) {
+      System.err.println("ERROR: " + e.getLocalizedMessage());
+      return false;
+    }
+    ServidorHttp servidor;
+    try {
+      servidor = new ServidorHttp(servicio, puerto);
+    } catch(IOException e) {
+      System.err.println("ERROR: " + e.getLocalizedMessage());
+      servicio.cerrar();
+      return false;
+    }
+    Runnable replicacion;
+    try {
+      replicacion = Replicacion.iniciar(servicio);
+    } catch(IOException e) {
+      System.err.println("ERROR: " + e.getLocalizedMessage());
+      servidor.detener();
+      servicio.cerrar();
+      return false;
+    }
+    servicio.setArchivo(ARCHIVO);
+    if(AUTOGUARDADO > 0) {
+      servicio.autoguardar(AUTOGUARDADO, TimeUnit.SECONDS);
+    }
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      servidor.detener();
+      replicacion.run();
+      servicio.guardar();
+      servicio.cerrar();
+    }, "Cierre"));
+    servidor.iniciar();
+    System.out.println("Servidor en el puerto " + servidor.getPuerto() + (Asincrono.hayVirtuales() ? " (hilos virtuales)" : ""));
+    return true;
+  }
+
+  /**
+   * Empieza a atender peticiones.
+   */
+  public void iniciar() {
+    servidor.start();
+  }
+
+  /**
+   * Deja de aceptar peticiones y espera hasta un segundo a las que estan en
+   * curso.
+   */
+  public void detener() {
+    servidor.stop(1);
+    hilos.shutdown();
+  }
+
+  /**
+   * Puerto donde escucha el servidor.
+   * @return Puerto.
+   */
+  public int getPuerto() {
+    return servidor.getAddress().getPort();
+  }
+
+  /**
+   * {@code GET /mercaderias/<clave>} o {@code GET /mercaderias?q=<texto>}.
+   */
+  private String mercaderias(HttpExchange intercambio) {
+    String clave = segmento(intercambio);
+    StringBuilder json = new StringBuilder(256);
+    if(clave != null) {
+      Mercaderia mercaderia = servicio.buscar(entero(clave, "Clave invalida."));
+      if(mercaderia == null) {
+        return null;
+      }
+      mercaderia(json, mercaderia);
+      return json.toString();
+    }
+    Map<String, String> parametros = parametros(intercambio);
+    String consulta = parametros.get("q");
+    if(consulta == null || consulta.trim().isEmpty()) {
+      throw new IllegalArgumentException("Falta la consulta.");
+    }
+    int limite = parametros.containsKey("limite") ? entero(parametros.get("limite"), "Limite invalido.") : MAX_RESULTADOS;
+    List<Mercaderia> resultados = servicio.buscarTexto(consulta, IndiceTexto.TODOS, Math.min(limite, MAX_RESULTADOS));
+    json.append('[');
+    for(int i = 0; i < resultados.size(); i++) {
+      if(i > 0) {
+        json.append(',');
+      }
+      mercaderia(json, resultados.get(i));
+    }
+    return json.append(']').toString();
+  }
+
+  /**
+   * {@code POST /ventas}.
+   */
+  private String vender(HttpExchange intercambio) throws IOException {
+    String[] lineas = leer(intercambio.getRequestBody()).split("\n");
+    Renglones pedido = new Renglones(lineas.length);
+    for (String linea : lineas) {
+      linea = linea.trim();
+      if(linea.isEmpty()) {
+        continue;
+      }
+      int coma = linea.indexOf(',');
+      int clave = entero(coma < 0 ? linea : linea.substring(0, coma).trim(), "Clave invalida: " + linea);
+      int cantidad = coma < 0 ? 1 : entero(linea.substring(coma + 1).trim(), "Cantidad invalida: " + linea);
+      pedido.agregar(clave, cantidad, 0);
+    }
+    if(pedido.tamano() == 0) {
+      throw new IllegalArgumentException("El pedido esta vacio.");
+    }
+    Remito remito = servicio.venderEnDisco(pedido);
+    intercambio.getResponseHeaders().set("Location", "/remitos/" + remito.getFolio());
+    StringBuilder json = new StringBuilder(256);
+    remito(json, remito);
+    return json.toString();
+  }
+
+  /**
+   * {@code GET /remitos/<folio>}.
+   */
+  private String remito(HttpExchange intercambio) throws IOException {
+    String folio = segmento(intercambio);
+    if(folio == null) {
+      throw new IllegalArgumentException("Falta el folio.");
+    }
+    Remito remito = servicio.getRemitos().buscarFolio(entero(folio, "Folio invalido."));
+    if(remito == null) {
+      return null;
+    }
+    StringBuilder json = new StringBuilder(256);
+    remito(json, remito);
+    return json.toString();
+  }
+
+  /**
+   * Envuelve un recurso: comprueba el metodo y convierte las excepciones en
+   * codigos de estado.
+   */
+  private HttpHandler manejador(String metodo, int exito, Recurso recurso) {
+    return (HttpExchange intercambio) -> {
+      try {
+        if(!intercambio.getRequestMethod().equals(metodo)) {
+          intercambio.getResponseHeaders().set("Allow", metodo);
+          responder(intercambio, 405, error("Metodo no permitido."));
+          return;
+        }
+        String json = recurso.atender(intercambio);
+        if(json == null) {
+          responder(intercambio, 404, error("No existe."));
+        } else {
+          responder(intercambio, exito, json);
+        }
+      } catch(IllegalArgumentException e) {
+        responder(intercambio, 400, error(e.getLocalizedMessage()));
+      } catch(IllegalStateException e) {
+        responder(intercambio, 409, error(e.getLocalizedMessage()));
+      } catch(IOException | RuntimeException e) {
+        System.err.println("ERROR: " + e.getLocalizedMessage());
+        responder(intercambio, 500, error("Error interno."));
+      } finally {
+        intercambio.close();
+      }
+    };
+  }
+
+  private static void responder(HttpExchange intercambio, int estado, String json) throws IOException {
+    byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+    intercambio.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    intercambio.sendResponseHeaders(estado, bytes.length);
+    try(OutputStream out = intercambio.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  /**
+   * Lee el cuerpo de una peticion, de a lo mas {@link #MAX_PEDIDO} bytes.
+   */
+  private static String leer(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+    byte[] buffer = new byte[4096];
+    int leidos;
+    while((leidos = in.read(buffer)) >= 0) {
+      bytes.write(buffer, 0, leidos);
+      if(bytes.size() > MAX_PEDIDO) {
+        throw new IllegalArgumentException("El pedido es demasiado grande.");
+      }
+    }
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Segmento de la ruta despues del contexto, o null si no hay.
+   */
+  private static String segmento(HttpExchange intercambio) {
+    String ruta = intercambio.getRequestURI().getPath().substring(intercambio.getHttpContext().getPath().length());
+    if(ruta.startsWith("/")) {
+      ruta = ruta.substring(1);
+    }
+    if(ruta.endsWith("/")) {
+      ruta = ruta.substring(0, ruta.length() - 1);
+    }
+    return ruta.isEmpty() ? null : ruta;
+  }
+
+  private static Map<String, String> parametros(HttpExchange intercambio) {
+    Map<String, String> parametros = new HashMap<>();
+    String consulta = intercambio.getRequestURI().getRawQuery();
+    if(consulta == null) {
+      return parametros;
+    }
+    for (String par : consulta.split("&")) {
+      int igual = par.indexOf('=');
+      try {
+        parametros.put(URLDecoder.decode(igual < 0 ? par : par.substring(0, igual), "UTF-8"),
+                igual < 0 ? "" : URLDecoder.decode(par.substring(igual + 1), "UTF-8"));
+      } catch(IOException e) {
+        // UTF-8 siempre existe.
+      }
+    }
+    return parametros;
+  }
+
+  private static int entero(String texto, String mensaje) {
+    int valor = Validacion.entero(texto);
+    if(valor == Validacion.ENTERO_INVALIDO) {
+      throw new IllegalArgumentException(mensaje);
+    }
+    return valor;
+  }
+
+  private static void mercaderia(StringBuilder json, Mercaderia mercaderia) {
+    json.append("{\"clave\":").append(mercaderia.getClave());
+    json.append(",\"nombre\":");
+    cadena(json, mercaderia.getNombre());
+    json.append(",\"descripcion\":");
+    cadena(json, mercaderia.getDescripcion());
+    json.append(",\"precioVenta\":").append(Dinero.texto(mercaderia.getPrecioVentaCentavos()));
+    json.append(",\"existencias\":").append(mercaderia.getExistencias());
+    json.append(",\"disponibles\":").append(mercaderia.getDisponibles());
+    json.append(",\"tipoUnidad\":");
+    cadena(json, mercaderia.getTipoUnidad());
+    json.append('}');
+  }
+
+  private static void remito(StringBuilder json, Remito remito) {
+    Renglones renglones = remito.getRenglones();
+    json.append("{\"folio\":").append(remito.getFolio());
+    json.append(",\"fecha\":\"").append(LocalDate.ofEpochDay(remito.getDia())).append('"');
+    json.append(",\"renglones\":[");
+    for(int i = 0; i < renglones.tamano(); i++) {
+      if(i > 0) {
+        json.append(',');
+      }
+      json.append("{\"clave\":").append(renglones.getClave(i));
+      json.append(",\"cantidad\":").append(renglones.getCantidad(i));
+      json.append(",\"precio\":").append(Dinero.texto(renglones.getPrecioCentavos(i)));
+      json.append(",\"importe\":").append(Dinero.texto(renglones.getImporteCentavos(i)));
+      json.append('}');
+    }
+    json.append("],\"subtotal\":").append(Dinero.texto(remito.getSubtotalCentavos()));
+    json.append(",\"iva\":").append(Dinero.texto(remito.getIVACentavos()));
+    json.append(",\"total\":").append(Dinero.texto(remito.getTotalCentavos()));
+    json.append('}');
+  }
+
+  private static String error(String mensaje) {
+    StringBuilder json = new StringBuilder("{\"error\":");
+    cadena(json, mensaje);
+    return json.append('}').toString();
+  }
+
+  /**
+   * Escribe una cadena JSON con sus caracteres especiales escapados.
+   */
+  private static void cadena(StringBuilder json, String texto) {
+    if(texto == null) {
+      json.append("null");
+      return;
+    }
+    json.append('"');
+    for(int i = 0; i < texto.length(); i++) {
+      char c = texto.charAt(i);
+      if(c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      } else if(c < 0x20) {
+        json.append(String.format("\\u%04x", (int) c));
+      } else {
+        json.append(c);
+      }
+    }
+    json.append('"');
+  }
+}
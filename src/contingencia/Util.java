@@ -16,14 +16,15 @@
  */
 package contingencia;
 
+import contingencia.Modelo.Catalogo;
+import contingencia.Modelo.Dinero;
 import contingencia.Modelo.Mercaderia;
 import contingencia.Modelo.Remito;
-import java.math.RoundingMode;
+import contingencia.Modelo.Validacion;
 import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.DateFormat;
-import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Optional;
@@ -42,31 +43,21 @@ import javafx.stage.StageStyle;
 public class Util {
   
   /**
-   * Comprueba si una cadena es un entero valido.
+   * Comprueba si una cadena es un entero no negativo que cabe en un int.
    * @param str Cadena a probar.
    * @return Verdadero si es un entero, falso en caso contrario.
    */
   public static boolean esEntero(String str)  {
-    try {
-      Integer.parseUnsignedInt(str);
-    } catch(NumberFormatException nfe) {
-      return false;
-    }
-    return true;
+    return str != null && Validacion.entero(str) != Validacion.ENTERO_INVALIDO;
   }
   
   /**
-   * Comprueba si una cadena es un double valido.
+   * Comprueba si una cadena es un decimal no negativo valido.
    * @param str Cadena a probar.
    * @return Verdadero si es un double, falso en caso contrario.
    */
   public static boolean esDoble(String str)  {
-    try {
-      Double.parseDouble(str);
-    } catch(NumberFormatException nfe) {
-      return false;
-    }
-    return true;
+    return str != null && !Double.isNaN(Validacion.decimal(str));
   }
   
   /**
@@ -155,34 +146,12 @@ public class Util {
    * @return Verdadero si todas las validaciones se cumplen, falso en caso contrario.
    */
   public static boolean esMercaderia(TextField clave, TextField nombre, TextField descripcion, TextField precio, TextField existencias, TextField unidad) {
-    if(!esEntero(clave.getText())) {
-      mostrarError("Introduce un n\u00FAmero entero valido.");
-      clave.clear();
-      return false;
-    }
-    if("".equals(nombre.getText())) {
-      mostrarError("Introduce un nombre.");
-      nombre.clear();
-      return false;
-    }
-    if("".equals(descripcion.getText())) {
-      mostrarError("Introduce una descripci\u00F3n.");
-      descripcion.clear();
-      return false;
-    }
-    if(!esDoble(precio.getText())) {
-      mostrarError("Introduce un n\u00FAmero valido.");
-      precio.clear();
-      return false;
-    }
-    if(!esEntero(existencias.getText())) {
-      mostrarError("Introduce un n\u00FAmero entero valido.");
-      existencias.clear();
-      return false;
-    }
-    if("".equals(unidad.getText())) {
-      mostrarError("Introduce un tipo de unidad.");
-      unidad.clear();
+    Validacion validacion = Validacion.mercaderia(clave.getText(), nombre.getText(), descripcion.getText(),
+        precio.getText(), existencias.getText(), unidad.getText());
+    if(!validacion.esValida()) {
+      mostrarError(validacion.getMensaje());
+      TextField[] campos = {clave, nombre, descripcion, precio, existencias, unidad};
+      campos[validacion.getCampo().ordinal()].clear();
       return false;
     }
     return true;
@@ -196,23 +165,28 @@ public class Util {
     String msg = "Clave: #" + mercaderia.getClave();
     msg += "\nNombre: " + mercaderia.getNombre();
     msg += "\nDescripcion: " + mercaderia.getDescripcion();
-    msg += "\nPrecio de compra: $" + mercaderia.getPrecioCompra();
+    msg += "\nPrecio de compra: $" + Dinero.texto(mercaderia.getPrecioCompraCentavos());
     msg += "\nExistencias: " + mercaderia.getExistencias();
     msg += "\nUnidad: " + mercaderia.getTipoUnidad();
     mostrarInfo(msg);
   }
   
-  public static void verVenta(Remito remito) {
+  /**
+   * Muestra la nota de una venta.
+   * @param remito Remito.
+   * @param catalogo Catalogo para los nombres de las Mercaderias.
+   */
+  public static void verVenta(Remito remito, Catalogo catalogo) {
     String msg = " -=-=-=- Ferreteria -=-=-=-";
     msg += "\nFolio: #" + remito.getFolio() + " - Fecha: " + remito.getFecha();
     msg += "\n -=-=-=-=-=-=-=-=-=-=-=-";
     msg += "\n Mercaderia | Cantidad | Precio";
-    msg += "\n" + remito.getMercaderias();
+    msg += "\n" + remito.getMercaderias(catalogo);
     msg += " -=-=-=-=-=-=-=-=-=-=-=-";
     msg += "\n             Mercaderias: #" + remito.getCantidad();
-    msg += "\n               Subtotal: $" + remito.getSubtotal();
-    msg += "\n                      IVA: $" + remito.getIVA();
-    msg += "\n                    Total: $" + remito.getTotal();
+    msg += "\n               Subtotal: $" + Dinero.texto(remito.getSubtotalCentavos());
+    msg += "\n                      IVA: $" + Dinero.texto(remito.getIVACentavos());
+    msg += "\n                    Total: $" + Dinero.texto(remito.getTotalCentavos());
     mostrarNota(msg);
   }
   
@@ -225,15 +199,4 @@ public class Util {
     return dateFormat.format(new Date());
   }
   
-  /**
-   * Redondea un double a 2 decimales.
-   * @param d Double a redondear.
-   * @return Double redondeado.
-   */
-  public static double redondear(double d) {
-    DecimalFormat df = new DecimalFormat("#.##");
-    df.setRoundingMode(RoundingMode.DOWN);
-    return Double.parseDouble(df.format(d));
-  }
-  
 }
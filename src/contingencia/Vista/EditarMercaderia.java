@@ -16,6 +16,7 @@
  */
 package contingencia.Vista;
 
+import contingencia.ServicioInventario;
 import contingencia.Modelo.Mercaderia;
 import static contingencia.Util.esMercaderia;
 import javafx.application.Application;
@@ -40,6 +41,7 @@ import javafx.stage.Stage;
 public class EditarMercaderia extends Application {
   
   private Mercaderia mercaderia;
+  private ServicioInventario servicio;
   private Stage stage;
   private TextField clave, nombre, descripcion, precio, existencias, unidad;
   private boolean guardarCambios = false;
@@ -53,10 +55,12 @@ public class EditarMercaderia extends Application {
    * Carga el escenario con el producto a editar.
    * @param primaryStage Escenario.
    * @param producto Producto.
+   * @param servicio Servicio que aplica los cambios.
    * @return Verdadero si hubo cambios, falso en caso contrario.
    */
-  public boolean cargar(Stage primaryStage, Mercaderia mercaderia) {
+  public boolean cargar(Stage primaryStage, Mercaderia mercaderia, ServicioInventario servicio) {
     this.mercaderia = mercaderia;
+    this.servicio = servicio;
     stage = new Stage();
     stage.getIcons().add(new Image("file:resources/images/cart.png"));
     stage.setTitle("Editar producto");
@@ -148,12 +152,14 @@ public class EditarMercaderia extends Application {
    */
   public void guardarMercaderia() {
     if(esMercaderia(clave, nombre, descripcion, precio, existencias, unidad)) {
-     mercaderia.setNombre(nombre.getText());
-      mercaderia.setDescripcion(descripcion.getText());
-      mercaderia.setPrecioCompra(Double.parseDouble(precio.getText()));
-      mercaderia.setExistencias(Integer.parseInt(existencias.getText()));
-      mercaderia.setTipoUnidad(unidad.getText());
-      guardarCambios = true;
+      guardarCambios = servicio.editar(
+          mercaderia.getClave(),
+          nombre.getText(),
+          descripcion.getText(),
+          Double.parseDouble(precio.getText()),
+          Integer.parseInt(existencias.getText()),
+          unidad.getText()
+      );
       stage.close();
     }
   }  
@@ -16,7 +16,15 @@
  */
 package contingencia.Vista;
 
-import contingencia.Archivo;
+import contingencia.Asincrono;
+import contingencia.Avance;
+import contingencia.BusquedaDiferida;
+import contingencia.EscuchaInventario;
+import contingencia.RemitosPaginados;
+import contingencia.Replicacion;
+import contingencia.ServicioInventario;
+import contingencia.Modelo.Dinero;
+import contingencia.Modelo.IndiceTexto;
 import contingencia.Modelo.Mercaderia;
 import static contingencia.Util.esMercaderia;
 import static contingencia.Util.verMercaderia;
@@ -24,16 +32,26 @@ import static contingencia.Util.mostrarConfirmacion;
 import static contingencia.Util.mostrarError;
 import static contingencia.Util.mostrarInfo;
 import contingencia.Modelo.Remito;
+import contingencia.Modelo.Renglones;
+import contingencia.Modelo.Reporte;
+import contingencia.Modelo.Totales;
 import static contingencia.Util.esEntero;
-import static contingencia.Util.redondear;
 import static contingencia.Util.verVenta;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDate;
+import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
-import javafx.collections.transformation.FilteredList;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -44,6 +62,7 @@ import javafx.scene.control.DatePicker;
 import javafx.scene.control.Hyperlink;
 import javafx.scene.control.Label;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.Separator;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableRow;
@@ -67,12 +86,28 @@ import javafx.stage.Stage;
  */
 public class MenuPrincipal extends Application {
   
+  /** Resultados mostrados en una busqueda de texto. */
+  private static final int MAX_RESULTADOS = 200;
+  /** Formato de los meses en los reportes. */
+  private static final DateTimeFormatter FORMATO_MES = DateTimeFormatter.ofPattern("MM/yyyy");
+  /** Segundos entre cada guardado automatico; 0 lo desactiva. */
+  private static final int AUTOGUARDADO = Integer.getInteger("contingencia.autoguardado", 60);
+  /** Meses de Remitos que no se archivan, ademas del actual; 0 lo desactiva. */
+  private static final int ARCHIVO = Integer.getInteger("contingencia.archivo", 12);
+  
   private Stage stage;
   private BorderPane bp;
   private TableView<Mercaderia> tablaMercaderias;
   private TableView<Remito> tablaRemitos;
   private ObservableList<Mercaderia> mercaderias;
-  private ObservableList<Remito> remitos;
+  private ServicioInventario servicio;
+  private RemitosPaginados remitos;
+  private BusquedaDiferida<List<Mercaderia>> busqueda;
+  private Text resumen;
+  private Asincrono io;
+  private Runnable replicacion;
+  private ProgressBar barra;
+  private Label paso;
 
   @Override
   public void start(Stage stage) {
@@ -93,35 +128,137 @@ public class MenuPrincipal extends Application {
   }
   
   /**
-   * Prepara al escenario para iniciar.
+   * Prepara al escenario para iniciar. El inventario se abre en segundo
+   * plano mientras la ventana muestra el avance.
    */
   private void cargar() {
-    mercaderias = new Archivo<Mercaderia>().cargar("Mercaderia");
-    remitos = new Archivo<Remito>().cargar("Remitos");
+    io = new Asincrono(Platform::runLater);
     stage.setTitle("Contingencia - Mercaderia");
     stage.getIcons().add(new Image("file:resources/images/cart.png"));
     stage.setResizable(false);
-    stage.setScene(menu());
-    //stage.getScene().getStylesheets().add("file:resources/DarkTheme.css");
+    stage.setScene(progreso("Abriendo inventario"));
     stage.centerOnScreen();
     stage.setOnCloseRequest((EventHandler) -> {
-      if(esAdmin()) {
-        guardar();
-      }
+      EventHandler.consume();
     });
     stage.show();
+    io.ejecutar((Avance avance) -> new ServicioInventario(Platform::runLater, avance), this::avanzar).whenComplete((abierto, error) -> {
+      if(error != null) {
+        System.err.println("ERROR: " + error.getLocalizedMessage());
+        io.cerrar();
+        mostrarError("No se pudo abrir el inventario.");
+        stage.close();
+      } else {
+        iniciar(abierto);
+      }
+    });
   }
-  
+
   /**
-   * Guarda los Mercaderia; y las ventas.
+   * Muestra el menu una vez abierto el inventario.
    */
-  private void guardar() {
-    if(mercaderias!= null) {
-      new Archivo<Mercaderia>().guardar(mercaderias, "Mercaderia");
+  private void iniciar(ServicioInventario abierto) {
+    servicio = abierto;
+    try {
+      replicacion = Replicacion.iniciar(servicio);
+    } catch(IOException e) {
+      System.err.println("ERROR: " + e.getLocalizedMessage());
+      mostrarError("No se pudo iniciar la replicaci\u00F3n.");
+      replicacion = () -> {};
     }
-    if(remitos != null) {
-      new Archivo<Remito>().guardar(remitos, "Remitos");
+    if(servicio.isSoloLectura()) {
+      stage.setTitle("Contingencia - Mercaderia (r\u00E9plica)");
+    }
+    mercaderias = FXCollections.observableArrayList(servicio.getMercaderias());
+    remitos = servicio.getRemitos();
+    busqueda = new BusquedaDiferida<>(Platform::runLater, (resultados) -> {
+      tablaMercaderias.setItems(FXCollections.observableList(resultados));
+      bp.setCenter(tablaMercaderias);
+    });
+    servicio.setEscucha(new EscuchaInventario() {
+      @Override
+      public void alta(Mercaderia mercaderia) {
+        mercaderias.add(mercaderia);
+        actualizarResumen();
+      }
+
+      @Override
+      public void baja(Mercaderia mercaderia) {
+        mercaderias.remove(mercaderia);
+        actualizarResumen();
+      }
+
+      @Override
+      public void cambio(Mercaderia mercaderia) {
+        tablaMercaderias.refresh();
+        actualizarResumen();
+      }
+
+      @Override
+      public void venta(Remito remito) {
+        tablaMercaderias.refresh();
+        actualizarResumen();
+      }
+    });
+    stage.setScene(menu());
+    //stage.getScene().getStylesheets().add("file:resources/DarkTheme.css");
+    stage.centerOnScreen();
+    servicio.setArchivo(ARCHIVO);
+    if(guardaCambios() && AUTOGUARDADO > 0) {
+      servicio.autoguardar(AUTOGUARDADO, TimeUnit.SECONDS);
     }
+    stage.setOnCloseRequest((EventHandler) -> {
+      EventHandler.consume();
+      cerrar();
+    });
+  }
+
+  /**
+   * Guarda y cierra el inventario en segundo plano mostrando el avance, y
+   * cierra la ventana al terminar.
+   */
+  private void cerrar() {
+    busqueda.cerrar();
+    boolean guardar = guardaCambios();
+    stage.setScene(progreso("Guardando"));
+    stage.setOnCloseRequest((EventHandler) -> {
+      EventHandler.consume();
+    });
+    io.ejecutar((Avance avance) -> {
+      replicacion.run();
+      boolean guardado = !guardar || servicio.guardar(avance);
+      servicio.cerrar();
+      return guardado;
+    }, this::avanzar).whenComplete((guardado, error) -> {
+      if(error != null) {
+        System.err.println("ERROR: " + error.getLocalizedMessage());
+      }
+      io.cerrar();
+      stage.close();
+    });
+  }
+
+  /**
+   * Escena con el avance de una tarea larga.
+   */
+  private Scene progreso(String titulo) {
+    paso = new Label(titulo);
+    barra = new ProgressBar(0);
+    barra.setPrefWidth(300);
+    VBox vb = new VBox();
+    vb.setPadding(new Insets(20));
+    vb.setSpacing(10);
+    vb.setAlignment(Pos.CENTER);
+    vb.getChildren().addAll(paso, barra);
+    return new Scene(vb);
+  }
+
+  /**
+   * Muestra el avance en la escena de {@link #progreso(String)}.
+   */
+  private void avanzar(double fraccion, String mensaje) {
+    barra.setProgress(fraccion);
+    paso.setText(mensaje);
   }
   
   /**
@@ -169,7 +306,7 @@ public class MenuPrincipal extends Application {
       editar.setOnAction((ActionEvent) -> {
         editarMercaderia(row.getItem());
       });
-      if(esAdmin()) {
+      if(puedeEditar()) {
         contextMenu.getItems().add(editar);
       }
       
@@ -177,7 +314,7 @@ public class MenuPrincipal extends Application {
       eliminar.setOnAction((ActionEvent) -> {
         eliminarMercaderia(row.getItem());
       });
-      if(esAdmin()) {
+      if(puedeEditar()) {
         contextMenu.getItems().add(eliminar);
       }
       
@@ -205,8 +342,11 @@ public class MenuPrincipal extends Application {
     fecha.setCellValueFactory(new PropertyValueFactory("fecha"));
     tablaRemitos.getColumns().add(fecha);
     
-    TableColumn mercaderia = new TableColumn("mercaderias");
-    mercaderia.setCellValueFactory(new PropertyValueFactory("mercaderias"));
+    TableColumn<Remito, String> mercaderia = new TableColumn<>("mercaderias");
+    mercaderia.setCellValueFactory((celda) -> {
+      // La fila queda vacia mientras su pagina se lee del disco.
+      return new ReadOnlyStringWrapper(celda.getValue() == null ? null : celda.getValue().getMercaderias(servicio));
+    });
     tablaRemitos.getColumns().add(mercaderia);
     
     TableColumn cantidad = new TableColumn("Cantidad");
@@ -231,7 +371,9 @@ public class MenuPrincipal extends Application {
       
       final MenuItem mostrar = new MenuItem("Mostrar");
       mostrar.setOnAction((ActionEvent) -> {
-        verVenta(row.getItem());
+        if(row.getItem() != null) {
+          verVenta(row.getItem(), servicio);
+        }
       });
       contextMenu.getItems().add(mostrar);
       
@@ -275,6 +417,8 @@ public class MenuPrincipal extends Application {
       switch(opciones.getSelectionModel().getSelectedItem()) {
         case "Mercaderias":
           stage.setTitle("Contingencia - Mercaderias");
+          busqueda.cancelar();
+          tablaMercaderias.setItems(mercaderias);
           bp.setCenter(tablaMercaderias);
           bp.setBottom(null);
           break;
@@ -302,7 +446,7 @@ public class MenuPrincipal extends Application {
     agregar.setOnAction((ActionEvent) -> {
       bp.setRight(agregarMercaderia());
     });
-    if(esAdmin()) {
+    if(puedeEditar()) {
       vb.getChildren().add(agregar);
     }
    
@@ -312,6 +456,11 @@ public class MenuPrincipal extends Application {
     });
     vb.getChildren().add(inventario);
     
+    resumen = new Text();
+    resumen.setFont(Font.font("Arial", 11));
+    actualizarResumen();
+    vb.getChildren().add(resumen);
+    
     Hyperlink buscar = new Hyperlink("Buscar");
     buscar.setOnAction((ActionEvent) -> {
       bp.setRight(buscarMercaderia());
@@ -323,7 +472,7 @@ public class MenuPrincipal extends Application {
       bp.getLeft().setDisable(true);
       bp.setRight(venderMercaderia());
     });
-    if(esAdmin()) {
+    if(puedeEditar()) {
       vb.getChildren().add(vender);
     }
     return vb;
@@ -381,14 +530,15 @@ public class MenuPrincipal extends Application {
         clave.clear();
         return;
       }
-      mercaderias.add(new Mercaderia(
+      Mercaderia mercaderia = new Mercaderia(
           Integer.parseInt(clave.getText()),
           nombre.getText(),
           descripcion.getText(),
           Double.parseDouble(precio.getText()),
           Integer.parseInt(existencias.getText()),
           unidad.getText()
-      ));
+      );
+      servicio.agregar(mercaderia);
       clave.clear();
       nombre.clear();
       descripcion.clear();
@@ -410,9 +560,7 @@ public class MenuPrincipal extends Application {
   
   private void editarMercaderia(Mercaderia mercaderia) {
     EditarMercaderia eP = new EditarMercaderia();
-    if(eP.cargar(stage, mercaderia)) {
-      tablaMercaderias.refresh();
-    }
+    eP.cargar(stage, mercaderia, servicio);
   }
   
   /**
@@ -437,6 +585,14 @@ public class MenuPrincipal extends Application {
     TextField campo = new TextField();
     vb.getChildren().add(campo);
     
+    // Por nombre o descripcion la tabla se filtra mientras se escribe.
+    campo.textProperty().addListener((observable, anterior, texto) -> {
+      filtrarMercaderias(opciones.getValue(), texto);
+    });
+    opciones.setOnAction((ActionEvent) -> {
+      filtrarMercaderias(opciones.getValue(), campo.getText());
+    });
+    
     HBox hb = new HBox();
     hb.setSpacing(5);
     hb.setAlignment(Pos.CENTER);
@@ -454,6 +610,7 @@ public class MenuPrincipal extends Application {
             return;
           }
           buscarMercaderiaClave(Integer.parseInt(campo.getText()));
+          campo.clear();
           break;
         case "Nombre":
           buscarMercaderiaNombre(campo.getText());
@@ -465,12 +622,13 @@ public class MenuPrincipal extends Application {
           mostrarError("Opci\u00F3n invalida");
           break;
       }
-      campo.clear();
     });
     hb.getChildren().add(agregar);
     
     Button cerrar = new Button("Cerrar");
     cerrar.setOnAction((ActionEvent) -> {
+      busqueda.cancelar();
+      tablaMercaderias.setItems(mercaderias);
       bp.setRight(null);
     });
     hb.getChildren().add(cerrar);
@@ -479,13 +637,39 @@ public class MenuPrincipal extends Application {
     return vb;
   }
   
+  /**
+   * Filtra la tabla de Mercaderias con el texto escrito hasta ahora. La
+   * busqueda corre en segundo plano; un texto vacio muestra todas.
+   * @param opcion Campo elegido.
+   * @param texto Texto escrito.
+   */
+  private void filtrarMercaderias(String opcion, String texto) {
+    int campos;
+    switch(opcion) {
+      case "Nombre":
+        campos = IndiceTexto.NOMBRE;
+        break;
+      case "Descripcion":
+        campos = IndiceTexto.DESCRIPCION;
+        break;
+      default:
+        return;
+    }
+    if(texto.trim().isEmpty()) {
+      busqueda.cancelar();
+      tablaMercaderias.setItems(mercaderias);
+      return;
+    }
+    busqueda.buscar(() -> servicio.buscarTexto(texto, campos, MAX_RESULTADOS));
+  }
+  
   /**
    * Elimina un Mercaderia del sistema.
    * @param mercaderia Mercaderia a eliminar.
    */
   private void eliminarMercaderia(Mercaderia mercaderia) {
     if(mostrarConfirmacion("Estas seguro de eliminar la Mercaderia con el ID #" + mercaderia.getClave() + "?")) {
-      tablaMercaderias.getItems().remove(mercaderia);
+      servicio.eliminar(mercaderia.getClave());
     }
   }
   
@@ -507,6 +691,10 @@ public class MenuPrincipal extends Application {
     clave.setPromptText("Clave");
     vb.getChildren().add(clave);
     
+    TextField cantidad = new TextField("1");
+    cantidad.setPromptText("Cantidad");
+    vb.getChildren().add(cantidad);
+    
     HBox hb = new HBox();
     hb.setSpacing(5);
     hb.setAlignment(Pos.CENTER);
@@ -516,16 +704,17 @@ public class MenuPrincipal extends Application {
     
     Button listo = new Button("Listo");
     listo.setOnAction((ActionEvent) -> {
-      if(cantidadP >= 1) {
-        remitos.add(new Remito(generarFolio(), ventaP, cantidadP, redondear(subtotalP), 0.16));
+      if(ventaP.tamano() >= 1) {
+        try {
+          servicio.venderReservado(ventaP);
+        } catch(IllegalArgumentException | IllegalStateException | UncheckedIOException e) {
+          servicio.liberar(ventaP);
+          mostrarError(e.getMessage());
+        }
       }
-      existeP = false;
-      cantidadP = 0;
-      subtotalP = 0;
-      ventaP = "";
+      ventaP.limpiar();
       bp.getLeft().setDisable(false);
       bp.setRight(null);
-      tablaMercaderias.refresh();
     });
     hb.getChildren().add(listo);
     
@@ -535,48 +724,36 @@ public class MenuPrincipal extends Application {
     vb.getChildren().add(nota);
     
     agregar.setOnAction((ActionEvent) -> {
-      if(!esEntero(clave.getText())) {
+      if(!esEntero(clave.getText()) || !esEntero(cantidad.getText())) {
         mostrarError("Introduce un n\u00FAmero entero valido.");
         return;
       }
-      nota.setText(vendeMercaderia(Integer.parseInt(clave.getText())));
+      nota.setText(vendeMercaderia(Integer.parseInt(clave.getText()), Integer.parseInt(cantidad.getText())));
+      cantidad.setText("1");
     });
     
     return vb;
   }
   
-  protected boolean existeP = false;
-  protected int cantidadP = 0;
-  protected double subtotalP = 0;
-  protected String ventaP = "";
+  protected final Renglones ventaP = new Renglones();
   /**
-   * Vende Mercaderias del inventario.
+   * Agrega Mercaderias al pedido abierto. Las unidades se reservan de
+   * inmediato, asi que otra venta no las puede tomar mientras el pedido siga
+   * abierto; se descuentan de las existencias al cerrar la venta.
    * @param clave Clave del Mercaderia
+   * @param cantidad Unidades a vender.
    * @return Nota de venta
    */
-  private String vendeMercaderia(int clave) {
-    Iterator<Mercaderia> it = mercaderias.iterator();
-    while(it.hasNext()) {
-      existeP = false;
-    Mercaderia mercaderia = it.next();
-      if (mercaderia.getClave() == clave) {
-        existeP = true;
-        if(mercaderia.venderMercaderia()) {
-          cantidadP++;
-          double precio = mercaderia.getPrecioCompra() * 1.50;
-          precio = redondear(precio);
-          ventaP += mercaderia.getNombre() + " | " +mercaderia.getTipoUnidad() + " | $" + precio + "\n";
-          subtotalP += precio;
-        } else {
-          mostrarError("La mercaderia no se encuentra en existencia.");
-        }
-        break;
-      }
-    }
-    if(existeP == false) {
+  private String vendeMercaderia(int clave, int cantidad) {
+    Mercaderia mercaderia = servicio.buscar(clave);
+    if(mercaderia == null) {
       mostrarError("La mercaderia no existe en el inventario.");
+    } else if(cantidad < 1 || !servicio.reservar(clave, cantidad)) {
+      mostrarError("La mercaderia no se encuentra en existencia.");
+    } else {
+      ventaP.agregar(mercaderia, cantidad);
     }
-    return ventaP;
+    return ventaP.detalle(servicio);
   }
   
   /**
@@ -585,43 +762,29 @@ public class MenuPrincipal extends Application {
    * @return Verdadero si exista, falso en caso contrario.
    */
   private boolean existeMercaderia(int clave) {
-    for (Mercaderia mercaderia : mercaderias) {
-      if (mercaderia.getClave() == clave) {
-        return true;
-      }
-    }
-    return false;
+    return servicio.existe(clave);
   }
   
   /**
    * Calcula el valor del inventario.
    */
   private void calcularInventario() {
-    int numMercaderias = 0;
-    int numExistencias = 0;
-    double costos = 0;
-    for (Mercaderia mercaderia : mercaderias) {
-      numMercaderias++;
-      numExistencias += mercaderia.getExistencias();
-      costos += mercaderia.getPrecioCompra();
-    }
+    Totales totales = servicio.getTotales();
     String msg = "";
-    msg += "Mercaderias: " + numMercaderias + "\n";
-    msg += "Existencias: " + numExistencias + "\n";
-    msg += "Valor: $" + costos;
+    msg += "Mercaderias: " + totales.getMercaderias() + "\n";
+    msg += "Existencias: " + totales.getUnidades() + "\n";
+    msg += "Valor: $" + Dinero.texto(totales.getValorCostoCentavos()) + "\n";
+    msg += "Valor de venta: $" + Dinero.texto(totales.getValorVentaCentavos());
     mostrarInfo(msg);
   }
   
   /**
-   * Genera un folio para una venta.
-   * @return Folio.
+   * Actualiza el resumen del inventario en el panel de opciones.
    */
-  private int generarFolio() {
-    int folio = 1;
-    if(!remitos.isEmpty()) {
-      folio += remitos.get(remitos.size() - 1).getFolio();
-    }
-    return folio;
+  private void actualizarResumen() {
+    Totales totales = servicio.getTotales();
+    resumen.setText("Existencias: " + totales.getUnidades() + "\n"
+        + "Valor: $" + Dinero.texto(totales.getValorCostoCentavos()));
   }
   
   /**
@@ -631,47 +794,70 @@ public class MenuPrincipal extends Application {
   private boolean esAdmin() {
     return stage.getUserData() == "true";
   }
+
+  /**
+   * Comprueba si el usuario puede cambiar el inventario: debe ser
+   * administrador y el inventario no debe ser una replica.
+   * @return Verdadero si puede, falso en caso contrario.
+   */
+  private boolean puedeEditar() {
+    return esAdmin() && !servicio.isSoloLectura();
+  }
+
+  /**
+   * Comprueba si esta terminal guarda los cambios: los de un administrador o
+   * los que llegan del primario a una replica.
+   * @return Verdadero si guarda, falso en caso contrario.
+   */
+  private boolean guardaCambios() {
+    return esAdmin() || servicio.isSoloLectura();
+  }
   
    /**
    * Busca mercaderia en el inventario por su clave.
    * @param clave Clave de la mercaderia.
    */
   private void buscarMercaderiaClave(int clave) {
-    for (Mercaderia mercaderia : mercaderias) {
-      if (mercaderia.getClave() == clave) {
-        verMercaderia(mercaderia);
-        return;
-      }
+    Mercaderia mercaderia = servicio.buscar(clave);
+    if(mercaderia != null) {
+      verMercaderia(mercaderia);
+      return;
     }
     mostrarError("No existe mercaderia con tal clave en el inventario.");
   }
   
   /**
-   * Busca un mercaderia en el inventario por su nombre.
-   * @param nombre Nombre del mercaderia.
+   * Busca mercaderias en el inventario por las palabras de su nombre.
+   * @param nombre Palabras del nombre; pueden ser solo el inicio.
    */
   private void buscarMercaderiaNombre(String nombre) {
-    for (Mercaderia mercaderia : mercaderias) {
-      if (mercaderia.getNombre().equals(nombre)) {
-        verMercaderia(mercaderia);
-        return;
-      }
-    }
-    mostrarError("No existe mercaderia con tal nombre en el inventario.");
+    mostrarResultados(servicio.buscarTexto(nombre, IndiceTexto.NOMBRE, MAX_RESULTADOS),
+        "No existe mercaderia con tal nombre en el inventario.");
   }
   
   /**
-   * Busca un mercaderiao en el inventario por su descripción.
-   * @param descripcion Descripción del mercaderia.
+   * Busca mercaderias en el inventario por las palabras de su descripción.
+   * @param descripcion Palabras de la descripción; pueden ser solo el inicio.
    */
   private void buscarMercaderiaDescripcion(String descripcion) {
-    for (Mercaderia mercaderia : mercaderias) {
-      if (mercaderia.getDescripcion().equals(descripcion)) {
-        verMercaderia(mercaderia);
-        return;
-      }
+    mostrarResultados(servicio.buscarTexto(descripcion, IndiceTexto.DESCRIPCION, MAX_RESULTADOS),
+        "No existe la mercaderia con tal descripcion en el inventario.");
+  }
+  
+  /**
+   * Muestra en la tabla los resultados de una busqueda, del mas al menos
+   * relevante.
+   * @param resultados Mercaderias encontradas.
+   * @param error Mensaje si no hay resultados.
+   */
+  private void mostrarResultados(List<Mercaderia> resultados, String error) {
+    busqueda.cancelar();
+    if(resultados.isEmpty()) {
+      mostrarError(error);
+      return;
     }
-    mostrarError("No existe la mercaderia con tal descripcion en el inventario.");
+    tablaMercaderias.setItems(FXCollections.observableList(resultados));
+    bp.setCenter(tablaMercaderias);
   }
   
   /**
@@ -683,8 +869,6 @@ public class MenuPrincipal extends Application {
     hb.setSpacing(5);
     hb.setAlignment(Pos.CENTER_LEFT);
     
-    FilteredList<Remito> filtro = new FilteredList<>(remitos);
-    
     Label titulo = new Label("Filtrar por fecha ");
     hb.getChildren().add(titulo);
     
@@ -712,25 +896,120 @@ public class MenuPrincipal extends Application {
     hb.getChildren().add(restablecer);
     
     filtrar.setOnAction((ActionEvent) -> {
-      filtro.setPredicate(remito -> {
-        LocalDate fechaV = LocalDate.parse(remito.getFecha(), DateTimeFormatter.ofPattern("dd/MM/yyyy"));
-        switch(opciones.getSelectionModel().getSelectedItem()) {
+      int dia = (int) fecha.getValue().toEpochDay();
+      String opcion = opciones.getSelectionModel().getSelectedItem();
+      if(remitos.ordenadoPorDia()) {
+        switch(opcion) {
           case "=":
-            return fechaV.isEqual(fecha.getValue());
+            tablaRemitos.setItems(remitos.rango(remitos.inicioDia(dia), remitos.inicioDia(dia + 1)));
+            break;
           case ">":
-            return fechaV.isAfter(fecha.getValue());
+            tablaRemitos.setItems(remitos.rango(remitos.inicioDia(dia + 1), remitos.size()));
+            break;
           case "<":
-            return fechaV.isBefore(fecha.getValue());
+            tablaRemitos.setItems(remitos.rango(0, remitos.inicioDia(dia)));
+            break;
+          default:
+            mostrarError("Opci\u00F3n invalida");
+            return;
+        }
+      } else {
+        // Solo si el reloj se atraso alguna vez hay que revisar remito por
+        // remito, leyendo el historial fuera del hilo de la interfaz.
+        filtrar.setDisable(true);
+        io.ejecutar((Avance avance) -> {
+          List<Remito> encontrados = new ArrayList<>();
+          int total = remitos.total();
+          for(int desde = 0; desde < total; desde += RemitosPaginados.PAGINA) {
+            for (Remito remito : remitos.leer(desde, Math.min(desde + RemitosPaginados.PAGINA, total))) {
+              if(opcion.equals("=") ? remito.getDia() == dia : opcion.equals(">") ? remito.getDia() > dia : remito.getDia() < dia) {
+                encontrados.add(remito);
+              }
+            }
+          }
+          return encontrados;
+        }).whenComplete((encontrados, error) -> {
+          filtrar.setDisable(false);
+          if(error != null) {
+            System.err.println("ERROR: " + error.getLocalizedMessage());
+            mostrarError("No se pudieron filtrar las ventas.");
+          } else {
+            tablaRemitos.setItems(FXCollections.observableArrayList(encontrados));
+            restablecer.setVisible(true);
+          }
+        });
+        return;
+      }
+      restablecer.setVisible(true);
+    });
+    
+    Button reporte = new Button("Reporte");
+    reporte.setOnAction((ActionEvent) -> {
+      int dia = (int) fecha.getValue().toEpochDay();
+      int desde;
+      int hasta;
+      switch(opciones.getSelectionModel().getSelectedItem()) {
+        case "=":
+          desde = dia;
+          hasta = dia + 1;
+          break;
+        case ">":
+          desde = dia + 1;
+          hasta = Integer.MAX_VALUE;
+          break;
+        case "<":
+          desde = Integer.MIN_VALUE;
+          hasta = dia;
+          break;
         default:
           mostrarError("Opci\u00F3n invalida");
+          return;
       }
-        return true;
+      reporte.setDisable(true);
+      io.ejecutar((Avance avance) -> servicio.reporte(desde, hasta)).whenComplete((resultado, error) -> {
+        reporte.setDisable(false);
+        if(error != null) {
+          System.err.println("ERROR: " + error.getLocalizedMessage());
+          mostrarError("No se pudo generar el reporte.");
+        } else {
+          mostrarReporte(resultado);
+        }
       });
-      tablaRemitos.setItems(filtro);
-      restablecer.setVisible(true);
     });
+    hb.getChildren().add(reporte);
     
     return hb;
   }
   
+  /**
+   * Muestra un reporte de ventas.
+   * @param reporte Reporte a mostrar.
+   */
+  private void mostrarReporte(Reporte reporte) {
+    Reporte.Periodo total = reporte.getTotal();
+    String msg = "";
+    msg += "Remitos: " + total.getRemitos() + "\n";
+    msg += "Unidades: " + total.getUnidades() + "\n";
+    msg += "Subtotal: $" + Dinero.texto(total.getSubtotalCentavos()) + "\n";
+    msg += "IVA: $" + Dinero.texto(total.getIVACentavos()) + "\n";
+    msg += "Total: $" + Dinero.texto(total.getTotalCentavos()) + "\n";
+    if(reporte.getMeses().size() > 1) {
+      msg += "\nPor mes:\n";
+      for (Map.Entry<YearMonth, Reporte.Periodo> mes : reporte.getMeses().entrySet()) {
+        msg += mes.getKey().format(FORMATO_MES) + ": $" + Dinero.texto(mes.getValue().getTotalCentavos())
+            + " (" + mes.getValue().getRemitos() + " remitos)\n";
+      }
+    }
+    int[] masVendidas = reporte.masVendidas(5);
+    if(masVendidas.length > 0) {
+      msg += "\nMas vendidas:\n";
+      for (int clave : masVendidas) {
+        Mercaderia mercaderia = servicio.buscar(clave);
+        msg += (mercaderia == null ? "#" + clave : mercaderia.getNombre()) + ": "
+            + reporte.getUnidades(clave) + " ($" + Dinero.texto(reporte.getImporteCentavos(clave)) + ")\n";
+      }
+    }
+    mostrarInfo(msg);
+  }
+  
 }